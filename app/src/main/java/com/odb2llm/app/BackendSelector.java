@@ -0,0 +1,86 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * picks the available inference backend with the lowest expected time to first token
+ *
+ * latencies are measured by the backends on every request. remote backends are probed before they are
+ * used and again after a failure. if the chosen backend fails before the first token, the next one is tried
+ */
+final class BackendSelector {
+
+    private static final long PROBE_INTERVAL_MS = 60000;
+
+    private final List<InferenceBackend> backends = new ArrayList<>();
+    private long probedAt;
+
+    void add(InferenceBackend backend) {
+        synchronized (backends) {
+            backends.add(backend);
+        }
+    }
+
+    /**
+     * @return available backends, fastest first
+     */
+    List<InferenceBackend> ranked() {
+        probe();
+        List<InferenceBackend> ranked = new ArrayList<>();
+        synchronized (backends) {
+            for (InferenceBackend backend : backends)
+                if (backend.isAvailable())
+                    ranked.add(backend);
+        }
+        ranked.sort((a, b) -> Long.compare(a.latencyMs(), b.latencyMs()));
+        return ranked;
+    }
+
+    /**
+     * blocking, call from the inference worker
+     *
+     * @param persona reusable instructions, see PromptBuilder
+     */
+    String generate(String persona, String user, InferenceBackend.TokenListener listener) throws Exception {
+        Exception failure = null;
+        for (InferenceBackend backend : ranked()) {
+            boolean[] streamed = new boolean[1];
+            try {
+                PromptBuilder.Prompt prompt = backend.newPrompt().persona(persona).user(user).build();
+                String response = backend.generate(prompt, token -> {
+                    streamed[0] = true;
+                    listener.onToken(token);
+                });
+                Log.d(OBDUtils.TAG, "generated by " + backend.name() + ", latency " + backend.latencyMs() + " ms");
+                return response;
+            } catch (Exception e) {
+                Log.w(OBDUtils.TAG, backend.name() + " failed: " + e);
+                if (streamed[0])
+                    throw e;    // part of the answer is already shown
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IllegalStateException("no inference backend available");
+    }
+
+    /**
+     * measure remote backends which are unknown or failed, at most every PROBE_INTERVAL_MS
+     */
+    private void probe() {
+        long now = System.currentTimeMillis();
+        List<HttpBackend> remote = new ArrayList<>();
+        synchronized (backends) {
+            if (now - probedAt < PROBE_INTERVAL_MS)
+                return;
+            probedAt = now;
+            for (InferenceBackend backend : backends)
+                if (backend instanceof HttpBackend && !backend.isAvailable())
+                    remote.add((HttpBackend) backend);
+        }
+        for (HttpBackend backend : remote)
+            Log.d(OBDUtils.TAG, backend.name() + (backend.probe() ? " reachable in " + backend.latencyMs() + " ms" : " not reachable"));
+    }
+}
@@ -0,0 +1,169 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * outbound commands of a connection, written to the transport by an own writer thread
+ *
+ * callers (the PollScheduler thread, the UI thread) only enqueue, so a stalled Bluetooth link blocks the
+ * writer thread and nothing else. a command still queued after its deadline is dropped, the adapter would
+ * answer it after the caller gave up waiting. the caller is told, so it need not wait for a reply either.
+ * equal commands are not merged here, PollScheduler merges equal Mode 01 requests with their callbacks
+ */
+final class CommandQueue {
+
+    interface Sink {
+        void write(byte[] data, int off, int len) throws IOException;
+    }
+
+    interface ErrorListener {
+        void onWriteError(Exception e);   // writer thread, the queue is closed
+    }
+
+    /** shorter than PollScheduler.RESPONSE_TIMEOUT_MS, a dropped command is completed before its timeout */
+    static final long DEFAULT_DEADLINE_MS = 2000;
+
+    private static final class Entry {
+        final byte[] data;
+        final long enqueued;    // nanoTime
+        final long deadline;
+        final Runnable expired;
+
+        Entry(byte[] data, long enqueued, long deadline, Runnable expired) {
+            this.data = data;
+            this.enqueued = enqueued;
+            this.deadline = deadline;
+            this.expired = expired;
+        }
+    }
+
+    private final Sink sink;
+    private final ErrorListener errorListener;
+    private final Thread thread;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private boolean closed;
+
+    // statistics, guarded by this
+    private int maxDepth;
+    private long written;
+    private long expired;
+    private long latencyNanos;
+    private long maxLatencyNanos;
+
+    CommandQueue(Sink sink, ErrorListener errorListener) {
+        this.sink = sink;
+        this.errorListener = errorListener;
+        thread = new Thread(this::run, "serial-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param expired called in the writer thread if the command is dropped after deadlineMs, may be null
+     * @return false if the queue is closed
+     */
+    boolean offer(byte[] data, int off, int len, long deadlineMs, Runnable expired) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (closed)
+                return false;
+            queue.add(new Entry(Arrays.copyOfRange(data, off, off + len), now, now + deadlineMs * 1000000L, expired));
+            maxDepth = Math.max(maxDepth, queue.size());
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * drop the queued commands and stop the writer thread. a write in progress ends when the transport is closed
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                try {
+                    while (!closed && queue.isEmpty())
+                        wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed)
+                    return;
+                entry = queue.poll();
+            }
+            long start = System.nanoTime();
+            if (start - entry.deadline > 0) {
+                synchronized (this) {
+                    expired++;
+                }
+                if (entry.expired != null)
+                    entry.expired.run();
+                continue;
+            }
+            try {
+                sink.write(entry.data, 0, entry.data.length);
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (closed)
+                        return;     // write aborted by disconnect
+                    closed = true;
+                    queue.clear();
+                }
+                errorListener.onWriteError(e);
+                return;
+            }
+            long latency = System.nanoTime() - entry.enqueued;
+            synchronized (this) {
+                written++;
+                latencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            }
+        }
+    }
+
+    /*
+     * statistics
+     */
+    synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    synchronized int maxQueueDepth() {
+        return maxDepth;
+    }
+
+    synchronized long written() {
+        return written;
+    }
+
+    synchronized long expired() {
+        return expired;
+    }
+
+    /** @return average time from enqueue until written, in ms */
+    synchronized double averageLatencyMs() {
+        return written > 0 ? latencyNanos / 1e6 / written : 0;
+    }
+
+    synchronized double maxLatencyMs() {
+        return maxLatencyNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "commands: " + queue.size() + " queued, max " + maxDepth + ", written " + written
+                + ", expired " + expired
+                + String.format(Locale.US, ", latency avg %.2f ms, max %.2f ms", averageLatencyMs(), maxLatencyMs());
+    }
+}
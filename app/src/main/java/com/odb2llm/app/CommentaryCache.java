@@ -0,0 +1,184 @@
+package com.odb2llm.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LLM commentary on decoded readings, keyed by prompt template and quantized values
+ *
+ * values are rounded to a bucket per unit, e.g. coolant temperature in 5 °C steps, so 89 °C and 91 °C
+ * share the comment of 90 °C. bit fields and DTCs are keyed by their exact data bytes.
+ * least recently used entries are evicted when the entry count or the text size exceeds the bounds
+ */
+final class CommentaryCache {
+
+    private static final int MAGIC = 0x434D5431; // CMT1
+
+    private final int maxEntries;
+    private final int maxChars;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int chars;
+    private long hits;
+    private long misses;
+
+    CommentaryCache(int maxEntries, int maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * start of a key, a changed template does not match entries of the old one
+     */
+    static StringBuilder key(String template) {
+        StringBuilder sb = new StringBuilder(64);
+        return OBDReading.appendHex(sb, template.hashCode() & 0xFFFFFFFFL, 8);
+    }
+
+    /**
+     * append the PID and quantized values of a reading to a key
+     */
+    static StringBuilder appendReading(StringBuilder key, OBDReading reading) {
+        key.append('|');
+        OBDReading.appendHex(key, reading.mode, 2);
+        if (reading.pid >= 0)
+            OBDReading.appendHex(key, reading.pid, 2);
+        if (reading.def == null || reading.def.kind != OBDPid.Kind.VALUE) {
+            key.append(':');
+            for (int i = 0; i < reading.dataLength(); i++)
+                OBDReading.appendHex(key, reading.data(i), 2);
+            return key;
+        }
+        for (int field = 0; field < reading.valueCount; field++)
+            key.append(':').append(Math.round(reading.values[field] / step(reading.def.fields[field].unit)));
+        return key;
+    }
+
+    /**
+     * @return key without the values, the same for all readings of the same PIDs
+     */
+    static String subject(String key) {
+        return key.replaceAll(":[^|]*", "");
+    }
+
+    /**
+     * bucket width per unit, about what changes the wording of a 10 word comment
+     */
+    static double step(String unit) {
+        switch (unit) {
+            case "°C":   return 5;
+            case "%":    return 5;
+            case "rpm":  return 250;
+            case "km/h": return 10;
+            case "kPa":  return 5;
+            case "g/s":  return 5;
+            case "°":    return 2;
+            case "V":    return 0.1;
+            case "mA":   return 0.1;
+            case "s":    return 60;
+            case "km":   return 100;
+            case "":     return 0.05;   // ratios
+            default:     return 1;
+        }
+    }
+
+    /**
+     * @return cached comment, null on a miss
+     */
+    synchronized String get(String key) {
+        String text = entries.get(key);
+        if (text != null)
+            hits++;
+        else
+            misses++;
+        return text;
+    }
+
+    synchronized void put(String key, String text) {
+        String old = entries.put(key, text);
+        if (old != null)
+            chars -= old.length();
+        chars += text.length();
+        Iterator<String> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || chars > maxChars) && it.hasNext()) {
+            chars -= it.next().length();
+            it.remove();
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized double hitRatio() {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * write to a temporary file and rename, oldest entry first
+     */
+    void save(File file) throws IOException {
+        List<Map.Entry<String, String>> copy;
+        synchronized (this) {
+            copy = new ArrayList<>(entries.entrySet());
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, String> e : copy) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename failed: " + file);
+    }
+
+    /**
+     * add the entries of a file written by save(), a missing or corrupt file is ignored
+     *
+     * @return number of entries loaded
+     */
+    int load(File file) {
+        if (!file.isFile())
+            return 0;
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                return 0;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String text = in.readUTF();
+                synchronized (this) {
+                    if (!entries.containsKey(key))
+                        put(key, text);
+                }
+                loaded++;
+            }
+        } catch (IOException e) {
+            // keep what was read before the damage
+        }
+        return loaded;
+    }
+}
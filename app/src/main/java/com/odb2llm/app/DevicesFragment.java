@@ -4,6 +4,7 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
@@ -100,6 +101,11 @@ public class DevicesFragment extends ListFragment {
             if(BluetoothUtil.hasPermissions(this, requestBluetoothPermissionLauncherForRefresh))
                 refresh();
             return true;
+        } else if (id == R.id.wifi_adapter) {
+            // host:port of Wi-Fi ELM327 adapters, shared preferences "adapters": "wifi"
+            open(getActivity().getSharedPreferences("adapters", Context.MODE_PRIVATE)
+                    .getString("wifi", TcpSerialSocket.DEFAULT_ADDRESS));
+            return true;
         } else {
             return super.onOptionsItemSelected(item);
         }
@@ -135,8 +141,12 @@ public class DevicesFragment extends ListFragment {
     @Override
     public void onListItemClick(@NonNull ListView l, @NonNull View v, int position, long id) {
         BluetoothDevice device = listItems.get(position-1);
+        open(device.getAddress());
+    }
+
+    private void open(String address) {
         Bundle args = new Bundle();
-        args.putString("device", device.getAddress());
+        args.putString("device", address);
         Fragment fragment = new TerminalFragment();
         fragment.setArguments(args);
         getParentFragmentManager().beginTransaction().replace(R.id.fragment, fragment, "terminal").addToBackStack(null).commit();
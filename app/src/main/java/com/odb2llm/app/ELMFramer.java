@@ -0,0 +1,215 @@
+package com.odb2llm.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * incremental framer for the ELM327 byte stream
+ *
+ * bytes are fed as they arrive from the socket, in fragments of any size. a reply is complete when the
+ * adapter sends its '>' prompt. within a reply, the echoed command is dropped, lines are classified and
+ * emitted as typed frames. each line is one frame (one ECU for multi ECU replies), except ISO-TP multi
+ * frame replies (length line followed by "0:", "1:", .. lines) which are combined into one DATA frame
+ *
+ * frames are passed as views into internal buffers, valid only during the callback. no Strings are built
+ */
+final class ELMFramer {
+
+    enum Type {
+        DATA,       // hex data, e.g. "41 0C 1A F8"
+        OK,         // "OK" reply to AT commands
+        STATUS,     // progress like "SEARCHING..." or "BUS INIT: ..."
+        NO_DATA,    // "NO DATA"
+        ERROR,      // "?", "CAN ERROR", "UNABLE TO CONNECT", "BUS INIT: ...ERROR", ..
+        TEXT        // other AT command replies, e.g. "ELM327 v1.5", "12.3V", "ISO 15765-4 (CAN 11/500)"
+    }
+
+    interface Listener {
+        void onFrame(Type type, byte[] buf, int off, int len);
+        void onPrompt(); // reply complete, adapter is ready for the next command
+    }
+
+    private static final int MAX_LINE = 256;
+    private static final int MAX_GROUP = 4 * 1024;
+
+    private static final byte[] OK = bytes("OK");
+    private static final byte[] NO_DATA = bytes("NO DATA");
+    private static final byte[] SEARCHING = bytes("SEARCHING");
+    private static final byte[] BUS_INIT = bytes("BUS INIT");
+    private static final byte[] ERROR = bytes("ERROR");
+    private static final byte[][] ERRORS = {
+            bytes("?"), bytes("UNABLE TO CONNECT"), bytes("STOPPED"), bytes("BUFFER FULL"),
+            bytes("BUS BUSY"), bytes("BUS ERROR"), bytes("CAN ERROR"), bytes("DATA ERROR"),
+            bytes("FB ERROR"), bytes("LV RESET"), bytes("ACT ALERT"), bytes("<RX ERROR"), bytes("ERR"),
+    };
+
+    private final Listener listener;
+    private final byte[] line = new byte[MAX_LINE];
+    private final byte[] group = new byte[MAX_GROUP];
+    private final byte[] echo = new byte[MAX_LINE];
+    private int lineLength;
+    private int groupLength;
+    private int echoLength;
+    private volatile boolean echoPending; // setEcho() may be called from the sending thread
+
+    ELMFramer(Listener listener) {
+        this.listener = listener;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    void reset() {
+        lineLength = 0;
+        groupLength = 0;
+        echoPending = false;
+    }
+
+    /**
+     * remember the command just sent, so the echo (ATE1, the adapter default) is not reported as a frame
+     */
+    void setEcho(byte[] command, int off, int len) {
+        echoLength = 0;
+        for (int i = off; i < off + len && echoLength < echo.length; i++)
+            if (command[i] != '\r' && command[i] != '\n')
+                echo[echoLength++] = command[i];
+        echoPending = echoLength > 0;
+    }
+
+    void feed(byte[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            feed(buf[i]);
+    }
+
+    /**
+     * feed the remaining bytes of a (read-only) buffer, without changing its position
+     */
+    void feed(ByteBuffer buf) {
+        for (int i = buf.position(); i < buf.limit(); i++)
+            feed(buf.get(i));
+    }
+
+    private void feed(byte b) {
+        if (b == '\r' || b == '\n') {
+            endLine();
+        } else if (b == '>') {
+            endLine();
+            flushGroup();
+            echoPending = false;
+            listener.onPrompt();
+        } else if (b != 0) { // some clones send NUL fill bytes
+            if (lineLength < line.length)
+                line[lineLength++] = b;
+        }
+    }
+
+    private void endLine() {
+        int start = 0;
+        int end = lineLength;
+        lineLength = 0;
+        while (start < end && line[start] == ' ')
+            start++;
+        while (end > start && line[end - 1] == ' ')
+            end--;
+        if (start == end)
+            return;
+        if (echoPending) {
+            echoPending = false;
+            if (equalsIgnoreSpaces(line, start, end, echo, echoLength))
+                return;
+        }
+        Type type = classify(line, start, end);
+        if (type == Type.DATA) {
+            if (end - start == 3) {                                 // ISO-TP length, e.g. "00F"
+                flushGroup();
+                append(start, end);
+                return;
+            }
+            if (groupLength > 0 && end - start >= 2 && line[start + 1] == ':') { // ISO-TP frame, e.g. "0: 41 0C"
+                append(start, end);
+                return;
+            }
+        }
+        flushGroup();
+        listener.onFrame(type, line, start, end - start);
+    }
+
+    private void append(int start, int end) {
+        int len = end - start;
+        if (groupLength + len + 1 > group.length)
+            return;
+        if (groupLength > 0)
+            group[groupLength++] = '\r';
+        System.arraycopy(line, start, group, groupLength, len);
+        groupLength += len;
+    }
+
+    private void flushGroup() {
+        if (groupLength > 0) {
+            int len = groupLength;
+            groupLength = 0;
+            listener.onFrame(Type.DATA, group, 0, len);
+        }
+    }
+
+    static Type classify(byte[] buf, int start, int end) {
+        boolean hex = true;
+        for (int i = start; i < end && hex; i++) {
+            byte b = buf[i];
+            hex = b == ' ' || OBDDecoder.nibble(b) >= 0 || (b == ':' && i == start + 1);
+        }
+        if (hex)
+            return Type.DATA;
+        if (matches(buf, start, end, OK))
+            return Type.OK;
+        if (startsWith(buf, start, end, NO_DATA))
+            return Type.NO_DATA;
+        if (startsWith(buf, start, end, BUS_INIT))
+            return contains(buf, start, end, ERROR) ? Type.ERROR : Type.STATUS;
+        if (startsWith(buf, start, end, SEARCHING))
+            return Type.STATUS;
+        for (byte[] error : ERRORS)
+            if (startsWith(buf, start, end, error))
+                return Type.ERROR;
+        return Type.TEXT;
+    }
+
+    private static boolean matches(byte[] buf, int start, int end, byte[] word) {
+        return end - start == word.length && startsWith(buf, start, end, word);
+    }
+
+    private static boolean startsWith(byte[] buf, int start, int end, byte[] word) {
+        if (end - start < word.length)
+            return false;
+        for (int i = 0; i < word.length; i++)
+            if (buf[start + i] != word[i])
+                return false;
+        return true;
+    }
+
+    private static boolean contains(byte[] buf, int start, int end, byte[] word) {
+        for (int i = start; i + word.length <= end; i++)
+            if (startsWith(buf, i, end, word))
+                return true;
+        return false;
+    }
+
+    private static boolean equalsIgnoreSpaces(byte[] a, int start, int end, byte[] b, int length) {
+        int j = 0;
+        for (int i = start; i < end; i++) {
+            if (a[i] == ' ')
+                continue;
+            while (j < length && b[j] == ' ')
+                j++;
+            if (j >= length || Character.toUpperCase(a[i]) != Character.toUpperCase(b[j]))
+                return false;
+            j++;
+        }
+        while (j < length && b[j] == ' ')
+            j++;
+        return j == length;
+    }
+}
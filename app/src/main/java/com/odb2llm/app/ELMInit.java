@@ -0,0 +1,150 @@
+package com.odb2llm.app;
+
+/**
+ * ELM327 connection bootstrap
+ *
+ * warm start, turn off echo, linefeeds, spaces and headers to shorten every reply, aggressive adaptive
+ * timing, then select the protocol. with a protocol cached from an earlier connection the slow automatic
+ * search (ATSP0) is skipped, if the cached protocol does not answer, it falls back to the search.
+ * the first request (0100) doubles as probe and first supported-PIDs range
+ */
+final class ELMInit {
+
+    interface Listener {
+        /**
+         * @param protocol ATDPN protocol digit '1'..'C', 0 if the vehicle did not answer
+         */
+        void onInitDone(char protocol);
+    }
+
+    static final long SEARCH_TIMEOUT_MS = 15000; // ATSP0 tries all protocols, slow K-line inits take seconds
+
+    private static final String[] COMMANDS = {
+            "ATWS",     // warm start, faster than ATZ which includes the LED test
+            "ATE0",     // echo off
+            "ATL0",     // linefeeds off
+            "ATS0",     // spaces off
+            "ATH0",     // headers off, replies are decoded without headers
+            "ATAT2",    // aggressive adaptive timing, shortest wait after the last ECU reply
+    };
+
+    private static final String[] PROTOCOLS = {
+            "Automatic",
+            "SAE J1850 PWM", "SAE J1850 VPW", "ISO 9141-2", "ISO 14230-4 KWP (5 baud init)",
+            "ISO 14230-4 KWP (fast init)", "ISO 15765-4 CAN (11 bit, 500 kbaud)",
+            "ISO 15765-4 CAN (29 bit, 500 kbaud)", "ISO 15765-4 CAN (11 bit, 250 kbaud)",
+            "ISO 15765-4 CAN (29 bit, 250 kbaud)", "SAE J1939 CAN", "User1 CAN", "User2 CAN",
+    };
+
+    private final PollScheduler scheduler;
+    private final SupportedPids supportedPids;
+    private final Listener listener;
+    private final OBDBatch replies = new OBDBatch();
+    private final long startNanos = System.nanoTime();
+    private long firstReadingNanos;
+    private char cachedProtocol;
+    private char protocol;
+
+    private final PollScheduler.Callback ignore = new PollScheduler.Callback() {
+        @Override
+        public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+        }
+
+        @Override
+        public void onComplete(boolean timeout) {
+        }
+    };
+
+    ELMInit(PollScheduler scheduler, SupportedPids supportedPids, Listener listener) {
+        this.scheduler = scheduler;
+        this.supportedPids = supportedPids;
+        this.listener = listener;
+    }
+
+    /**
+     * @param cachedProtocol protocol digit of an earlier connection, 0 for automatic search
+     */
+    void start(char cachedProtocol) {
+        this.cachedProtocol = isProtocol(cachedProtocol) ? cachedProtocol : 0;
+        for (String command : COMMANDS)
+            scheduler.submit(command, ignore); // errors are ignored, some clones lack e.g. ATAT2
+        selectProtocol(this.cachedProtocol);
+    }
+
+    private void selectProtocol(char protocol) {
+        scheduler.submit("ATSP" + (protocol != 0 ? protocol : '0'), ignore);
+        scheduler.submit("0100", protocol != 0 ? PollScheduler.RESPONSE_TIMEOUT_MS : SEARCH_TIMEOUT_MS, new Probe());
+    }
+
+    private class Probe implements PollScheduler.Callback {
+        private boolean valid;
+
+        @Override
+        public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+            if (type != ELMFramer.Type.DATA)
+                return;
+            int count = replies.decode(buf, off, len);
+            for (int i = 0; i < count; i++)
+                valid |= supportedPids.merge(replies.reading(i));
+        }
+
+        @Override
+        public void onComplete(boolean timeout) {
+            if (valid) {
+                firstReadingNanos = System.nanoTime();
+                scheduler.submit("ATDPN", new DescribeProtocol());
+            } else if (cachedProtocol != 0) {
+                cachedProtocol = 0;  // vehicle changed or adapter moved to another car
+                selectProtocol((char) 0);
+            } else {
+                listener.onInitDone((char) 0);
+            }
+        }
+    }
+
+    private class DescribeProtocol implements PollScheduler.Callback {
+        @Override
+        public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+            // "A6" while automatic, "6" if set explicitly
+            char c = len > 0 ? Character.toUpperCase((char) buf[off + len - 1]) : 0;
+            if (isProtocol(c))
+                protocol = c;
+        }
+
+        @Override
+        public void onComplete(boolean timeout) {
+            listener.onInitDone(protocol);
+        }
+    }
+
+    /**
+     * @return true if the protocol of an earlier connection was used, i.e. no protocol search was needed
+     */
+    boolean usedCachedProtocol() {
+        return cachedProtocol != 0;
+    }
+
+    /**
+     * @return time from start() to the first valid reply from the vehicle, -1 if there was none
+     */
+    long timeToFirstReadingMs() {
+        return firstReadingNanos != 0 ? (firstReadingNanos - startNanos) / 1000000 : -1;
+    }
+
+    static boolean isProtocol(char protocol) {
+        return (protocol >= '1' && protocol <= '9') || (protocol >= 'A' && protocol <= 'C');
+    }
+
+    /**
+     * CAN protocols accept up to 6 PIDs per Mode 01 request
+     */
+    static boolean isCan(char protocol) {
+        return (protocol >= '6' && protocol <= '9') || protocol == 'B' || protocol == 'C';
+    }
+
+    static String protocolName(char protocol) {
+        if (!isProtocol(protocol))
+            return PROTOCOLS[0];
+        return PROTOCOLS[protocol <= '9' ? protocol - '0' : protocol - 'A' + 10];
+    }
+}
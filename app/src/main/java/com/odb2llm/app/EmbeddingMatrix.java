@@ -0,0 +1,163 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * sentence embeddings of the intent catalog as one packed row-major float matrix
+ * rows are normalized to unit length, so ranking a query is a dot product per row
+ *
+ * stored in app storage with a key (hash of model and catalog), a changed model or catalog
+ * invalidates the file
+ */
+final class EmbeddingMatrix {
+
+    private static final int MAGIC = 0x454D4231; // EMB1
+    private static final int HEADER = 16;
+
+    final int rows;
+    final int dimensions;
+    private final float[] data;
+
+    private EmbeddingMatrix(int rows, int dimensions, float[] data) {
+        this.rows = rows;
+        this.dimensions = dimensions;
+        this.data = data;
+    }
+
+    static EmbeddingMatrix of(float[][] embeddings) {
+        int dimensions = embeddings.length > 0 ? embeddings[0].length : 0;
+        float[] data = new float[embeddings.length * dimensions];
+        for (int r = 0; r < embeddings.length; r++) {
+            float[] e = embeddings[r];
+            double norm = 0;
+            for (float v : e)
+                norm += v * v;
+            float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+            for (int j = 0; j < dimensions; j++)
+                data[r * dimensions + j] = e[j] * scale;
+        }
+        return new EmbeddingMatrix(embeddings.length, dimensions, data);
+    }
+
+    /** normalized embedding of a row */
+    float[] row(int r) {
+        float[] e = new float[dimensions];
+        System.arraycopy(data, r * dimensions, e, 0, dimensions);
+        return e;
+    }
+
+    /**
+     * rows more similar than min to the query (cosine similarity), most similar first
+     *
+     * @param indexes out: row indexes
+     * @param scores  out: similarity of indexes[i]
+     * @return number of matches
+     */
+    int rank(float[] query, double min, int[] indexes, double[] scores) {
+        double norm = 0;
+        for (float v : query)
+            norm += v * v;
+        if (norm <= 0)
+            return 0;
+        norm = Math.sqrt(norm);
+        int count = 0;
+        for (int r = 0, base = 0; r < rows; r++, base += dimensions) {
+            double dot = 0;
+            for (int j = 0; j < dimensions; j++)
+                dot += data[base + j] * query[j];
+            double similarity = dot / norm;
+            if (similarity > min)
+                count = SimilarityRanker.insert(count, r, similarity, indexes, scores);
+        }
+        return count;
+    }
+
+    /**
+     * @return hex SHA-256 of the model and the catalog sentences
+     */
+    static String key(InputStream model, List<String> sentences) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        try (InputStream in = model) {
+            while ((len = in.read(buffer)) > 0)
+                digest.update(buffer, 0, len);
+        }
+        for (String sentence : sentences) {
+            digest.update(sentence.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest())
+            OBDReading.appendHex(sb, b & 0xFF, 2);
+        return sb.toString();
+    }
+
+    /**
+     * write to a temporary file and rename, so readers never see a partial file
+     */
+    void write(File file, String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + k.length + 4 * data.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(rows).putInt(dimensions).putInt(k.length).put(k);
+        buf.asFloatBuffer().put(data);
+        buf.position(buf.limit()).flip();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            FileChannel channel = out.getChannel();
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename failed: " + file);
+    }
+
+    /**
+     * @return null if the file is missing, corrupt or was written for another key
+     */
+    static EmbeddingMatrix read(File file, String key) {
+        if (!file.isFile())
+            return null;
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining() && channel.read(buf) >= 0)
+                ;
+            buf.flip();
+            if (buf.remaining() < HEADER || buf.getInt() != MAGIC)
+                return null;
+            int rows = buf.getInt();
+            int dimensions = buf.getInt();
+            int keyLength = buf.getInt();
+            if (rows < 0 || dimensions < 0 || keyLength < 0 || keyLength > buf.remaining())
+                return null;
+            byte[] k = new byte[keyLength];
+            buf.get(k);
+            if (!key.equals(new String(k, StandardCharsets.UTF_8)))
+                return null;
+            if (buf.remaining() != 4L * rows * dimensions)
+                return null;
+            float[] data = new float[rows * dimensions];
+            buf.asFloatBuffer().get(data);
+            return new EmbeddingMatrix(rows, dimensions, data);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
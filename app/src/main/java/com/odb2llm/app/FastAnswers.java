@@ -0,0 +1,181 @@
+package com.odb2llm.app;
+
+import java.util.Locale;
+
+/**
+ * instant natural language answers for readings, from per PID value ranges instead of the LLM
+ *
+ * e.g. "Engine coolant temperature is 90°C, normal operating temperature." readings outside the normal
+ * range are classified, in TEMPLATE mode only those (or questions which ask for advice) get an LLM comment
+ */
+final class FastAnswers {
+
+    enum Mode {
+        TEMPLATE,   // template answer, LLM only for abnormal readings or on request
+        LLM,        // LLM comment on every reading
+    }
+
+    enum Severity { NORMAL, CAUTION, CRITICAL }
+
+    static final class Answer {
+        final String text;
+        final Severity severity;
+
+        Answer(String text, Severity severity) {
+            this.text = text;
+            this.severity = severity;
+        }
+    }
+
+    /** value range of a PID field with its phrase, ranges of a field are checked in table order */
+    private static final class Range {
+        final int pid;
+        final int field;
+        final double below;     // applies to values < below
+        final Severity severity;
+        final String phrase;
+
+        Range(int pid, int field, double below, Severity severity, String phrase) {
+            this.pid = pid;
+            this.field = field;
+            this.below = below;
+            this.severity = severity;
+            this.phrase = phrase;
+        }
+    }
+
+    private static final double MAX = Double.POSITIVE_INFINITY;
+
+    private static final Range[] RANGES = {
+            new Range(0x04, 0, 80, Severity.NORMAL, "normal load"),
+            new Range(0x04, 0, MAX, Severity.NORMAL, "the engine is working hard"),
+            new Range(0x05, 0, 60, Severity.NORMAL, "still warming up"),
+            new Range(0x05, 0, 106, Severity.NORMAL, "normal operating temperature"),
+            new Range(0x05, 0, 116, Severity.CAUTION, "running warm"),
+            new Range(0x05, 0, MAX, Severity.CRITICAL, "overheating, stop and let the engine cool down"),
+            new Range(0x06, 0, -25, Severity.CRITICAL, "running very rich"),
+            new Range(0x06, 0, -10, Severity.CAUTION, "running rich"),
+            new Range(0x06, 0, 10.5, Severity.NORMAL, "within normal limits"),
+            new Range(0x06, 0, 25, Severity.CAUTION, "running lean"),
+            new Range(0x06, 0, MAX, Severity.CRITICAL, "running very lean"),
+            new Range(0x0C, 0, 1, Severity.NORMAL, "the engine is off"),
+            new Range(0x0C, 0, 500, Severity.CAUTION, "a very low idle"),
+            new Range(0x0C, 0, 1100, Severity.NORMAL, "a normal idle"),
+            new Range(0x0C, 0, 4500, Severity.NORMAL, "normal driving speed"),
+            new Range(0x0C, 0, 6000, Severity.NORMAL, "high revs"),
+            new Range(0x0C, 0, MAX, Severity.CAUTION, "close to the rev limit"),
+            new Range(0x0D, 0, 1, Severity.NORMAL, "the vehicle is stopped"),
+            new Range(0x0D, 0, 60, Severity.NORMAL, "city speed"),
+            new Range(0x0D, 0, 131, Severity.NORMAL, "highway speed"),
+            new Range(0x0D, 0, MAX, Severity.CAUTION, "very fast, please drive safely"),
+            new Range(0x0F, 0, 60, Severity.NORMAL, "normal"),
+            new Range(0x0F, 0, MAX, Severity.CAUTION, "hot intake air, less power"),
+            new Range(0x2F, 0, 10, Severity.CAUTION, "the tank is almost empty"),
+            new Range(0x2F, 0, 25, Severity.NORMAL, "time to refuel soon"),
+            new Range(0x2F, 0, MAX, Severity.NORMAL, "enough fuel"),
+            new Range(0x42, 0, 11.8, Severity.CRITICAL, "the battery is weak"),
+            new Range(0x42, 0, 12.4, Severity.CAUTION, "the battery is low"),
+            new Range(0x42, 0, 15, Severity.NORMAL, "normal"),
+            new Range(0x42, 0, MAX, Severity.CAUTION, "overcharging, check the alternator"),
+            new Range(0x5C, 0, 70, Severity.NORMAL, "still warming up"),
+            new Range(0x5C, 0, 121, Severity.NORMAL, "normal operating temperature"),
+            new Range(0x5C, 0, 131, Severity.CAUTION, "running hot"),
+            new Range(0x5C, 0, MAX, Severity.CRITICAL, "too hot, reduce load"),
+    };
+
+    /** fuel trims of the other banks and long term trims share the ranges of 0x06 */
+    private static int rangePid(int pid) {
+        return pid >= 0x06 && pid <= 0x09 ? 0x06 : pid;
+    }
+
+    /** words which ask for more than the value */
+    private static final String[] ADVICE = {"why", "explain", "should", "advice", "comment", "problem", "wrong", "ok?", "okay"};
+
+    private final Mode mode;
+    private long avoided;
+
+    FastAnswers(Mode mode) {
+        this.mode = mode;
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    /**
+     * @return answer with range phrase, null if the reading is not valid
+     */
+    static Answer answer(OBDReading reading) {
+        if (!reading.isValid())
+            return null;
+        StringBuilder sb = reading.format(new StringBuilder(96));
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '.')
+            sb.setLength(sb.length() - 1);
+        Severity severity = Severity.NORMAL;
+        if (reading.mode == 0x41 && reading.pid == 0x01 && (reading.data(0) & 0x80) != 0) {
+            sb.append(", the check engine light is on");
+            severity = Severity.CAUTION;
+        } else if (reading.mode == 0x43) {
+            if (sb.lastIndexOf("None") != sb.length() - 4)
+                severity = Severity.CAUTION;    // stored trouble codes
+        } else if (reading.mode == 0x41 && reading.def != null && reading.def.kind == OBDPid.Kind.VALUE) {
+            int pid = rangePid(reading.pid);
+            for (int field = 0; field < reading.valueCount; field++) {
+                for (Range range : RANGES) {
+                    if (range.pid == pid && range.field == field && reading.values[field] < range.below) {
+                        sb.append(", ").append(range.phrase);
+                        if (range.severity.compareTo(severity) > 0)
+                            severity = range.severity;
+                        break;
+                    }
+                }
+            }
+        }
+        return new Answer(sb.append('.').toString(), severity);
+    }
+
+    /**
+     * answer of all readings of a reply, with the highest severity
+     */
+    static Answer answer(OBDBatch replies, int count) {
+        StringBuilder sb = new StringBuilder();
+        Severity severity = Severity.NORMAL;
+        for (int i = 0; i < count; i++) {
+            Answer a = answer(replies.reading(i));
+            if (a == null)
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(a.text);
+            if (a.severity.compareTo(severity) > 0)
+                severity = a.severity;
+        }
+        return sb.length() > 0 ? new Answer(sb.toString(), severity) : null;
+    }
+
+    /**
+     * @return true if the question asks for an explanation or advice, not just the value
+     */
+    static boolean asksForComment(String question) {
+        String q = question.toLowerCase(Locale.US);
+        for (String word : ADVICE)
+            if (q.contains(word))
+                return true;
+        return false;
+    }
+
+    /**
+     * decide if the LLM should comment on the answer, counts the calls avoided
+     */
+    synchronized boolean needsLlm(Answer answer, String question) {
+        if (mode == Mode.LLM || answer == null || answer.severity != Severity.NORMAL || asksForComment(question))
+            return true;
+        avoided++;
+        return false;
+    }
+
+    /** LLM calls avoided by template answers */
+    synchronized long avoided() {
+        return avoided;
+    }
+}
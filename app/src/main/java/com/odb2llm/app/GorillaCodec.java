@@ -0,0 +1,186 @@
+package com.odb2llm.app;
+
+import java.util.Arrays;
+
+/**
+ * compression of a block of (time, value) samples, as in Facebook's Gorilla time series database
+ *
+ * timestamps (ms) are stored as delta-of-delta, regular polling makes most of them a single bit.
+ * values (float) are XORed with the previous value, repeated values take one bit and slowly changing
+ * values only the bits between the leading and trailing zeros of the XOR. the bit stream is packed into
+ * longs, most significant bit first, so the decoder reads whole words
+ */
+final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * bit stream writer, grows as needed
+     */
+    static final class Encoder {
+        private long[] words;
+        private long bits;
+        private int count;
+        private long time;
+        private long delta;
+        private int value;
+        private int leading = Integer.MAX_VALUE;    // window of the last XOR, none yet
+        private int trailing;
+
+        Encoder(int expectedSamples) {
+            words = new long[Math.max(4, expectedSamples / 4)];
+        }
+
+        /**
+         * timestamps must not decrease
+         */
+        void add(long t, float v) {
+            int bitsOfValue = Float.floatToRawIntBits(v);
+            if (count == 0) {
+                write(t, 64);
+                write(bitsOfValue, 32);
+            } else {
+                long d = t - time;
+                long dod = d - delta;
+                if (dod == 0) {
+                    write(0, 1);
+                } else if (dod >= -64 && dod <= 63) {
+                    write(0b10, 2);
+                    write(dod, 7);
+                } else if (dod >= -256 && dod <= 255) {
+                    write(0b110, 3);
+                    write(dod, 9);
+                } else if (dod >= -2048 && dod <= 2047) {
+                    write(0b1110, 4);
+                    write(dod, 12);
+                } else {
+                    write(0b1111, 4);
+                    write(dod, 64);    // clock jumps, no limit
+                }
+                delta = d;
+                int xor = bitsOfValue ^ value;
+                if (xor == 0) {
+                    write(0, 1);
+                } else {
+                    int lead = Math.min(31, Integer.numberOfLeadingZeros(xor));
+                    int trail = Integer.numberOfTrailingZeros(xor);
+                    if (lead >= leading && trail >= trailing) {
+                        write(0b10, 2);     // fits the window of the previous value
+                        write(xor >>> trailing, 32 - leading - trailing);
+                    } else {
+                        int meaningful = 32 - lead - trail;
+                        write(0b11, 2);
+                        write(lead, 5);
+                        write(meaningful - 1, 5);
+                        write(xor >>> trail, meaningful);
+                        leading = lead;
+                        trailing = trail;
+                    }
+                }
+            }
+            time = t;
+            value = bitsOfValue;
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        /** @return encoded block, trimmed to the used words */
+        long[] toWords() {
+            return Arrays.copyOf(words, (int) ((bits + 63) >>> 6));
+        }
+
+        private void write(long v, int n) {
+            int index = (int) (bits >>> 6);
+            if (index + 1 >= words.length)
+                words = Arrays.copyOf(words, words.length * 2);
+            if (n < 64)
+                v &= (1L << n) - 1;
+            int free = 64 - (int) (bits & 63);
+            if (n <= free) {
+                words[index] |= v << (free - n);
+            } else {
+                words[index] |= v >>> (n - free);
+                words[index + 1] |= v << (64 - (n - free));
+            }
+            bits += n;
+        }
+    }
+
+    /**
+     * decode the samples with from <= time < to of a block
+     *
+     * @param count number of samples in the block
+     * @return number of samples written at off, limited by the output arrays
+     */
+    static int decode(long[] words, int count, long from, long to, long[] timesOut, float[] valuesOut, int off) {
+        if (count == 0)
+            return 0;
+        long time = words[0];
+        int value = (int) (words[1] >>> 32);
+        long bits = 96;
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        int n = off;
+        for (int i = 0; ; ) {
+            if (time >= to || n >= timesOut.length)
+                break;
+            if (time >= from) {
+                timesOut[n] = time;
+                valuesOut[n] = Float.intBitsToFloat(value);
+                n++;
+            }
+            if (++i >= count)
+                break;
+            // peek at the next 64 bits, no sample takes more than the 4 control bits and 64 bits of a jump
+            long word = peek(words, bits);
+            if (word >= 0) {                    // 0: same delta
+                bits += 1;
+            } else if ((word << 1) >= 0) {      // 10
+                delta += (word << 2) >> 57;
+                bits += 9;
+            } else if ((word << 2) >= 0) {      // 110
+                delta += (word << 3) >> 55;
+                bits += 12;
+            } else if ((word << 3) >= 0) {      // 1110
+                delta += (word << 4) >> 52;
+                bits += 16;
+            } else {                            // 1111
+                bits += 4;
+                delta += peek(words, bits);
+                bits += 64;
+            }
+            time += delta;
+            word = peek(words, bits);
+            if (word >= 0) {                    // 0: same value
+                bits += 1;
+            } else if ((word << 1) >= 0) {      // 10: previous window
+                int meaningful = 32 - leading - trailing;
+                value ^= (int) ((word << 2) >>> (64 - meaningful)) << trailing;
+                bits += 2 + meaningful;
+            } else {                            // 11: new window
+                leading = (int) ((word << 2) >>> 59);
+                int meaningful = (int) ((word << 7) >>> 59) + 1;
+                trailing = 32 - leading - meaningful;
+                bits += 12;
+                value ^= (int) (peek(words, bits) >>> (64 - meaningful)) << trailing;
+                bits += meaningful;
+            }
+        }
+        return n - off;
+    }
+
+    /** @return 64 bits starting at the bit position, zero bits past the end */
+    private static long peek(long[] words, long bits) {
+        int index = (int) (bits >>> 6);
+        int used = (int) (bits & 63);
+        long high = index < words.length ? words[index] << used : 0;
+        if (used == 0 || index + 1 >= words.length)
+            return high;
+        return high | words[index + 1] >>> (64 - used);
+    }
+}
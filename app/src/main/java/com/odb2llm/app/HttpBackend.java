@@ -0,0 +1,163 @@
+package com.odb2llm.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * OpenAI compatible chat completions endpoint, e.g. llama.cpp server or vLLM on a compute box in the vehicle
+ *
+ * tokens are streamed as server-sent events. connections are kept alive in a small pool, so requests
+ * after the first skip the TCP (and TLS) handshake. a failed request makes the backend unavailable
+ * until the next successful probe
+ */
+final class HttpBackend implements InferenceBackend {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final long RETRY_MS = 60000;
+    private static final int MAX_TOKENS = 4096;         // context of typical small server models
+    private static final int MAX_RESPONSE_TOKENS = 64;
+
+    private final String baseUrl;
+    private final String model;
+    private final OkHttpClient client;
+    private volatile long latencyMs = -1;
+    private volatile long failedAt;
+    private volatile Call call;
+
+    /**
+     * @param baseUrl e.g. http://192.168.4.2:8080, without /v1
+     */
+    HttpBackend(String baseUrl, String model) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.model = model;
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(2, 5, TimeUnit.MINUTES))
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)   // between tokens
+                .build();
+    }
+
+    @Override
+    public String name() {
+        return baseUrl;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return latencyMs >= 0 && System.currentTimeMillis() - failedAt > RETRY_MS;
+    }
+
+    @Override
+    public long latencyMs() {
+        return latencyMs;
+    }
+
+    @Override
+    public PromptBuilder newPrompt() {
+        return new PromptBuilder(MAX_TOKENS - MAX_RESPONSE_TOKENS, PromptBuilder.ESTIMATE);
+    }
+
+    /**
+     * measure the round trip of a models request, blocking
+     *
+     * @return true if the server answered
+     */
+    boolean probe() {
+        long start = System.nanoTime();
+        Request request = new Request.Builder().url(baseUrl + "/v1/models").get().build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful())
+                throw new IOException("HTTP " + response.code());
+            long rtt = (System.nanoTime() - start) / 1000000;
+            latencyMs = latencyMs < 0 ? rtt : Math.min(latencyMs, rtt); // a first token takes at least a round trip
+            failedAt = 0;
+            return true;
+        } catch (IOException e) {
+            failedAt = System.currentTimeMillis();
+            return false;
+        }
+    }
+
+    @Override
+    public String generate(PromptBuilder.Prompt prompt, TokenListener listener) throws Exception {
+        JSONArray messages = new JSONArray();
+        if (!prompt.persona.isEmpty())
+            messages.put(new JSONObject().put("role", "system").put("content", prompt.persona));
+        messages.put(new JSONObject().put("role", "user").put("content", prompt.user));
+        JSONObject body = new JSONObject()
+                .put("model", model)
+                .put("messages", messages)
+                .put("max_tokens", MAX_RESPONSE_TOKENS)
+                .put("stream", true);
+        Request request = new Request.Builder()
+                .url(baseUrl + "/v1/chat/completions")
+                .header("Accept", "text/event-stream")
+                .post(RequestBody.create(body.toString(), JSON))
+                .build();
+        long start = System.nanoTime();
+        long firstToken = 0;
+        StringBuilder text = new StringBuilder();
+        Call c = client.newCall(request);
+        call = c;
+        try (Response response = c.execute()) {
+            if (!response.isSuccessful() || response.body() == null)
+                throw new IOException("HTTP " + response.code());
+            BufferedSource source = response.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:"))
+                    continue;   // blank separators, comments, event names
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]"))
+                    break;
+                String token = token(data);
+                if (token.isEmpty())
+                    continue;
+                if (firstToken == 0) {
+                    firstToken = System.nanoTime();
+                    long ms = (firstToken - start) / 1000000;
+                    latencyMs = latencyMs < 0 ? ms : (latencyMs + ms) / 2;
+                }
+                text.append(token);
+                listener.onToken(token);
+            }
+        } catch (IOException | JSONException e) {
+            if (!c.isCanceled())
+                failedAt = System.currentTimeMillis();
+            throw e;
+        } finally {
+            call = null;
+        }
+        return text.toString();
+    }
+
+    /**
+     * stop a running generation, generate() fails with an IOException
+     */
+    void cancel() {
+        Call c = call;
+        if (c != null)
+            c.cancel();
+    }
+
+    private static String token(String data) throws JSONException {
+        JSONArray choices = new JSONObject(data).optJSONArray("choices");
+        if (choices == null || choices.length() == 0)
+            return "";
+        JSONObject delta = choices.getJSONObject(0).optJSONObject("delta");
+        return delta != null && !delta.isNull("content") ? delta.getString("content") : "";
+    }
+}
@@ -0,0 +1,36 @@
+package com.odb2llm.app;
+
+/**
+ * text generation, on the device or on another machine
+ */
+interface InferenceBackend {
+
+    interface TokenListener {
+        /** called on the backend thread for every partial result */
+        void onToken(String token);
+    }
+
+    String name();
+
+    /**
+     * @return false if the backend is not configured, its model is missing or it failed recently
+     */
+    boolean isAvailable();
+
+    /**
+     * @return expected time to first token, measured from recent requests or probes
+     */
+    long latencyMs();
+
+    /**
+     * builder with the token budget of the backend
+     */
+    PromptBuilder newPrompt();
+
+    /**
+     * generate with partial results delivered to the listener, blocks until generation is done
+     *
+     * @return whole response
+     */
+    String generate(PromptBuilder.Prompt prompt, TokenListener listener) throws Exception;
+}
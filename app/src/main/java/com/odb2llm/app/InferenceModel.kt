@@ -1,10 +1,15 @@
 package com.odb2llm.app
 
 import android.content.Context
+import android.util.Log
 import com.google.mediapipe.tasks.genai.llminference.LlmInference
+import com.google.mediapipe.tasks.genai.llminference.LlmInferenceSession
+import com.google.mediapipe.tasks.genai.llminference.ProgressListener
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.flow.MutableSharedFlow
 import java.io.File
+import java.util.Locale
+import java.util.concurrent.CompletableFuture
 
 class InferenceModel private constructor(context: Context) {
     private var llmInference: LlmInference
@@ -25,28 +30,174 @@ class InferenceModel private constructor(context: Context) {
 
         val options = LlmInference.LlmInferenceOptions.builder()
             .setModelPath(modelPath)
-            .setMaxTokens(1024)
-            .setResultListener { partialResult, done ->
-                _partialResults.tryEmit(partialResult to done)
-            }
+            .setMaxTokens(MAX_TOKENS)
             .build()
 
             llmInference = LlmInference.createFromOptions(context, options)
     }
 
-    fun generateResponse(prompt: String): String {
-        val gemmaPrompt = "$prompt<start_of_turn>model\n"
-        return llmInference.generateResponse(gemmaPrompt)
+    // sessions with only the persona prefix evaluated, by prefix, least recently used first.
+    // every request runs in a clone, so the answer depends on its own prompt only
+    private val personas = LinkedHashMap<String, LlmInferenceSession>(4, 0.75f, true)
+
+    // state of the running async generation, only one at a time
+    @Volatile
+    private var tokenListener: InferenceBackend.TokenListener? = null
+    private var response: CompletableFuture<String>? = null
+    private var session: LlmInferenceSession? = null    // of the last request, closed by the next one
+    private val text = StringBuilder()
+    private var startNanos = 0L
+    private var firstTokenNanos = 0L
+    private var tokens = 0
+    private var cold = false            // the prefix is evaluated by this request
+    private var promptTokens = 0
+    private var reusedTokens = 0        // prefix tokens taken from the persona session
+    private var coldMsPerToken = 0.0    // time to first token per prompt token of cold requests
+
+    /** prefill time saved by forking persona sessions, against cold requests of the same size, ms */
+    @Volatile
+    var prefillSavedMs = 0L
+        private set
+
+    /** time from request to the first token of the last generation, ms */
+    @Volatile
+    var timeToFirstTokenMs = -1L
+        private set
+
+    /** decode rate of the last generation, after the first token */
+    @Volatile
+    var tokensPerSecond = 0.0
+        private set
+
+    fun sizeInTokens(text: String): Int = llmInference.sizeInTokens(text)
+
+    /**
+     * builder with the model tokenizer and the context left after the response
+     */
+    fun newPrompt(): PromptBuilder =
+        PromptBuilder(MAX_TOKENS - MAX_RESPONSE_TOKENS, PromptBuilder.TokenCounter { sizeInTokens(it) })
+
+    /**
+     * generate with the partial results delivered to the listener as they are decoded
+     *
+     * the persona prefix is evaluated once per persona, every request clones that session and only adds
+     * its user turn. the first request of a persona is cold and calibrates the prefill time per token
+     *
+     * @return completed with the whole response when generation is done
+     */
+    @Synchronized
+    fun generateResponseAsync(prompt: PromptBuilder.Prompt, listener: InferenceBackend.TokenListener): CompletableFuture<String> {
+        if (response?.isDone == false)
+            throw IllegalStateException("generation already running")
+        val future = CompletableFuture<String>()
+        response = future
+        tokenListener = listener
+        text.setLength(0)
+        tokens = 0
+        firstTokenNanos = 0
+        startNanos = System.nanoTime()
+        promptTokens = prompt.prefixTokens + prompt.suffixTokens
+        try {
+            session?.close()
+            session = null
+            val persona = personas[prompt.prefix]
+            cold = persona == null
+            reusedTokens = if (cold) 0 else prompt.prefixTokens
+            val s = persona?.cloneSession() ?: openPersona(prompt.prefix).cloneSession()
+            session = s
+            s.addQueryChunk(prompt.suffix)
+            s.generateResponseAsync(ProgressListener { partialResult, done ->
+                _partialResults.tryEmit(partialResult to done)
+                onPartialResult(future, partialResult, done)
+            })
+        } catch (e: Exception) {
+            session?.close()
+            session = null
+            personas.remove(prompt.prefix)?.close()
+            future.completeExceptionally(e)
+        }
+        return future
+    }
+
+    /**
+     * stop the running generation, its future completes with a CancellationException and the model
+     * takes the next request
+     */
+    @Synchronized
+    fun cancel() {
+        val future = response ?: return
+        if (future.isDone)
+            return
+        tokenListener = null
+        try {
+            session?.cancelGenerateResponseAsync()
+        } catch (e: Exception) {
+            Log.w(OBDUtils.TAG, "cancel failed", e)
+        }
+        session?.close()
+        session = null
+        future.cancel(false)
+    }
+
+    private fun openPersona(prefix: String): LlmInferenceSession {
+        if (personas.size >= MAX_PERSONAS)
+            personas.remove(personas.keys.first())?.close()
+        val options = LlmInferenceSession.LlmInferenceSessionOptions.builder()
+            .setTopK(40)
+            .setTemperature(0.8f)
+            .build()
+        val s = LlmInferenceSession.createFromOptions(llmInference, options)
+        if (prefix.isNotEmpty())
+            s.addQueryChunk(prefix)
+        personas[prefix] = s
+        return s
+    }
+
+    @Synchronized
+    private fun onPartialResult(future: CompletableFuture<String>, partialResult: String, done: Boolean) {
+        if (future !== response || future.isDone)   // late result of a cancelled generation
+            return
+        if (partialResult.isNotEmpty()) {
+            if (tokens++ == 0)
+                firstTokenNanos = System.nanoTime()
+            text.append(partialResult)
+            tokenListener?.onToken(partialResult)
+        }
+        if (done) {
+            val end = System.nanoTime()
+            timeToFirstTokenMs = if (tokens > 0) (firstTokenNanos - startNanos) / 1000000 else -1
+            tokensPerSecond = if (tokens > 1) (tokens - 1) * 1e9 / (end - firstTokenNanos) else 0.0
+            // time to first token is about the prefill of the prompt tokens not taken from the persona
+            var savedMs = 0L
+            if (timeToFirstTokenMs > 0 && promptTokens > 0) {
+                if (cold) {
+                    val msPerToken = timeToFirstTokenMs.toDouble() / promptTokens
+                    coldMsPerToken = if (coldMsPerToken > 0) 0.8 * coldMsPerToken + 0.2 * msPerToken else msPerToken
+                } else if (coldMsPerToken > 0) {
+                    savedMs = maxOf(0L, (promptTokens * coldMsPerToken).toLong() - timeToFirstTokenMs)
+                    prefillSavedMs += savedMs
+                }
+            }
+            Log.d(OBDUtils.TAG, "generated $tokens tokens, first token $timeToFirstTokenMs ms, " +
+                    String.format(Locale.US, "%.1f", tokensPerSecond) + " tokens/s, prompt $promptTokens tokens, " +
+                    "$reusedTokens reused saving ~$savedMs ms")
+            tokenListener = null
+            future.complete(text.toString())
+        }
     }
 
     companion object {
+        const val MAX_TOKENS = 1024
+        const val MAX_RESPONSE_TOKENS = 64  // answers and comments are about 10 words
+        const val MAX_PERSONAS = 2          // question and commentary
+
+        @Volatile
         private var instance: InferenceModel? = null
 
+        // called from the InferenceScheduler worker and the UI, the model must only be loaded once
         fun getInstance(context: Context): InferenceModel {
-            return if (instance != null) {
-                instance!!
-            } else {
-                InferenceModel(context).also { instance = it }
+            return instance ?: synchronized(this) {
+                instance ?: InferenceModel(context.applicationContext).also { instance = it }
             }
         }
     }
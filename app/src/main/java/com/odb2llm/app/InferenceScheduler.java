@@ -0,0 +1,232 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * the one LLM worker of the process, LlmInference can only run one generation at a time
+ *
+ * jobs wait in a bounded priority queue, user questions before automatic commentary, otherwise in
+ * submit order. a job with the coalesce key of a queued job replaces it, e.g. a newer reading of the
+ * same PID. when the queue is full the newest job of the lowest priority is dropped.
+ * jobs are tagged with an owner, all queued jobs of an owner are cancelled when it goes away
+ */
+final class InferenceScheduler {
+
+    enum Priority { QUESTION, COMMENTARY }
+
+    interface Job {
+        String run() throws Exception;
+    }
+
+    interface Callback {
+        /**
+         * worker thread, or the submitting thread if the job is dropped
+         *
+         * @param result null if the job failed, was replaced or cancelled
+         */
+        void onResult(String result);
+    }
+
+    static final int MAX_QUEUED = 4;
+
+    private static final InferenceScheduler instance = new InferenceScheduler();
+
+    final class Handle {
+        private final Priority priority;
+        private final long sequence;
+        private final String coalesceKey;
+        private final Object owner;
+        private final Job job;
+        private final Callback callback;
+        private final long queuedNanos = System.nanoTime();
+
+        private Handle(Priority priority, long sequence, String coalesceKey, Object owner, Job job, Callback callback) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.coalesceKey = coalesceKey;
+            this.owner = owner;
+            this.job = job;
+            this.callback = callback;
+        }
+
+        /**
+         * remove from the queue, a running job completes but its result is not delivered
+         */
+        void cancel() {
+            synchronized (InferenceScheduler.this) {
+                if (queue.remove(this))
+                    cancelled++;
+                else if (running == this && !discard)
+                    discard = true;
+                else
+                    return;
+            }
+            callback.onResult(null);
+        }
+    }
+
+    private final PriorityQueue<Handle> queue = new PriorityQueue<>(MAX_QUEUED + 1, (a, b) ->
+            a.priority != b.priority ? a.priority.compareTo(b.priority) : Long.compare(a.sequence, b.sequence));
+    private Handle running;
+    private boolean discard;    // running job was cancelled
+    private long sequence;
+    private long completed;
+    private long coalesced;
+    private long dropped;
+    private long cancelled;
+    private long waitNanos;
+    private long maxWaitNanos;
+
+    private InferenceScheduler() {
+        Thread worker = new Thread(this::work, "llm");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    static InferenceScheduler get() {
+        return instance;
+    }
+
+    /**
+     * @param coalesceKey replace a queued job with the same key, null to never replace
+     * @param owner       for cancelAll()
+     */
+    Handle submit(Priority priority, String coalesceKey, Object owner, Job job, Callback callback) {
+        Handle removed = null;
+        Handle handle;
+        synchronized (this) {
+            handle = new Handle(priority, sequence++, coalesceKey, owner, job, callback);
+            if (coalesceKey != null) {
+                for (Iterator<Handle> it = queue.iterator(); it.hasNext(); ) {
+                    Handle h = it.next();
+                    if (coalesceKey.equals(h.coalesceKey)) {
+                        it.remove();
+                        removed = h;
+                        coalesced++;
+                        break;
+                    }
+                }
+            }
+            queue.add(handle);
+            if (queue.size() > MAX_QUEUED && removed == null) {
+                removed = lowest();
+                queue.remove(removed);
+                dropped++;
+            }
+            notifyAll();
+        }
+        if (removed != null)
+            removed.callback.onResult(null);
+        return handle;
+    }
+
+    /**
+     * cancel all queued jobs of the owner, a running one completes without delivering the result
+     */
+    void cancelAll(Object owner) {
+        ArrayList<Handle> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Handle> it = queue.iterator(); it.hasNext(); ) {
+                Handle h = it.next();
+                if (h.owner == owner) {
+                    it.remove();
+                    removed.add(h);
+                    cancelled++;
+                }
+            }
+            if (running != null && running.owner == owner && !discard) {
+                removed.add(running);
+                discard = true;
+            }
+        }
+        for (Handle h : removed)
+            h.callback.onResult(null);
+    }
+
+    private Handle lowest() {
+        Handle lowest = null;
+        for (Handle h : queue)
+            if (lowest == null || h.priority.compareTo(lowest.priority) > 0
+                    || (h.priority == lowest.priority && h.sequence > lowest.sequence))
+                lowest = h;
+        return lowest;
+    }
+
+    private void work() {
+        while (true) {
+            Handle handle;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                handle = queue.poll();
+                running = handle;
+                long wait = System.nanoTime() - handle.queuedNanos;
+                waitNanos += wait;
+                maxWaitNanos = Math.max(maxWaitNanos, wait);
+            }
+            String result = null;
+            try {
+                result = handle.job.run();
+            } catch (Exception e) {
+                Log.e(OBDUtils.TAG, "inference failed", e);
+            }
+            boolean deliver;
+            synchronized (this) {
+                deliver = !discard;
+                discard = false;
+                running = null;
+                completed++;
+            }
+            if (deliver)
+                handle.callback.onResult(result);
+        }
+    }
+
+    /** number of queued jobs, without the running one */
+    synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    synchronized boolean isBusy() {
+        return running != null;
+    }
+
+    /** jobs run to completion */
+    synchronized long completed() {
+        return completed;
+    }
+
+    /** queued jobs replaced by a newer one with the same coalesce key */
+    synchronized long coalesced() {
+        return coalesced;
+    }
+
+    /** queued jobs dropped because the queue was full */
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    /** queued jobs cancelled */
+    synchronized long cancelled() {
+        return cancelled;
+    }
+
+    /** average time from submit to start */
+    synchronized long averageWaitMs() {
+        long started = completed + (running != null ? 1 : 0);
+        return started > 0 ? waitNanos / started / 1000000 : 0;
+    }
+
+    synchronized long maxWaitMs() {
+        return maxWaitNanos / 1000000;
+    }
+}
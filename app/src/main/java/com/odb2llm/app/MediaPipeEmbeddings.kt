@@ -1,12 +1,11 @@
 package com.odb2llm.app
 
 import android.content.Context
+import android.util.Log
 import com.google.mediapipe.tasks.core.BaseOptions
 import com.google.mediapipe.tasks.core.Delegate
 import com.google.mediapipe.tasks.text.textembedder.TextEmbedder
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
-import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.File
 import java.util.Locale
 
 data class SentenceSimilarity(
@@ -22,68 +21,100 @@ class MediaPipeEmbeddings {
     companion object {
         const val MODEL_NAME = "universal_sentence_encoder.tflite"
         const val MIN_SIMILARITY_VALUE = 0.95
+        const val CATALOG_FILE = "catalog_embeddings.bin"
     }
 
     private lateinit var textEmbedder: TextEmbedder
 
-    suspend fun setUpMLModel(context: Context) {
-        suspendCancellableCoroutine { continuation ->
+    // normalized embeddings of the intent catalog, so a query only needs one encoder run
+    @Volatile
+    private var catalog: EmbeddingMatrix? = null
+    @Volatile
+    private var catalogSentences: List<String> = emptyList()
+
+    /**
+     * load the catalog embeddings from app storage, or compute and store them if the model or the
+     * catalog changed. call after setUpMLModel, blocks on file and encoder
+     */
+    fun loadCatalog(context: Context, sentences: List<String>) {
+        val start = System.nanoTime()
+        val key = EmbeddingMatrix.key(context.assets.open(MODEL_NAME), sentences)
+        val file = File(context.filesDir, CATALOG_FILE)
+        var matrix = EmbeddingMatrix.read(file, key)
+        if (matrix != null) {
+            Log.d(OBDUtils.TAG, "catalog embeddings loaded in ${(System.nanoTime() - start) / 1000000} ms")
+        } else {
+            matrix = EmbeddingMatrix.of(Array(sentences.size) {
+                getEmbeddings(sentences[it].lowercase(Locale.getDefault()))
+            })
             try {
-                val baseOptions = BaseOptions
-                    .builder()
-                    .setModelAssetPath(MODEL_NAME)
-                    .setDelegate(Delegate.CPU)
-                    .build()
-                val optionsBuilder =
-                    TextEmbedder.TextEmbedderOptions.builder().setBaseOptions(baseOptions)
-                val options = optionsBuilder.build()
-                textEmbedder = TextEmbedder.createFromOptions(context, options)
-                continuation.resume(true)
+                matrix.write(file, key)
             } catch (e: Exception) {
-                continuation.resumeWithException(e)
+                Log.e(OBDUtils.TAG, "catalog embeddings not saved", e)
             }
+            Log.d(OBDUtils.TAG, "catalog embeddings computed in ${(System.nanoTime() - start) / 1000000} ms")
         }
+        catalog = matrix
+        catalogSentences = sentences
+    }
+
+    /**
+     * create the text embedder, blocks while the model is loaded
+     */
+    fun setUpMLModel(context: Context) {
+        val baseOptions = BaseOptions
+            .builder()
+            .setModelAssetPath(MODEL_NAME)
+            .setDelegate(Delegate.CPU)
+            .build()
+        val optionsBuilder =
+            TextEmbedder.TextEmbedderOptions.builder().setBaseOptions(baseOptions)
+        val options = optionsBuilder.build()
+        textEmbedder = TextEmbedder.createFromOptions(context, options)
+    }
+
+    /**
+     * one dummy inference, so the interpreter allocations and kernel setup are not paid by the
+     * first question
+     */
+    fun warmUp() {
+        getEmbeddings("what is the engine rpm?")
+    }
+
+    fun close() {
+        textEmbedder.close()
     }
 
-    suspend fun getSimilarities(
+    /**
+     * embed the question and rank it against the sentences, blocks on the encoder
+     */
+    fun getSimilarities(
         mainSentence: String,
         sentences: List<String>
     ): List<SentenceSimilarity> {
-        return suspendCancellableCoroutine { continuation ->
-            try {
-                textEmbedder.let {
-                    val normalizedMainSentence = mainSentence.lowercase(Locale.getDefault())
-                    val mainSentenceEmbed = getEmbeddings(normalizedMainSentence)
-
-                    val similaritySentences: MutableList<SentenceSimilarity> =
-                        ArrayList<SentenceSimilarity>().apply {
-                            sentences.forEach {
-                                val normalizedSentence = it.lowercase(Locale.getDefault()) // Normalize each sentence
-                                val sentenceEmbed = getEmbeddings(normalizedSentence) // Use the normalized version
+        val normalizedMainSentence = mainSentence.lowercase(Locale.getDefault())
+        val mainSentenceEmbed = getEmbeddings(normalizedMainSentence)
+        val indexes = IntArray(sentences.size)
+        val scores = DoubleArray(sentences.size)
 
-                                val similarity =
-                                    TextEmbedder.cosineSimilarity(mainSentenceEmbed, sentenceEmbed)
+        // ranked most similar first, against the cached catalog if it is the same list
+        val matrix = catalog?.takeIf { sentences == catalogSentences }
+        val embeds = if (matrix == null) Array(sentences.size) {
+            getEmbeddings(sentences[it].lowercase(Locale.getDefault())) // Normalize each sentence
+        } else null
+        val count = if (matrix != null)
+            matrix.rank(mainSentenceEmbed, MIN_SIMILARITY_VALUE, indexes, scores)
+        else
+            SimilarityRanker.rank(mainSentenceEmbed, embeds!!, MIN_SIMILARITY_VALUE, indexes, scores)
 
-                                if (similarity > MIN_SIMILARITY_VALUE) {
-                                    this.add(
-                                        SentenceSimilarity(
-                                            mainSentence = mainSentence,
-                                            sentence = it,
-                                            mainSentenceEmbeddings = mainSentenceEmbed.toString(),
-                                            sentenceEmbeddings = sentenceEmbed.toString(),
-                                            resultSimilarity = similarity
-                                        )
-                                    )
-                                }
-                            }
-                        }
-
-                    similaritySentences.sortByDescending { it.resultSimilarity }
-                    continuation.resume(similaritySentences)
-                }
-            } catch (e: Exception) {
-                continuation.resumeWithException(e)
-            }
+        return (0 until count).map { i ->
+            SentenceSimilarity(
+                mainSentence = mainSentence,
+                sentence = sentences[indexes[i]],
+                mainSentenceEmbeddings = mainSentenceEmbed.contentToString(),
+                sentenceEmbeddings = (embeds?.get(indexes[i]) ?: matrix!!.row(indexes[i])).contentToString(),
+                resultSimilarity = scores[i]
+            )
         }
     }
 
@@ -92,5 +123,6 @@ class MediaPipeEmbeddings {
         .embeddingResult()
         .embeddings()
         .first()
+        .floatEmbedding()
 
 }
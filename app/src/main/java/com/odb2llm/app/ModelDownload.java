@@ -0,0 +1,314 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * download of a large file into &lt;target&gt;.part, resumed with a HTTP Range request after an interruption
+ *
+ * the target only appears after the size (and SHA-256 if known) were verified, by renaming the part file,
+ * so a truncated download is never taken for a model. without an expected size, the size the server reported
+ * for the first full reply is kept with the part file, a resume must match it. a target without the .ok marker
+ * of a verified download (e.g. from older versions) stays usable until the server answered: it is verified
+ * in place if it has the full size, becomes the part file if it is a prefix, and is replaced otherwise
+ */
+final class ModelDownload {
+
+    interface Listener {
+        /**
+         * @param total          -1 if unknown
+         * @param bytesPerSecond since the start of this run
+         */
+        void onProgress(long bytes, long total, double bytesPerSecond);
+    }
+
+    private static final int BUFFER = 1 << 20;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    private final String url;
+    private final File target;
+    private final File part;
+    private final File validator;   // ETag or Last-Modified of the part, for If-Range
+    private final File size;        // total size reported for the part, if not expected
+    private final File marker;
+    private final long expectedSize;
+    private final String sha256;
+    private long minSize;
+    private Listener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * @param expectedSize -1 to use the size reported by the server
+     * @param sha256       hex, null if not known
+     */
+    ModelDownload(String url, File target, long expectedSize, String sha256) {
+        this.url = url;
+        this.target = target;
+        this.part = new File(target.getPath() + ".part");
+        this.validator = new File(target.getPath() + ".part.etag");
+        this.size = new File(target.getPath() + ".part.size");
+        this.marker = new File(target.getPath() + ".ok");
+        this.expectedSize = expectedSize;
+        this.sha256 = sha256;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * smaller downloads are rejected, e.g. an error page served instead of the file
+     */
+    void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * @return true if the target is a verified download
+     */
+    boolean isComplete() {
+        return target.isFile() && marker.isFile() && (expectedSize < 0 || target.length() == expectedSize);
+    }
+
+    /**
+     * stop a running download, run() fails with an IOException, the part file is kept
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * download, resume or verify, blocking
+     *
+     * @throws IOException on network errors, cancel, size or checksum mismatch
+     */
+    void run() throws IOException {
+        if (isComplete())
+            return;
+        File dir = target.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create " + dir);
+        marker.delete();
+        run(target.isFile() && !part.exists());
+    }
+
+    /**
+     * @param unverified resume from the target instead of the part file
+     */
+    private void run(boolean unverified) throws IOException {
+        File source = unverified ? target : part;
+        MessageDigest digest = digest();
+        long offset = source.length();
+        long known = expectedSize >= 0 ? expectedSize : parse(read(size));
+        if (offset > 0)
+            hash(digest, source, offset);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(15000);
+        connection.setReadTimeout(30000);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            String tag = unverified ? null : read(validator);
+            if (tag != null)
+                connection.setRequestProperty("If-Range", tag);  // full reply if the file changed on the server
+        }
+        boolean restart = false;
+        try {
+            int code = connection.getResponseCode();
+            long total;
+            if (code == 416 && offset > 0) {
+                // part file is complete if it has the known size, otherwise it is longer than the file on the server
+                total = known >= 0 ? known : totalOfRange(connection.getHeaderField("Content-Range"), offset, -1);
+                restart = offset != total;
+            } else if (code == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+                total = totalOfRange(connection.getHeaderField("Content-Range"), offset, connection.getContentLengthLong());
+                restart = known >= 0 && total != known;     // file changed, the validator did not tell
+                if (!restart) {
+                    if (unverified && !target.renameTo(part))
+                        throw new IOException("can't resume " + target);
+                    unverified = false;
+                    offset = copy(connection, digest, offset, total);
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                unverified = false;     // downloaded into the part file, the target is kept until replaced
+                if (offset > 0)
+                    digest.reset(); // server ignored the range or the file changed, start over
+                offset = 0;
+                total = connection.getContentLengthLong();
+                if (expectedSize >= 0 && total >= 0 && total != expectedSize)
+                    throw new IOException("server reports " + total + " bytes, expected " + expectedSize);
+                if (total >= 0 && total < minSize)
+                    throw new IOException("server reports " + total + " bytes, not the file");
+                String tag = connection.getHeaderField("ETag");
+                if (tag == null)
+                    tag = connection.getHeaderField("Last-Modified");
+                write(validator, tag);
+                write(size, total >= 0 && expectedSize < 0 ? Long.toString(total) : null);
+                known = expectedSize >= 0 ? expectedSize : total;
+                offset = copy(connection, digest, 0, total);
+            } else {
+                throw new IOException("HTTP " + code + " " + connection.getResponseMessage());
+            }
+            if (!restart) {
+                try {
+                    verify(digest, offset, known >= 0 ? known : total);
+                } catch (IOException e) {
+                    if (!unverified)
+                        throw e;
+                    restart = true;     // not the file, download it
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        if (restart) {
+            discard();
+            run(false);
+            return;
+        }
+        if (!unverified && !part.renameTo(target))
+            throw new IOException("rename failed: " + target);
+        validator.delete();
+        size.delete();
+        write(marker, sha256 != null ? sha256 : Long.toString(target.length()));
+    }
+
+    /**
+     * drop the part file and what is known about it, the next run starts over
+     */
+    private void discard() {
+        part.delete();
+        validator.delete();
+        size.delete();
+    }
+
+    private long copy(HttpURLConnection connection, MessageDigest digest, long offset, long total) throws IOException {
+        long start = System.nanoTime();
+        long lastProgress = 0;
+        long bytes = offset;
+        byte[] buffer = new byte[BUFFER];   // read, hashed and written from the same array
+        try (InputStream in = connection.getInputStream();
+             RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(offset);
+            file.seek(offset);
+            while (true) {
+                if (cancelled)
+                    throw new IOException("download cancelled");
+                int n = in.read(buffer);
+                if (n < 0)
+                    break;
+                digest.update(buffer, 0, n);
+                file.write(buffer, 0, n);
+                bytes += n;
+                long now = System.nanoTime();
+                if (listener != null && (now - lastProgress) / 1000000 >= PROGRESS_INTERVAL_MS) {
+                    lastProgress = now;
+                    listener.onProgress(bytes, total, (bytes - offset) * 1e9 / Math.max(1, now - start));
+                }
+            }
+            file.getChannel().force(false);
+        }
+        if (listener != null)
+            listener.onProgress(bytes, total, (bytes - offset) * 1e9 / Math.max(1, System.nanoTime() - start));
+        return bytes;
+    }
+
+    private void verify(MessageDigest digest, long bytes, long expected) throws IOException {
+        if (expected >= 0 && bytes != expected)
+            throw new IOException("incomplete download, " + bytes + " of " + expected + " bytes");
+        if (bytes < minSize) {
+            discard();
+            throw new IOException("download of " + bytes + " bytes is not the file");
+        }
+        if (sha256 != null) {
+            String actual = hex(digest.digest());
+            if (!actual.equalsIgnoreCase(sha256)) {
+                discard();  // corrupt, resuming would not help
+                throw new IOException("checksum mismatch " + actual);
+            }
+        }
+    }
+
+    /**
+     * @return total size from "bytes 100-199/200", -1 if unknown
+     */
+    static long totalOfRange(String contentRange, long offset, long contentLength) {
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash > 0 && !contentRange.endsWith("*")) {
+                try {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return contentLength >= 0 ? offset + contentLength : -1;
+    }
+
+    /** @return -1 if missing or not a number */
+    private static long parse(String text) {
+        try {
+            return text != null ? Long.parseLong(text.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static MessageDigest digest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void hash(MessageDigest digest, File file, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                digest.update(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            OBDReading.appendHex(sb, b & 0xFF, 2);
+        return sb.toString().toLowerCase();
+    }
+
+    private static String read(File file) {
+        if (!file.isFile())
+            return null;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) Math.min(file.length(), 256)];
+            int n = in.read(bytes);
+            return n > 0 ? new String(bytes, 0, n, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void write(File file, String text) throws IOException {
+        if (text == null) {
+            file.delete();
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.odb2llm.app;
+
+import android.app.Application;
+
+public class OBDApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        SharedEmbedder.start(this); // model load and warm-up off the main thread, before the first question
+    }
+}
@@ -0,0 +1,125 @@
+package com.odb2llm.app;
+
+/**
+ * Mode 01 request for up to 6 PIDs in one round-trip, e.g. "010C0D050B\r"
+ * and the matching demultiplexer, splitting the combined reply into one OBDReading per PID
+ *
+ * multiple PIDs per request are only accepted by CAN (ISO 15765-4) vehicles, for other protocols use maxPids=1
+ * instances are reused, neither encode() nor decode() allocate
+ */
+final class OBDBatch {
+
+    static final int MAX_PIDS = 6;
+    private static final int MAX_REPLY = 1 + MAX_PIDS * (1 + OBDReading.MAX_BYTES);
+
+    private final int[] pids = new int[MAX_PIDS];
+    private final byte[] command = new byte[2 + 2 * MAX_PIDS + 1];
+    private final byte[] reply = new byte[MAX_REPLY];
+    private final OBDReading[] readings = new OBDReading[MAX_PIDS];
+    private int maxPids = MAX_PIDS;
+    private int size;
+    private int replyBytes;
+    private int decoded;
+
+    OBDBatch() {
+        for (int i = 0; i < MAX_PIDS; i++)
+            readings[i] = new OBDReading();
+    }
+
+    void setMaxPids(int maxPids) {
+        this.maxPids = Math.max(1, Math.min(MAX_PIDS, maxPids));
+    }
+
+    void clear() {
+        size = 0;
+        replyBytes = 0;
+        decoded = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int pid(int i) {
+        return pids[i];
+    }
+
+    boolean isFull() {
+        return size >= maxPids;
+    }
+
+    boolean contains(int pid) {
+        for (int i = 0; i < size; i++)
+            if (pids[i] == pid)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return false if the batch is full, already contains the PID or the PID can't be combined
+     * with others (unknown or variable reply length)
+     */
+    boolean add(int pid) {
+        OBDPid def = OBDPid.get(pid);
+        if (def == null || isFull() || contains(pid))
+            return false;
+        if (def.bytes == 0 && size > 0)
+            return false;
+        if (size > 0 && OBDPid.get(pids[0]).bytes == 0)
+            return false;
+        if (replyBytes + 1 + def.bytes > MAX_REPLY - 1)
+            return false;
+        pids[size++] = pid;
+        replyBytes += 1 + def.bytes;
+        return true;
+    }
+
+    /**
+     * encode the request including the terminating CR
+     *
+     * @return number of bytes written, the buffer is owned by the batch
+     */
+    int encode() {
+        int n = 0;
+        command[n++] = '0';
+        command[n++] = '1';
+        for (int i = 0; i < size; i++) {
+            command[n++] = (byte) Character.toUpperCase(Character.forDigit(pids[i] >> 4, 16));
+            command[n++] = (byte) Character.toUpperCase(Character.forDigit(pids[i] & 0x0F, 16));
+        }
+        command[n++] = '\r';
+        return n;
+    }
+
+    byte[] command() {
+        return command;
+    }
+
+    /**
+     * split a reply into readings, PIDs the ECU did not answer are missing
+     *
+     * @return number of decoded readings, see reading(i)
+     */
+    int decode(byte[] ascii, int off, int len) {
+        decoded = OBDDecoder.decodeAll(ascii, off, len, reply, readings);
+        return decoded;
+    }
+
+    int decoded() {
+        return decoded;
+    }
+
+    OBDReading reading(int i) {
+        return readings[i];
+    }
+
+    /**
+     * @return reading for the PID from the last decode(), or null if the ECU did not answer it
+     */
+    OBDReading find(int pid) {
+        for (int i = 0; i < decoded; i++)
+            if (readings[i].pid == pid)
+                return readings[i];
+        return null;
+    }
+}
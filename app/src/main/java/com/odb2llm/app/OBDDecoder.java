@@ -0,0 +1,202 @@
+package com.odb2llm.app;
+
+/**
+ * table driven decoder working directly on the ASCII bytes received from the ELM327
+ * no Strings, no regex, no logging: results are written into a caller supplied OBDReading
+ */
+final class OBDDecoder {
+
+    private static final byte[] NIBBLE = new byte[128];
+
+    static {
+        for (int i = 0; i < NIBBLE.length; i++)
+            NIBBLE[i] = -1;
+        for (int i = 0; i < 10; i++)
+            NIBBLE['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            NIBBLE['A' + i] = (byte) (10 + i);
+            NIBBLE['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private OBDDecoder() {}
+
+    static int nibble(int c) {
+        return c >= 0 && c < 128 ? NIBBLE[c] : -1;
+    }
+
+    private static boolean isSeparator(int c) {
+        return c <= ' ' || c == ':' || c == '>';
+    }
+
+    /**
+     * convert hex tokens like "41 0C 1A F8" or "410C1AF8" into bytes
+     * tokens which are not an even number of hex digits (SEARCHING..., ISO-TP "0:" line numbers,
+     * 3 digit length lines) are skipped. a multi frame message starting with its length line, e.g. "008",
+     * ends after that many bytes, the padding of the last CAN frame is dropped
+     *
+     * @return number of bytes written to dst, or -1 if dst is too small
+     */
+    static int unhex(byte[] ascii, int off, int len, byte[] dst) {
+        int n = 0;
+        int limit = Integer.MAX_VALUE;  // ISO-TP message length
+        boolean first = true;
+        int end = off + len;
+        int pos = off;
+        while (pos < end && n < limit) {
+            while (pos < end && isSeparator(ascii[pos]))
+                pos++;
+            int start = pos;
+            boolean hex = true;
+            while (pos < end && !isSeparator(ascii[pos])) {
+                if (nibble(ascii[pos]) < 0)
+                    hex = false;
+                pos++;
+            }
+            int digits = pos - start;
+            if (first && hex && digits == 3 && (pos == end || ascii[pos] == '\r' || ascii[pos] == '\n'))
+                limit = nibble(ascii[start]) << 8 | nibble(ascii[start + 1]) << 4 | nibble(ascii[start + 2]);
+            first = false;
+            if (!hex || digits == 0 || (digits & 1) != 0)
+                continue;
+            int count = Math.min(digits / 2, limit - n);
+            if (n + count > dst.length)
+                return -1;
+            for (int i = start; count > 0; i += 2, count--)
+                dst[n++] = (byte) ((nibble(ascii[i]) << 4) | nibble(ascii[i + 1]));
+        }
+        return n;
+    }
+
+    /**
+     * decode a single reply given as ASCII hex, e.g. "41 05 7B \r\r>"
+     */
+    static boolean decode(byte[] ascii, int off, int len, OBDReading out) {
+        out.clear();
+        int n = unhex(ascii, off, len, out.bytes);
+        if (n < 0)
+            return false;
+        return decodeBytes(n, out);
+    }
+
+    /**
+     * decode a reply already converted to binary, e.g. {0x41, 0x05, 0x7B}
+     */
+    static boolean decode(byte[] reply, int len, OBDReading out) {
+        out.clear();
+        if (len > out.bytes.length)
+            return false;
+        System.arraycopy(reply, 0, out.bytes, 0, len);
+        return decodeBytes(len, out);
+    }
+
+    /**
+     * decode a reply which may carry several PIDs, e.g. "41 0C 1A F8 0D 32 05 7B" for request 010C0D05
+     * the reply is split with the PID length table, scratch has to hold the complete binary reply
+     *
+     * @return number of readings decoded into out; if 0, out[0] holds the error status
+     */
+    static int decodeAll(byte[] ascii, int off, int len, byte[] scratch, OBDReading[] out) {
+        int n = unhex(ascii, off, len, scratch);
+        if (n < 0) {
+            out[0].clear();
+            return 0;
+        }
+        return split(scratch, n, out);
+    }
+
+    static int split(byte[] reply, int n, OBDReading[] out) {
+        if (n < 3 || (reply[0] & 0xFF) != 0x41) {
+            // single value replies and errors
+            return decode(reply, Math.min(n, OBDReading.MAX_BYTES), out[0]) ? 1 : 0;
+        }
+        int count = 0;
+        int pos = 1;
+        while (pos < n && count < out.length) {
+            int pid = reply[pos] & 0xFF;
+            OBDPid def = OBDPid.get(pid);
+            OBDReading r = out[count];
+            r.clear();
+            r.mode = 0x41;
+            r.pid = pid;
+            r.dataStart = 2;
+            if (def == null) {
+                r.status = OBDReading.Status.UNKNOWN_PID;
+                break;
+            }
+            // variable length PIDs can't be followed by another PID
+            int bytes = def.bytes > 0 ? def.bytes : (count == 0 ? n - pos - 1 : -1);
+            if (bytes < 0 || pos + 1 + bytes > n || 2 + bytes > OBDReading.MAX_BYTES) {
+                r.status = OBDReading.Status.SHORT;
+                break;
+            }
+            r.bytes[0] = 0x41;
+            System.arraycopy(reply, pos, r.bytes, 1, 1 + bytes);
+            r.length = 2 + bytes;
+            r.def = def;
+            apply(r.bytes, 2, bytes, def, r);
+            r.status = OBDReading.Status.OK;
+            count++;
+            pos += 1 + bytes;
+        }
+        return count;
+    }
+
+    private static boolean decodeBytes(int n, OBDReading out) {
+        out.length = n;
+        if (n < 2) {
+            out.status = OBDReading.Status.NO_PID;
+            return false;
+        }
+        out.mode = out.bytes[0] & 0xFF;
+        if (out.mode == 0x43) {
+            // CAN replies contain a DTC count byte, older protocols are padded to 3 DTCs per frame
+            out.dataStart = (n - 1) % 2 == 1 ? 2 : 1;
+            out.status = OBDReading.Status.OK;
+            return true;
+        }
+        if (out.mode != 0x41) {
+            out.status = OBDReading.Status.UNSUPPORTED_MODE;
+            return false;
+        }
+        out.pid = out.bytes[1] & 0xFF;
+        out.dataStart = 2;
+        OBDPid def = OBDPid.get(out.pid);
+        if (def == null) {
+            out.status = OBDReading.Status.UNKNOWN_PID;
+            return false;
+        }
+        if (n - 2 < def.bytes) {
+            out.status = OBDReading.Status.SHORT;
+            return false;
+        }
+        out.def = def;
+        apply(out.bytes, 2, n - 2, def, out);
+        out.status = OBDReading.Status.OK;
+        return true;
+    }
+
+    /**
+     * evaluate the descriptor on data bytes starting at index start
+     */
+    static void apply(byte[] bytes, int start, int available, OBDPid def, OBDReading out) {
+        int len = def.bytes > 0 ? def.bytes : available;
+        long raw = 0;
+        for (int i = 0; i < len && i < 8; i++)
+            raw = (raw << 8) | (bytes[start + i] & 0xFF);
+        out.raw = raw;
+        int count = Math.min(def.fields.length, OBDReading.MAX_VALUES);
+        for (int i = 0; i < count; i++) {
+            OBDPid.Field f = def.fields[i];
+            long v = 0;
+            for (int j = 0; j < f.width; j++)
+                v = (v << 8) | (bytes[start + f.offset + j] & 0xFF);
+            if (f.signed) {
+                int bits = 64 - 8 * f.width;
+                v = (v << bits) >> bits;
+            }
+            out.values[i] = (float) (v * f.scale + f.add);
+        }
+        out.valueCount = count;
+    }
+}
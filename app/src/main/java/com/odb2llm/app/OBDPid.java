@@ -0,0 +1,405 @@
+package com.odb2llm.app;
+
+/**
+ * descriptor of a Mode 01 PID: reply length and how each value is derived from the data bytes
+ *
+ * linear fields:  value = raw * scale + offset, raw = unsigned (or signed) big-endian integer of the field bytes
+ * bit fields:     no scaling, use OBDReading.raw and format per PID
+ */
+final class OBDPid {
+
+    enum Kind { VALUE, BITS }
+
+    static final class Field {
+        final String label;
+        final String unit;
+        final int offset;   // index of first data byte (A=0, B=1, ..)
+        final int width;    // number of data bytes
+        final boolean signed;
+        final double scale;
+        final double add;
+        final int decimals; // for formatting only
+
+        Field(String label, String unit, int offset, int width, boolean signed, double scale, double add, int decimals) {
+            this.label = label;
+            this.unit = unit;
+            this.offset = offset;
+            this.width = width;
+            this.signed = signed;
+            this.scale = scale;
+            this.add = add;
+            this.decimals = decimals;
+        }
+    }
+
+    final int pid;
+    final int bytes;        // number of data bytes following mode and pid, 0 if variable
+    final Kind kind;
+    final String name;
+    final Field[] fields;
+
+    private OBDPid(int pid, int bytes, Kind kind, String name, Field[] fields) {
+        this.pid = pid;
+        this.bytes = bytes;
+        this.kind = kind;
+        this.name = name;
+        this.fields = fields;
+    }
+
+    private static final OBDPid[] MODE01 = new OBDPid[256];
+
+    /** PIDs 0x00, 0x20, .. 0xC0 return the bitmap of supported PIDs of the following range */
+    static boolean isSupportedPidsRange(int pid) {
+        return (pid & 0x1F) == 0 && pid <= 0xC0;
+    }
+
+    static OBDPid get(int pid) {
+        return pid >= 0 && pid < MODE01.length ? MODE01[pid] : null;
+    }
+
+    /*
+     * table helpers
+     */
+    private static void bits(int pid, int bytes, String name) {
+        MODE01[pid] = new OBDPid(pid, bytes, Kind.BITS, name, new Field[0]);
+    }
+
+    private static void value(int pid, int bytes, String name, Field... fields) {
+        MODE01[pid] = new OBDPid(pid, bytes, Kind.VALUE, name, fields);
+    }
+
+    /** A * scale + add */
+    private static Field a(String label, String unit, double scale, double add, int decimals) {
+        return new Field(label, unit, 0, 1, false, scale, add, decimals);
+    }
+
+    /** (256A + B) * scale + add */
+    private static Field ab(String label, String unit, double scale, double add, int decimals) {
+        return new Field(label, unit, 0, 2, false, scale, add, decimals);
+    }
+
+    /** arbitrary data bytes, e.g. C and D of a multi value PID */
+    private static Field at(int offset, int width, String label, String unit, double scale, double add, int decimals) {
+        return new Field(label, unit, offset, width, false, scale, add, decimals);
+    }
+
+    /** two's complement data bytes */
+    private static Field signed(int offset, int width, String label, String unit, double scale, double add, int decimals) {
+        return new Field(label, unit, offset, width, true, scale, add, decimals);
+    }
+
+    private static final double PERCENT = 100.0 / 255;  // A * 100 / 255
+    private static final double TRIM = 100.0 / 128;     // A * 100 / 128 - 100
+
+    private static void supported(int pid) {
+        StringBuilder sb = new StringBuilder("PIDs supported [");
+        OBDReading.appendHex(sb, pid + 1, 2).append(" - ");
+        OBDReading.appendHex(sb, pid + 0x20, 2).append(']');
+        bits(pid, 4, sb.toString());
+    }
+
+    private static void o2Sensor(int pid, int sensor) {
+        value(pid, 2, "Oxygen sensor " + sensor,
+                a("Oxygen sensor " + sensor + " voltage", "V", 0.005, 0, 3),
+                at(1, 1, "Oxygen sensor " + sensor + " short term fuel trim", "%", TRIM, -100, 1));
+    }
+
+    private static void o2SensorWideVoltage(int pid, int sensor) {
+        value(pid, 4, "Oxygen sensor " + sensor + " (wide range, voltage)",
+                ab("Oxygen sensor " + sensor + " air-fuel equivalence ratio", "", 2.0 / 65536, 0, 3),
+                at(2, 2, "Oxygen sensor " + sensor + " voltage", "V", 8.0 / 65536, 0, 3));
+    }
+
+    private static void o2SensorWideCurrent(int pid, int sensor) {
+        value(pid, 4, "Oxygen sensor " + sensor + " (wide range, current)",
+                ab("Oxygen sensor " + sensor + " air-fuel equivalence ratio", "", 2.0 / 65536, 0, 3),
+                at(2, 2, "Oxygen sensor " + sensor + " current", "mA", 1.0 / 256, -128, 2));
+    }
+
+    private static void catalystTemperature(int pid, String location) {
+        value(pid, 2, "Catalyst temperature " + location,
+                ab("Catalyst temperature (" + location + ")", "°C", 0.1, -40, 1));
+    }
+
+    private static void exhaustGasTemperature(int pid, int bank) {
+        value(pid, 9, "Exhaust gas temperature bank " + bank,
+                at(1, 2, "Exhaust gas temperature (Bank " + bank + ", Sensor 1)", "°C", 0.1, -40, 1),
+                at(3, 2, "Exhaust gas temperature (Bank " + bank + ", Sensor 2)", "°C", 0.1, -40, 1),
+                at(5, 2, "Exhaust gas temperature (Bank " + bank + ", Sensor 3)", "°C", 0.1, -40, 1),
+                at(7, 2, "Exhaust gas temperature (Bank " + bank + ", Sensor 4)", "°C", 0.1, -40, 1));
+    }
+
+    private static void turbochargerTemperature(int pid, char turbo) {
+        value(pid, 7, "Turbocharger " + turbo + " temperature",
+                at(1, 1, "Turbo " + turbo + " compressor inlet temperature", "°C", 1, -40, 0),
+                at(2, 1, "Turbo " + turbo + " compressor outlet temperature", "°C", 1, -40, 0),
+                at(3, 2, "Turbo " + turbo + " turbine inlet temperature", "°C", 0.1, -40, 1),
+                at(5, 2, "Turbo " + turbo + " turbine outlet temperature", "°C", 0.1, -40, 1));
+    }
+
+    private static void dieselParticulateFilter(int pid, int bank) {
+        value(pid, 7, "Diesel particulate filter bank " + bank,
+                at(1, 2, "DPF differential pressure (Bank " + bank + ")", "kPa", 0.01, 0, 2),
+                at(3, 2, "DPF inlet pressure (Bank " + bank + ")", "kPa", 0.01, 0, 2),
+                at(5, 2, "DPF outlet pressure (Bank " + bank + ")", "kPa", 0.01, 0, 2));
+    }
+
+    /*
+     * SAE J1979 Mode 01, PIDs 0x00 - 0xC4
+     * bytes is the reply length of a single ECU, 0 for replies of manufacturer/model dependent length
+     */
+    static {
+        supported(0x00);
+        bits (0x01, 4, "Monitor status since DTCs cleared");
+        bits (0x02, 2, "DTC that caused freeze frame");
+        bits (0x03, 2, "Fuel system status");
+        value(0x04, 1, "Calculated engine load",              a("Engine load", "%", PERCENT, 0, 1));
+        value(0x05, 1, "Engine coolant temperature",          a("Engine coolant temperature", "°C", 1, -40, 0));
+        value(0x06, 1, "Short term fuel trim - Bank 1",       a("Short term fuel trim (Bank 1)", "%", TRIM, -100, 1));
+        value(0x07, 1, "Long term fuel trim - Bank 1",        a("Long term fuel trim (Bank 1)", "%", TRIM, -100, 1));
+        value(0x08, 1, "Short term fuel trim - Bank 2",       a("Short term fuel trim (Bank 2)", "%", TRIM, -100, 1));
+        value(0x09, 1, "Long term fuel trim - Bank 2",        a("Long term fuel trim (Bank 2)", "%", TRIM, -100, 1));
+        value(0x0A, 1, "Fuel pressure",                       a("Fuel pressure", "kPa", 3, 0, 0));
+        value(0x0B, 1, "Intake manifold absolute pressure",   a("Intake manifold absolute pressure", "kPa", 1, 0, 0));
+        value(0x0C, 2, "Engine speed",                        ab("Engine RPM", "rpm", 0.25, 0, 0));
+        value(0x0D, 1, "Vehicle speed",                       a("Vehicle speed", "km/h", 1, 0, 0));
+        value(0x0E, 1, "Timing advance",                      a("Timing advance", "°", 0.5, -64, 1));
+        value(0x0F, 1, "Intake air temperature",              a("Intake air temperature", "°C", 1, -40, 0));
+        value(0x10, 2, "Mass air flow sensor air flow rate",  ab("MAF air flow rate", "g/s", 0.01, 0, 2));
+        value(0x11, 1, "Throttle position",                   a("Throttle position", "%", PERCENT, 0, 1));
+        bits (0x12, 1, "Commanded secondary air status");
+        bits (0x13, 1, "Oxygen sensors present (2 banks)");
+        for (int sensor = 1; sensor <= 8; sensor++)
+            o2Sensor(0x13 + sensor, sensor);
+        bits (0x1C, 1, "OBD standards this vehicle conforms to");
+        bits (0x1D, 1, "Oxygen sensors present (4 banks)");
+        bits (0x1E, 1, "Auxiliary input status");
+        value(0x1F, 2, "Run time since engine start",         ab("Run time since engine start", "s", 1, 0, 0));
+
+        supported(0x20);
+        value(0x21, 2, "Distance traveled with MIL on",       ab("Distance traveled with MIL on", "km", 1, 0, 0));
+        value(0x22, 2, "Fuel rail pressure (relative to manifold vacuum)", ab("Fuel rail pressure", "kPa", 0.079, 0, 1));
+        value(0x23, 2, "Fuel rail gauge pressure",            ab("Fuel rail gauge pressure", "kPa", 10, 0, 0));
+        for (int sensor = 1; sensor <= 8; sensor++)
+            o2SensorWideVoltage(0x23 + sensor, sensor);
+        value(0x2C, 1, "Commanded EGR",                       a("Commanded EGR", "%", PERCENT, 0, 1));
+        value(0x2D, 1, "EGR error",                           a("EGR error", "%", TRIM, -100, 1));
+        value(0x2E, 1, "Commanded evaporative purge",         a("Commanded evaporative purge", "%", PERCENT, 0, 1));
+        value(0x2F, 1, "Fuel tank level input",               a("Fuel tank level", "%", PERCENT, 0, 1));
+        value(0x30, 1, "Warm-ups since codes cleared",        a("Warm-ups since codes cleared", "", 1, 0, 0));
+        value(0x31, 2, "Distance traveled since codes cleared", ab("Distance traveled since codes cleared", "km", 1, 0, 0));
+        value(0x32, 2, "Evap. system vapor pressure",         signed(0, 2, "Evap. system vapor pressure", "Pa", 0.25, 0, 2));
+        value(0x33, 1, "Absolute barometric pressure",        a("Absolute barometric pressure", "kPa", 1, 0, 0));
+        for (int sensor = 1; sensor <= 8; sensor++)
+            o2SensorWideCurrent(0x33 + sensor, sensor);
+        catalystTemperature(0x3C, "Bank 1, Sensor 1");
+        catalystTemperature(0x3D, "Bank 2, Sensor 1");
+        catalystTemperature(0x3E, "Bank 1, Sensor 2");
+        catalystTemperature(0x3F, "Bank 2, Sensor 2");
+
+        supported(0x40);
+        bits (0x41, 4, "Monitor status this drive cycle");
+        value(0x42, 2, "Control module voltage",              ab("Control module voltage", "V", 0.001, 0, 2));
+        value(0x43, 2, "Absolute load value",                 ab("Absolute load value", "%", PERCENT, 0, 1));
+        value(0x44, 2, "Commanded air-fuel equivalence ratio", ab("Commanded air-fuel equivalence ratio", "", 2.0 / 65536, 0, 3));
+        value(0x45, 1, "Relative throttle position",          a("Relative throttle position", "%", PERCENT, 0, 1));
+        value(0x46, 1, "Ambient air temperature",             a("Ambient air temperature", "°C", 1, -40, 0));
+        value(0x47, 1, "Absolute throttle position B",        a("Absolute throttle position B", "%", PERCENT, 0, 1));
+        value(0x48, 1, "Absolute throttle position C",        a("Absolute throttle position C", "%", PERCENT, 0, 1));
+        value(0x49, 1, "Accelerator pedal position D",        a("Accelerator pedal position D", "%", PERCENT, 0, 1));
+        value(0x4A, 1, "Accelerator pedal position E",        a("Accelerator pedal position E", "%", PERCENT, 0, 1));
+        value(0x4B, 1, "Accelerator pedal position F",        a("Accelerator pedal position F", "%", PERCENT, 0, 1));
+        value(0x4C, 1, "Commanded throttle actuator",         a("Commanded throttle actuator", "%", PERCENT, 0, 1));
+        value(0x4D, 2, "Time run with MIL on",                ab("Time run with MIL on", "min", 1, 0, 0));
+        value(0x4E, 2, "Time since trouble codes cleared",    ab("Time since trouble codes cleared", "min", 1, 0, 0));
+        value(0x4F, 4, "Maximum values for equivalence ratio, oxygen sensor voltage, current and manifold pressure",
+                at(0, 1, "Maximum air-fuel equivalence ratio", "", 1, 0, 0),
+                at(1, 1, "Maximum oxygen sensor voltage", "V", 1, 0, 0),
+                at(2, 1, "Maximum oxygen sensor current", "mA", 1, 0, 0),
+                at(3, 1, "Maximum intake manifold absolute pressure", "kPa", 10, 0, 0));
+        value(0x50, 4, "Maximum value for air flow rate from MAF sensor", a("Maximum MAF air flow rate", "g/s", 10, 0, 0));
+        bits (0x51, 1, "Fuel type");
+        value(0x52, 1, "Ethanol fuel",                        a("Ethanol fuel", "%", PERCENT, 0, 1));
+        value(0x53, 2, "Absolute evap system vapor pressure", ab("Absolute evap system vapor pressure", "kPa", 0.005, 0, 3));
+        value(0x54, 2, "Evap system vapor pressure",          signed(0, 2, "Evap system vapor pressure", "Pa", 1, 0, 0));
+        value(0x55, 2, "Short term secondary oxygen sensor trim - Bank 1 and 3",
+                a("Short term secondary O2 trim (Bank 1)", "%", TRIM, -100, 1),
+                at(1, 1, "Short term secondary O2 trim (Bank 3)", "%", TRIM, -100, 1));
+        value(0x56, 2, "Long term secondary oxygen sensor trim - Bank 1 and 3",
+                a("Long term secondary O2 trim (Bank 1)", "%", TRIM, -100, 1),
+                at(1, 1, "Long term secondary O2 trim (Bank 3)", "%", TRIM, -100, 1));
+        value(0x57, 2, "Short term secondary oxygen sensor trim - Bank 2 and 4",
+                a("Short term secondary O2 trim (Bank 2)", "%", TRIM, -100, 1),
+                at(1, 1, "Short term secondary O2 trim (Bank 4)", "%", TRIM, -100, 1));
+        value(0x58, 2, "Long term secondary oxygen sensor trim - Bank 2 and 4",
+                a("Long term secondary O2 trim (Bank 2)", "%", TRIM, -100, 1),
+                at(1, 1, "Long term secondary O2 trim (Bank 4)", "%", TRIM, -100, 1));
+        value(0x59, 2, "Fuel rail absolute pressure",         ab("Fuel rail absolute pressure", "kPa", 10, 0, 0));
+        value(0x5A, 1, "Relative accelerator pedal position", a("Relative accelerator pedal position", "%", PERCENT, 0, 1));
+        value(0x5B, 1, "Hybrid battery pack remaining life",  a("Hybrid battery pack remaining life", "%", PERCENT, 0, 1));
+        value(0x5C, 1, "Engine oil temperature",              a("Engine oil temperature", "°C", 1, -40, 0));
+        value(0x5D, 2, "Fuel injection timing",               ab("Fuel injection timing", "°", 1.0 / 128, -210, 2));
+        value(0x5E, 2, "Engine fuel rate",                    ab("Engine fuel rate", "L/h", 0.05, 0, 2));
+        bits (0x5F, 1, "Emission requirements to which vehicle is designed");
+
+        supported(0x60);
+        value(0x61, 1, "Driver's demand engine - percent torque", a("Driver's demand engine torque", "%", 1, -125, 0));
+        value(0x62, 1, "Actual engine - percent torque",      a("Actual engine torque", "%", 1, -125, 0));
+        value(0x63, 2, "Engine reference torque",             ab("Engine reference torque", "Nm", 1, 0, 0));
+        value(0x64, 5, "Engine percent torque data",
+                at(0, 1, "Engine torque at idle", "%", 1, -125, 0),
+                at(1, 1, "Engine torque at point 1", "%", 1, -125, 0),
+                at(2, 1, "Engine torque at point 2", "%", 1, -125, 0),
+                at(3, 1, "Engine torque at point 3", "%", 1, -125, 0),
+                at(4, 1, "Engine torque at point 4", "%", 1, -125, 0));
+        bits (0x65, 2, "Auxiliary input / output supported");
+        value(0x66, 5, "Mass air flow sensor",
+                at(1, 2, "MAF sensor A air flow rate", "g/s", 1.0 / 32, 0, 2),
+                at(3, 2, "MAF sensor B air flow rate", "g/s", 1.0 / 32, 0, 2));
+        value(0x67, 3, "Engine coolant temperature (sensors)",
+                at(1, 1, "Engine coolant temperature sensor 1", "°C", 1, -40, 0),
+                at(2, 1, "Engine coolant temperature sensor 2", "°C", 1, -40, 0));
+        value(0x68, 7, "Intake air temperature sensor",
+                at(1, 1, "Intake air temperature (Bank 1, Sensor 1)", "°C", 1, -40, 0),
+                at(2, 1, "Intake air temperature (Bank 1, Sensor 2)", "°C", 1, -40, 0),
+                at(3, 1, "Intake air temperature (Bank 1, Sensor 3)", "°C", 1, -40, 0),
+                at(4, 1, "Intake air temperature (Bank 2, Sensor 1)", "°C", 1, -40, 0),
+                at(5, 1, "Intake air temperature (Bank 2, Sensor 2)", "°C", 1, -40, 0),
+                at(6, 1, "Intake air temperature (Bank 2, Sensor 3)", "°C", 1, -40, 0));
+        value(0x69, 7, "Commanded EGR and EGR error",
+                at(1, 1, "Commanded EGR A duty cycle", "%", PERCENT, 0, 1),
+                at(2, 1, "Actual EGR A duty cycle", "%", PERCENT, 0, 1),
+                at(3, 1, "EGR A error", "%", TRIM, -100, 1),
+                at(4, 1, "Commanded EGR B duty cycle", "%", PERCENT, 0, 1),
+                at(5, 1, "Actual EGR B duty cycle", "%", PERCENT, 0, 1),
+                at(6, 1, "EGR B error", "%", TRIM, -100, 1));
+        value(0x6A, 5, "Commanded diesel intake air flow control and relative intake air flow position",
+                at(1, 1, "Commanded intake air flow A", "%", PERCENT, 0, 1),
+                at(2, 1, "Relative intake air flow A position", "%", PERCENT, 0, 1),
+                at(3, 1, "Commanded intake air flow B", "%", PERCENT, 0, 1),
+                at(4, 1, "Relative intake air flow B position", "%", PERCENT, 0, 1));
+        value(0x6B, 5, "Exhaust gas recirculation temperature",
+                at(1, 1, "EGR temperature (Bank 1, Sensor 1)", "°C", 1, -40, 0),
+                at(2, 1, "EGR temperature (Bank 1, Sensor 2)", "°C", 1, -40, 0),
+                at(3, 1, "EGR temperature (Bank 2, Sensor 1)", "°C", 1, -40, 0),
+                at(4, 1, "EGR temperature (Bank 2, Sensor 2)", "°C", 1, -40, 0));
+        value(0x6C, 5, "Commanded throttle actuator control and relative throttle position",
+                at(1, 1, "Commanded throttle actuator A", "%", PERCENT, 0, 1),
+                at(2, 1, "Relative throttle A position", "%", PERCENT, 0, 1),
+                at(3, 1, "Commanded throttle actuator B", "%", PERCENT, 0, 1),
+                at(4, 1, "Relative throttle B position", "%", PERCENT, 0, 1));
+        value(0x6D, 11, "Fuel pressure control system",
+                at(1, 2, "Commanded fuel rail pressure A", "kPa", 10, 0, 0),
+                at(3, 2, "Fuel rail pressure A", "kPa", 10, 0, 0),
+                at(5, 1, "Fuel rail temperature A", "°C", 1, -40, 0),
+                at(6, 2, "Commanded fuel rail pressure B", "kPa", 10, 0, 0),
+                at(8, 2, "Fuel rail pressure B", "kPa", 10, 0, 0),
+                at(10, 1, "Fuel rail temperature B", "°C", 1, -40, 0));
+        value(0x6E, 9, "Injection pressure control system",
+                at(1, 2, "Commanded injection control pressure A", "kPa", 10, 0, 0),
+                at(3, 2, "Injection control pressure A", "kPa", 10, 0, 0),
+                at(5, 2, "Commanded injection control pressure B", "kPa", 10, 0, 0),
+                at(7, 2, "Injection control pressure B", "kPa", 10, 0, 0));
+        value(0x6F, 3, "Turbocharger compressor inlet pressure",
+                at(1, 1, "Turbo A compressor inlet pressure", "kPa", 1, 0, 0),
+                at(2, 1, "Turbo B compressor inlet pressure", "kPa", 1, 0, 0));
+        value(0x70, 10, "Boost pressure control",
+                at(1, 2, "Commanded boost pressure A", "kPa", 0.03125, 0, 1),
+                at(3, 2, "Boost pressure A", "kPa", 0.03125, 0, 1),
+                at(5, 2, "Commanded boost pressure B", "kPa", 0.03125, 0, 1),
+                at(7, 2, "Boost pressure B", "kPa", 0.03125, 0, 1));
+        value(0x71, 6, "Variable geometry turbo control",
+                at(1, 1, "Commanded VGT A position", "%", PERCENT, 0, 1),
+                at(2, 1, "VGT A position", "%", PERCENT, 0, 1),
+                at(3, 1, "Commanded VGT B position", "%", PERCENT, 0, 1),
+                at(4, 1, "VGT B position", "%", PERCENT, 0, 1));
+        value(0x72, 5, "Wastegate control",
+                at(1, 1, "Commanded wastegate A position", "%", PERCENT, 0, 1),
+                at(2, 1, "Wastegate A position", "%", PERCENT, 0, 1),
+                at(3, 1, "Commanded wastegate B position", "%", PERCENT, 0, 1),
+                at(4, 1, "Wastegate B position", "%", PERCENT, 0, 1));
+        value(0x73, 5, "Exhaust pressure",
+                at(1, 2, "Exhaust pressure (Bank 1)", "kPa", 0.01, 0, 2),
+                at(3, 2, "Exhaust pressure (Bank 2)", "kPa", 0.01, 0, 2));
+        value(0x74, 5, "Turbocharger RPM",
+                at(1, 2, "Turbo A RPM", "rpm", 10, 0, 0),
+                at(3, 2, "Turbo B RPM", "rpm", 10, 0, 0));
+        turbochargerTemperature(0x75, 'A');
+        turbochargerTemperature(0x76, 'B');
+        value(0x77, 5, "Charge air cooler temperature",
+                at(1, 1, "Charge air cooler temperature (Bank 1, Sensor 1)", "°C", 1, -40, 0),
+                at(2, 1, "Charge air cooler temperature (Bank 1, Sensor 2)", "°C", 1, -40, 0),
+                at(3, 1, "Charge air cooler temperature (Bank 2, Sensor 1)", "°C", 1, -40, 0),
+                at(4, 1, "Charge air cooler temperature (Bank 2, Sensor 2)", "°C", 1, -40, 0));
+        exhaustGasTemperature(0x78, 1);
+        exhaustGasTemperature(0x79, 2);
+        dieselParticulateFilter(0x7A, 1);
+        dieselParticulateFilter(0x7B, 2);
+        value(0x7C, 9, "Diesel particulate filter temperature",
+                at(1, 2, "DPF inlet temperature (Bank 1)", "°C", 0.1, -40, 1),
+                at(3, 2, "DPF outlet temperature (Bank 1)", "°C", 0.1, -40, 1),
+                at(5, 2, "DPF inlet temperature (Bank 2)", "°C", 0.1, -40, 1),
+                at(7, 2, "DPF outlet temperature (Bank 2)", "°C", 0.1, -40, 1));
+        bits (0x7D, 1, "NOx NTE control area status");
+        bits (0x7E, 1, "PM NTE control area status");
+        value(0x7F, 13, "Engine run time",
+                at(1, 4, "Total engine run time", "s", 1, 0, 0),
+                at(5, 4, "Total idle run time", "s", 1, 0, 0),
+                at(9, 4, "Total run time with PTO active", "s", 1, 0, 0));
+
+        supported(0x80);
+        bits (0x81, 41, "Engine run time for AECD #1-#5");
+        bits (0x82, 41, "Engine run time for AECD #6-#10");
+        value(0x83, 9, "NOx sensor",
+                at(1, 2, "NOx concentration (Bank 1, Sensor 1)", "ppm", 1, 0, 0),
+                at(3, 2, "NOx concentration (Bank 2, Sensor 1)", "ppm", 1, 0, 0),
+                at(5, 2, "NOx concentration (Bank 1, Sensor 2)", "ppm", 1, 0, 0),
+                at(7, 2, "NOx concentration (Bank 2, Sensor 2)", "ppm", 1, 0, 0));
+        value(0x84, 1, "Manifold surface temperature",        a("Manifold surface temperature", "°C", 1, -40, 0));
+        bits (0x85, 10, "NOx reagent system");
+        value(0x86, 5, "Particulate matter sensor",
+                at(1, 2, "PM concentration (Bank 1)", "mg/m³", 1.0 / 80, 0, 2),
+                at(3, 2, "PM concentration (Bank 2)", "mg/m³", 1.0 / 80, 0, 2));
+        value(0x87, 5, "Intake manifold absolute pressure (sensors)",
+                at(1, 2, "Intake manifold absolute pressure A", "kPa", 1.0 / 32, 0, 1),
+                at(3, 2, "Intake manifold absolute pressure B", "kPa", 1.0 / 32, 0, 1));
+        bits (0x88, 13, "SCR induce system");
+        bits (0x89, 41, "Run time for AECD #11-#15");
+        bits (0x8A, 41, "Run time for AECD #16-#20");
+        bits (0x8B, 7, "Diesel aftertreatment");
+        bits (0x8C, 17, "O2 sensor (wide range)");
+        value(0x8D, 1, "Throttle position G",                 a("Throttle position G", "%", PERCENT, 0, 1));
+        value(0x8E, 1, "Engine friction - percent torque",    a("Engine friction torque", "%", 1, -125, 0));
+        bits (0x8F, 7, "PM sensor bank 1 & 2");
+        bits (0x90, 3, "WWH-OBD vehicle OBD system information");
+        bits (0x91, 5, "WWH-OBD vehicle OBD system information (ECU)");
+        bits (0x92, 2, "Fuel system control");
+        bits (0x93, 3, "WWH-OBD vehicle OBD counters support");
+        bits (0x94, 12, "NOx warning and inducement system");
+        exhaustGasTemperature(0x98, 1);
+        exhaustGasTemperature(0x99, 2);
+        bits (0x9A, 6, "Hybrid/EV vehicle system data, battery, voltage");
+        bits (0x9B, 4, "Diesel exhaust fluid sensor data");
+        bits (0x9C, 17, "O2 sensor data");
+        value(0x9D, 4, "Engine fuel rate",
+                at(0, 2, "Engine fuel rate", "g/s", 0.02, 0, 2),
+                at(2, 2, "Vehicle fuel rate", "g/s", 0.02, 0, 2));
+        value(0x9E, 2, "Engine exhaust flow rate",            ab("Engine exhaust flow rate", "kg/h", 0.2, 0, 1));
+        bits (0x9F, 9, "Fuel system percentage use");
+
+        supported(0xA0);
+        bits (0xA1, 9, "NOx sensor corrected data");
+        value(0xA2, 2, "Cylinder fuel rate",                  ab("Cylinder fuel rate", "mg/stroke", 1.0 / 32, 0, 2));
+        bits (0xA3, 9, "Evap system vapor pressure");
+        value(0xA4, 4, "Transmission actual gear",            at(2, 2, "Transmission gear ratio", "", 0.001, 0, 3));
+        value(0xA5, 4, "Commanded diesel exhaust fluid dosing", at(1, 1, "Commanded DEF dosing", "%", 0.5, 0, 1));
+        value(0xA6, 4, "Odometer",                            at(0, 4, "Odometer", "km", 0.1, 0, 1));
+        bits (0xA7, 4, "NOx sensor concentration sensors 3 and 4");
+        bits (0xA8, 4, "NOx sensor corrected concentration sensors 3 and 4");
+        bits (0xA9, 4, "ABS disable switch state");
+
+        supported(0xC0);
+        bits (0xC3, 0, "Engine idle request");
+        bits (0xC4, 0, "Engine stop request");
+    }
+}
@@ -0,0 +1,214 @@
+package com.odb2llm.app;
+
+/**
+ * caller supplied result of OBDDecoder, reused between samples to avoid garbage
+ * values are primitive, text is only created by format() / toString()
+ */
+final class OBDReading {
+
+    enum Status { OK, INVALID, NO_PID, UNSUPPORTED_MODE, UNKNOWN_PID, SHORT }
+
+    static final int MAX_BYTES = 64;
+    static final int MAX_VALUES = 8;
+
+    Status status = Status.INVALID;
+    int mode;               // reply mode, e.g. 0x41
+    int pid;                // -1 for modes without pid (03)
+    OBDPid def;             // null for modes without pid table
+    final byte[] bytes = new byte[MAX_BYTES]; // complete reply incl. mode and pid
+    int length;
+    int dataStart;          // index of data byte A within bytes
+    long raw;               // up to 8 data bytes as unsigned big-endian integer, used by bit fields
+    final float[] values = new float[MAX_VALUES];
+    int valueCount;
+
+    void clear() {
+        status = Status.INVALID;
+        mode = 0;
+        pid = -1;
+        def = null;
+        length = 0;
+        dataStart = 0;
+        raw = 0;
+        valueCount = 0;
+    }
+
+    void copyFrom(OBDReading other) {
+        status = other.status;
+        mode = other.mode;
+        pid = other.pid;
+        def = other.def;
+        System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+        length = other.length;
+        dataStart = other.dataStart;
+        raw = other.raw;
+        System.arraycopy(other.values, 0, values, 0, other.valueCount);
+        valueCount = other.valueCount;
+    }
+
+    boolean isValid() {
+        return status == Status.OK;
+    }
+
+    int dataLength() {
+        return length - dataStart;
+    }
+
+    /** unsigned data byte, A=0, B=1, .. */
+    int data(int i) {
+        return bytes[dataStart + i] & 0xFF;
+    }
+
+    /*
+     * formatting, only used when text is requested
+     */
+    @Override
+    public String toString() {
+        return format(new StringBuilder(64)).toString();
+    }
+
+    StringBuilder format(StringBuilder sb) {
+        if (status != Status.OK)
+            return sb.append(status);
+        if (mode == 0x43)
+            return formatDtcs(sb.append("Stored DTCs: "), dataStart, length);
+        switch (def.kind) {
+            case VALUE:
+                for (int i = 0; i < valueCount; i++) {
+                    OBDPid.Field f = def.fields[i];
+                    if (i > 0)
+                        sb.append(", ");
+                    sb.append(f.label).append(" is ");
+                    appendFixed(sb, values[i], f.decimals);
+                    if (!f.unit.isEmpty() && !f.unit.startsWith("°") && !f.unit.equals("%"))
+                        sb.append(' ');
+                    sb.append(f.unit);
+                }
+                return sb.append('.');
+            case BITS:
+            default:
+                return formatBits(sb);
+        }
+    }
+
+    private StringBuilder formatBits(StringBuilder sb) {
+        switch (pid) {
+            case 0x01: // Monitor Status (since DTCs cleared)
+                sb.append("MIL status: ").append((data(0) & 0x80) != 0 ? "ON" : "OFF");
+                sb.append(", Stored DTCs: ").append(data(0) & 0x7F);
+                sb.append(", Test availability: 0x"); appendHex(sb, data(1), 2);
+                sb.append(", Test completion: 0x"); appendHex(sb, data(2), 2);
+                return sb;
+            case 0x00: case 0x20: case 0x40: case 0x60: case 0x80: case 0xA0: case 0xC0:
+                sb.append(def.name).append(':');
+                for (int bit = 0; bit < 32; bit++) {
+                    if ((raw & (0x80000000L >>> bit)) != 0) {
+                        sb.append(' ');
+                        appendHex(sb, pid + bit + 1, 2);
+                    }
+                }
+                return sb;
+            case 0x02: // DTC that caused freeze frame
+                sb.append("Freeze frame DTC: ");
+                if (data(0) == 0 && data(1) == 0)
+                    return sb.append("None");
+                return appendDtc(sb, data(0), data(1));
+            case 0x03: // Fuel system status
+                sb.append("Fuel system 1 is ").append(fuelSystemStatus(data(0)));
+                if (data(1) != 0)
+                    sb.append(", fuel system 2 is ").append(fuelSystemStatus(data(1)));
+                return sb.append('.');
+            case 0x13: // Oxygen sensors present (2 banks)
+                return sb.append("Oxygen sensors present: ").append(Long.bitCount(raw & 0x0F)).append(" in bank 1, ")
+                        .append(Long.bitCount(raw & 0xF0)).append(" in bank 2.");
+            case 0x51: // Fuel type
+                return sb.append("Fuel type is ").append(fuelType(data(0))).append('.');
+            default:
+                sb.append(def.name).append(": 0x");
+                appendHex(sb, raw, 2 * Math.min(def.bytes > 0 ? def.bytes : dataLength(), 8));
+                return sb;
+        }
+    }
+
+    private static String fuelSystemStatus(int a) {
+        switch (a) {
+            case 0x00: return "not present";
+            case 0x01: return "open loop due to insufficient engine temperature";
+            case 0x02: return "closed loop";
+            case 0x04: return "open loop due to engine load or fuel cut";
+            case 0x08: return "open loop due to system failure";
+            case 0x10: return "closed loop with fault in feedback system";
+            default:   return "in an unknown state";
+        }
+    }
+
+    private static String fuelType(int a) {
+        switch (a) {
+            case 0x01: return "gasoline";
+            case 0x02: return "methanol";
+            case 0x03: return "ethanol";
+            case 0x04: return "diesel";
+            case 0x05: return "LPG";
+            case 0x06: return "CNG";
+            case 0x07: return "propane";
+            case 0x08: return "electric";
+            case 0x09: case 0x0A: case 0x0B: case 0x0C: case 0x0D:
+            case 0x0E: case 0x0F: case 0x10: case 0x11: case 0x12:
+            case 0x13: case 0x14: case 0x15:
+                return "bifuel or hybrid";
+            default:   return "not available";
+        }
+    }
+
+    private StringBuilder formatDtcs(StringBuilder sb, int from, int to) {
+        int start = sb.length();
+        // Each DTC is represented by two bytes, 0x0000 pads the reply
+        for (int i = from; i + 1 < to; i += 2) {
+            int a = bytes[i] & 0xFF;
+            int b = bytes[i + 1] & 0xFF;
+            if (a == 0 && b == 0)
+                continue;
+            if (sb.length() > start)
+                sb.append(", ");
+            appendDtc(sb, a, b);
+        }
+        if (sb.length() == start)
+            sb.append("None");
+        return sb;
+    }
+
+    /** SAE J2012 notation, e.g. 0x01 0x33 -> P0133 */
+    static StringBuilder appendDtc(StringBuilder sb, int a, int b) {
+        sb.append("PCBU".charAt((a >> 6) & 0x03));
+        sb.append((char) ('0' + ((a >> 4) & 0x03)));
+        appendHex(sb, a & 0x0F, 1);
+        appendHex(sb, b, 2);
+        return sb;
+    }
+
+    static StringBuilder appendHex(StringBuilder sb, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            sb.append(Character.toUpperCase(Character.forDigit((int) (value >>> shift) & 0x0F, 16)));
+        return sb;
+    }
+
+    static StringBuilder appendFixed(StringBuilder sb, float value, int decimals) {
+        if (decimals <= 0)
+            return sb.append(Math.round(value));
+        long scale = 1;
+        for (int i = 0; i < decimals; i++)
+            scale *= 10;
+        long fixed = Math.round((double) value * scale);
+        if (fixed < 0) {
+            sb.append('-');
+            fixed = -fixed;
+        }
+        sb.append(fixed / scale).append('.');
+        long frac = fixed % scale;
+        for (long div = scale / 10; div > 0; div /= 10) {
+            sb.append((char) ('0' + frac / div));
+            frac %= div;
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,64 @@
+package com.odb2llm.app;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * MediaPipe LlmInference with the downloaded model, loaded on first use
+ */
+final class OnDeviceBackend implements InferenceBackend {
+
+    private static final long GENERATE_TIMEOUT_S = 60;
+    private static final long DEFAULT_LATENCY_MS = 1000; // until measured, includes prefill of a short prompt
+
+    private final Context context;
+    private volatile long latencyMs = DEFAULT_LATENCY_MS;
+
+    OnDeviceBackend(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    static File modelFile(Context context) {
+        return new File(context.getFilesDir(), "llm/model.bin");
+    }
+
+    @Override
+    public String name() {
+        return "on-device";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return modelFile(context).exists();
+    }
+
+    @Override
+    public long latencyMs() {
+        return latencyMs;
+    }
+
+    @Override
+    public PromptBuilder newPrompt() {
+        return InferenceModel.Companion.getInstance(context).newPrompt();
+    }
+
+    @Override
+    public String generate(PromptBuilder.Prompt prompt, TokenListener listener) throws Exception {
+        InferenceModel model = InferenceModel.Companion.getInstance(context);
+        CompletableFuture<String> future = model.generateResponseAsync(prompt, listener);
+        String response;
+        try {
+            response = future.get(GENERATE_TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            model.cancel();     // else the next request finds the generation still running
+            throw e;
+        }
+        if (model.getTimeToFirstTokenMs() >= 0)
+            latencyMs = (latencyMs + model.getTimeToFirstTokenMs()) / 2;
+        return response;
+    }
+}
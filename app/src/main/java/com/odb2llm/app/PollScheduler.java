@@ -0,0 +1,476 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sends all requests to the ELM327 with flow control: exactly one request is in flight, the next one is
+ * only sent after the '>' prompt of the previous reply. after a timeout the adapter may still be busy with
+ * the request, it is interrupted and its stale reply and prompt are dropped before the next request is sent.
+ * a request the writer dropped without sending completes with timeout at once, there is nothing to drain
+ *
+ * one-shot commands (user questions, AT commands) are sent first, in order of submission. a Mode 01
+ * request equal to one still queued is not sent twice, both callbacks get the same reply.
+ * otherwise PID subscriptions are polled earliest-deadline-first, combining up to maxPids due
+ * subscriptions into one Mode 01 request (OBDBatch) to get the most samples per round-trip
+ *
+ * threading: requests are written from an own scheduler thread. received bytes are fed from one
+ * thread (the UI thread). replies are delivered on that feeding thread without a copy: onFrame,
+ * onReading and onComplete(false) after the prompt. completions without a reply, i.e. onComplete(true)
+ * after a timeout or expiry and onComplete(false) with onWriteError after a write error, are posted to
+ * the callbackExecutor. the app passes the UI thread for both
+ */
+final class PollScheduler implements ELMFramer.Listener {
+
+    static final long RESPONSE_TIMEOUT_MS = 5000;
+    static final long DRAIN_TIMEOUT_MS = 1000;     // wait for the stale prompt after a timeout
+
+    private static final byte[] INTERRUPT = {' '};  // aborts a running command, ignored by an idle adapter
+
+    interface Writer {
+        /**
+         * @param expired to be called from any thread if the command is dropped without being sent, e.g. by
+         *                CommandQueue after its deadline. null if not needed, writers without a queue ignore it
+         */
+        void write(byte[] data, int off, int len, Runnable expired) throws IOException;
+    }
+
+    interface Listener {
+        void onReading(OBDReading reading);     // polled value on the feeding thread, reading is reused after return
+        void onWriteError(Exception e);         // on the callbackExecutor
+    }
+
+    interface Callback {
+        /** on the feeding thread, buf is only valid during the call */
+        void onFrame(ELMFramer.Type type, byte[] buf, int off, int len);
+
+        /** on the feeding thread after the prompt, on the callbackExecutor after a timeout or write error */
+        void onComplete(boolean timeout);
+    }
+
+    static final class Subscription {
+        final int pid;
+        final long periodMs;
+        long due;           // guarded by scheduler
+        long samples;       // guarded by scheduler
+        boolean active = true;
+
+        Subscription(int pid, long periodMs) {
+            this.pid = pid;
+            this.periodMs = periodMs;
+        }
+    }
+
+    private static final class Command {
+        final byte[] data;
+        final long timeoutMs;
+        Callback callback;  // guarded by scheduler while queued
+
+        Command(byte[] data, long timeoutMs, Callback callback) {
+            this.data = data;
+            this.timeoutMs = timeoutMs;
+            this.callback = callback;
+        }
+    }
+
+    private final Writer writer;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService executor;
+    private final ELMFramer framer;
+    private final Runnable pump = this::pump;
+    private final Runnable timeout = this::onTimeout;
+    private final Runnable drained = this::onDrained;
+    private final ArrayDeque<Command> commands = new ArrayDeque<>();
+    private final ArrayList<Subscription> subscriptions = new ArrayList<>();
+    private Subscription[] order = new Subscription[8];
+    private final Subscription[] batchSubscriptions = new Subscription[OBDBatch.MAX_PIDS];
+    private final OBDBatch batch = new OBDBatch();
+    private Listener listener;
+    private SupportedPids supportedPids;
+    private int maxPids = 1;
+
+    // request in flight, guarded by this
+    private boolean busy;
+    private boolean draining;    // timed out, waiting for the stale prompt
+    private boolean stopped;
+    private Command current;     // null if a poll batch is in flight
+    private ScheduledFuture<?> timeoutFuture;
+    private ScheduledFuture<?> drainFuture;
+    private ScheduledFuture<?> wakeupFuture;
+
+    // statistics, guarded by this
+    private final long startNanos = System.nanoTime();
+    private long requests;
+    private long timeouts;
+    private long samples;
+    private long coalesced;
+
+    /**
+     * @param callbackExecutor runs the completions which are not caused by received bytes
+     */
+    PollScheduler(Writer writer, Executor callbackExecutor) {
+        this.writer = writer;
+        this.callbackExecutor = callbackExecutor;
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.framer = new ELMFramer(this);
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * PIDs known to be unsupported are not polled
+     */
+    synchronized void setSupportedPids(SupportedPids supportedPids) {
+        this.supportedPids = supportedPids;
+    }
+
+    /**
+     * number of PIDs per poll request, up to 6 for CAN protocols, 1 otherwise
+     */
+    synchronized void setMaxPids(int maxPids) {
+        this.maxPids = Math.max(1, Math.min(OBDBatch.MAX_PIDS, maxPids));
+    }
+
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            commands.clear();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param command without CR, e.g. "ATE0" or "010C"
+     */
+    void submit(String command, Callback callback) {
+        submit(command, RESPONSE_TIMEOUT_MS, callback);
+    }
+
+    /**
+     * @param timeoutMs longer than default for slow commands, e.g. the first request during protocol search
+     */
+    void submit(String command, long timeoutMs, Callback callback) {
+        byte[] data = (command + "\r").getBytes();
+        synchronized (this) {
+            if (stopped)
+                return;
+            Command queued = command.startsWith("01") ? find(data) : null;
+            if (queued != null) {
+                queued.callback = both(queued.callback, callback);
+                coalesced++;
+                return;
+            }
+            commands.add(new Command(data, timeoutMs, callback));
+        }
+        wakeup();
+    }
+
+    private Command find(byte[] data) {
+        for (Command command : commands)
+            if (Arrays.equals(command.data, data))
+                return command;
+        return null;
+    }
+
+    private static Callback both(Callback first, Callback second) {
+        return new Callback() {
+            @Override
+            public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+                first.onFrame(type, buf, off, len);
+                second.onFrame(type, buf, off, len);
+            }
+
+            @Override
+            public void onComplete(boolean timeout) {
+                first.onComplete(timeout);
+                second.onComplete(timeout);
+            }
+        };
+    }
+
+    Subscription subscribe(int pid, long periodMs) {
+        Subscription subscription = new Subscription(pid, periodMs);
+        synchronized (this) {
+            subscription.due = now();
+            subscriptions.add(subscription);
+        }
+        wakeup();
+        return subscription;
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        subscription.active = false;
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * bytes received from the adapter, called from a single thread
+     */
+    void feed(ByteBuffer data) {
+        framer.feed(data);
+    }
+
+    /*
+     * statistics
+     */
+    synchronized long requests() {
+        return requests;
+    }
+
+    synchronized long timeouts() {
+        return timeouts;
+    }
+
+    synchronized long samples() {
+        return samples;
+    }
+
+    synchronized float samplesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? samples * 1e9f / elapsed : 0;
+    }
+
+    /** @return one-shot commands merged into an equal queued one */
+    synchronized long coalesced() {
+        return coalesced;
+    }
+
+    synchronized int queuedCommands() {
+        return commands.size();
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private void wakeup() {
+        try {
+            executor.execute(pump);
+        } catch (Exception ignored) { // stopped
+        }
+    }
+
+    /**
+     * runs in scheduler thread
+     */
+    private void pump() {
+        byte[] data;
+        int len;
+        long request;
+        synchronized (this) {
+            if (busy || stopped)
+                return;
+            long now = now();
+            long timeoutMs = RESPONSE_TIMEOUT_MS;
+            Command command = commands.poll();
+            if (command != null) {
+                data = command.data;
+                len = data.length;
+                timeoutMs = command.timeoutMs;
+                current = command;
+            } else {
+                len = buildBatch(now);
+                if (len == 0) {
+                    scheduleWakeup(now);
+                    return;
+                }
+                data = batch.command();
+                current = null;
+            }
+            busy = true;
+            request = ++requests;
+            timeoutFuture = executor.schedule(timeout, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        framer.setEcho(data, 0, len);
+        try {
+            writer.write(data, 0, len, () -> onExpired(request));
+        } catch (Exception e) {
+            Command command;
+            synchronized (this) {
+                busy = false;
+                command = current;
+                current = null;
+                if (timeoutFuture != null)
+                    timeoutFuture.cancel(false);
+            }
+            Listener listener = this.listener;
+            callbackExecutor.execute(() -> {
+                if (command != null)
+                    command.callback.onComplete(false);
+                if (listener != null)
+                    listener.onWriteError(e);
+            });
+        }
+    }
+
+    /**
+     * combine due subscriptions, earliest deadline first. subscriptions which are at least half way to
+     * their deadline are added to fill up the request, a sample within the same round-trip costs little
+     *
+     * @return length of the encoded request, 0 if nothing is due
+     */
+    private int buildBatch(long now) {
+        int n = 0;
+        for (Subscription s : subscriptions) {
+            if (supportedPids != null && !supportedPids.isSupported(s.pid))
+                continue;
+            if (s.due - s.periodMs / 2 > now)
+                continue;
+            if (n == order.length) {
+                Subscription[] grown = new Subscription[2 * n];
+                System.arraycopy(order, 0, grown, 0, n);
+                order = grown;
+            }
+            // insertion sort by deadline, subscription lists are short
+            int i = n++;
+            while (i > 0 && order[i - 1].due > s.due) {
+                order[i] = order[i - 1];
+                i--;
+            }
+            order[i] = s;
+        }
+        batch.clear();
+        batch.setMaxPids(maxPids);
+        int count = 0;
+        if (n > 0 && order[0].due <= now) {
+            for (int i = 0; i < n && !batch.isFull(); i++) {
+                if (batch.add(order[i].pid))
+                    batchSubscriptions[count++] = order[i];
+            }
+        }
+        for (int i = 0; i < n; i++)
+            order[i] = null;
+        if (count == 0)
+            return 0;
+        for (int i = 0; i < count; i++)
+            batchSubscriptions[i].due = now + batchSubscriptions[i].periodMs;
+        return batch.encode();
+    }
+
+    private void scheduleWakeup(long now) {
+        long due = Long.MAX_VALUE;
+        for (Subscription s : subscriptions)
+            if (supportedPids == null || supportedPids.isSupported(s.pid))
+                due = Math.min(due, s.due);
+        if (wakeupFuture != null)
+            wakeupFuture.cancel(false);
+        wakeupFuture = due == Long.MAX_VALUE ? null
+                : executor.schedule(pump, Math.max(1, due - now), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * runs in scheduler thread
+     */
+    private void onTimeout() {
+        Command command;
+        synchronized (this) {
+            if (!busy || draining)
+                return;
+            draining = true;    // still busy until the stale prompt
+            timeouts++;
+            command = current;
+            current = null;
+            drainFuture = executor.schedule(drained, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        if (command != null)
+            callbackExecutor.execute(() -> command.callback.onComplete(true));
+        try {
+            writer.write(INTERRUPT, 0, INTERRUPT.length, null);
+        } catch (Exception ignored) { // reported with the next request
+        }
+    }
+
+    /**
+     * writer thread, the request was dropped unsent, counted as timeout
+     *
+     * @param request number of the dropped request, it may have timed out already
+     */
+    private void onExpired(long request) {
+        Command command;
+        synchronized (this) {
+            if (!busy || draining || requests != request)
+                return;
+            busy = false;
+            timeouts++;
+            command = current;
+            current = null;
+            if (timeoutFuture != null)
+                timeoutFuture.cancel(false);
+        }
+        if (command != null)
+            callbackExecutor.execute(() -> command.callback.onComplete(true));
+        wakeup();
+    }
+
+    /**
+     * runs in scheduler thread, no stale prompt within DRAIN_TIMEOUT_MS, e.g. the adapter lost the request
+     */
+    private void onDrained() {
+        synchronized (this) {
+            if (!draining)
+                return;
+            draining = false;
+            busy = false;
+        }
+        pump();
+    }
+
+    /*
+     * ELMFramer.Listener, called from the thread feeding data
+     */
+    @Override
+    public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+        Command command;
+        synchronized (this) {
+            if (!busy || draining)
+                return; // late reply after timeout
+            command = current;
+        }
+        if (command != null) {
+            command.callback.onFrame(type, buf, off, len);
+        } else if (type == ELMFramer.Type.DATA) {
+            int count = batch.decode(buf, off, len);
+            synchronized (this) {
+                samples += count;
+                for (int i = 0; i < count; i++)
+                    for (int j = 0; j < batch.size(); j++)
+                        if (batchSubscriptions[j] != null && batchSubscriptions[j].pid == batch.reading(i).pid)
+                            batchSubscriptions[j].samples++;
+            }
+            Listener listener = this.listener;
+            if (listener != null)
+                for (int i = 0; i < count; i++)
+                    listener.onReading(batch.reading(i));
+        }
+    }
+
+    @Override
+    public void onPrompt() {
+        Command command;
+        synchronized (this) {
+            if (!busy)
+                return;
+            busy = false;
+            draining = false;   // the stale prompt
+            command = current;
+            current = null;
+            if (timeoutFuture != null)
+                timeoutFuture.cancel(false);
+            if (drainFuture != null)
+                drainFuture.cancel(false);
+        }
+        if (command != null)
+            command.callback.onComplete(false);
+        wakeup();
+    }
+}
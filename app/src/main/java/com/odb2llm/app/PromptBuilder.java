@@ -0,0 +1,102 @@
+package com.odb2llm.app;
+
+/**
+ * Gemma chat prompt of a fixed persona prefix and a per request user turn
+ *
+ * the prefix is the same for every request with the same persona, so an inference session can evaluate
+ * it once and be cloned per request. the prefix is never shortened, the user turn is shortened to fit the
+ * token budget
+ */
+final class PromptBuilder {
+
+    interface TokenCounter {
+        int count(String text);
+    }
+
+    /** about 4 characters per token, when the tokenizer is not available */
+    static final TokenCounter ESTIMATE = text -> (text.length() + 3) / 4;
+
+    static final class Prompt {
+        final String persona;   // plain text, for chat APIs with their own templates
+        final String user;
+        final String prefix;
+        final String suffix;
+        final int prefixTokens;
+        final int suffixTokens;
+
+        private Prompt(String persona, String user, String prefix, String suffix, int prefixTokens, int suffixTokens) {
+            this.persona = persona;
+            this.user = user;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.prefixTokens = prefixTokens;
+            this.suffixTokens = suffixTokens;
+        }
+
+        @Override
+        public String toString() {
+            return prefix + suffix;
+        }
+    }
+
+    private static final String TURN_START = "<start_of_turn>";
+    private static final String TURN_END = "<end_of_turn>\n";
+
+    private final int budget;
+    private final TokenCounter counter;
+    private String persona = "";
+    private final StringBuilder user = new StringBuilder();
+
+    /**
+     * @param budget tokens available for prefix and suffix, without the response
+     */
+    PromptBuilder(int budget, TokenCounter counter) {
+        this.budget = budget;
+        this.counter = counter;
+    }
+
+    /**
+     * instructions shared by all requests, becomes the reusable prefix
+     */
+    PromptBuilder persona(String persona) {
+        this.persona = persona;
+        return this;
+    }
+
+    /**
+     * text of the user turn, parts are separated by a space
+     */
+    PromptBuilder user(String text) {
+        if (user.length() > 0)
+            user.append(' ');
+        user.append(text.trim());
+        return this;
+    }
+
+    /**
+     * the persona is acknowledged by the model turn, so requests continue with a new user turn
+     *
+     * @throws IllegalArgumentException if the prefix alone exceeds the budget
+     */
+    Prompt build() {
+        String prefix = persona.isEmpty() ? "" : TURN_START + "user\n" + persona + TURN_END
+                + TURN_START + "model\nUnderstood." + TURN_END;
+        int prefixTokens = prefix.isEmpty() ? 0 : counter.count(prefix);
+        String text = user.toString();
+        String suffix = suffix(text);
+        int suffixTokens = counter.count(suffix);
+        while (prefixTokens + suffixTokens > budget) {
+            int cut = text.lastIndexOf(' ');
+            if (cut <= 0)
+                throw new IllegalArgumentException("prompt exceeds " + budget + " tokens");
+            text = text.substring(0, cut);  // drop words from the end, later readings of a batch first
+            suffix = suffix(text);
+            suffixTokens = counter.count(suffix);
+        }
+        return new Prompt(persona, text, prefix, suffix, prefixTokens, suffixTokens);
+    }
+
+    private static String suffix(String text) {
+        return TURN_START + "user\n" + text + TURN_END + TURN_START + "model\n";
+    }
+}
@@ -0,0 +1,182 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * asynchronous processing of a user question
+ *
+ * intent match -> OBD request -> ELM reply -> decode -> optional LLM comment
+ *
+ * the embedder runs on its own worker thread, the LLM on the InferenceScheduler, the OBD stages on the
+ * main thread where the PollScheduler callbacks are delivered, results are posted to the main thread.
+ * a new question cancels the previous one, its pending stages are skipped and late results are dropped.
+ * the time of each stage is recorded per request
+ */
+final class QueryPipeline {
+
+    enum Stage { INTENT, OBD, DECODE, LLM }
+
+    interface Task<T> {
+        T run() throws Exception;
+    }
+
+    interface Callback<T> {
+        /**
+         * main thread, not called if the request was cancelled
+         *
+         * @param result null if the task failed
+         */
+        void onResult(T result);
+    }
+
+    final class Request {
+        final String question;
+        private final long startNanos = System.nanoTime();
+        private final long[] stageStart = new long[Stage.values().length];
+        private final long[] stageNanos = new long[Stage.values().length];
+        private volatile boolean cancelled;
+        private volatile Future<?> pending;
+        private volatile InferenceScheduler.Handle inference;
+        private boolean finished;
+
+        private Request(String question) {
+            this.question = question;
+            for (int i = 0; i < stageNanos.length; i++)
+                stageNanos[i] = -1;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void begin(Stage stage) {
+            stageStart[stage.ordinal()] = System.nanoTime();
+        }
+
+        void end(Stage stage) {
+            int i = stage.ordinal();
+            if (stageStart[i] != 0 && stageNanos[i] < 0)
+                stageNanos[i] = System.nanoTime() - stageStart[i];
+        }
+
+        /**
+         * @return duration of the stage, -1 if it did not run (yet)
+         */
+        long elapsedMs(Stage stage) {
+            long nanos = stageNanos[stage.ordinal()];
+            return nanos >= 0 ? nanos / 1000000 : -1;
+        }
+
+        /**
+         * run the INTENT stage and deliver the result on the main thread
+         */
+        <T> void run(Stage stage, Task<T> task, Callback<T> callback) {
+            pending = intentExecutor.submit(() -> {
+                if (cancelled)
+                    return;
+                begin(stage);
+                T result = null;
+                try {
+                    result = task.run();
+                } catch (Exception e) {
+                    Log.e(OBDUtils.TAG, stage + " failed", e);
+                }
+                end(stage);
+                T r = result;
+                mainExecutor.execute(() -> {
+                    if (!cancelled)
+                        callback.onResult(r);
+                });
+            });
+        }
+
+        /**
+         * run the LLM stage on the InferenceScheduler and deliver the result on the main thread
+         *
+         * @param coalesceKey replaces a queued job with the same key, e.g. a comment on the same PIDs
+         */
+        void generate(InferenceScheduler.Priority priority, String coalesceKey, Task<String> task, Callback<String> callback) {
+            if (cancelled)
+                return;
+            inference = InferenceScheduler.get().submit(priority, coalesceKey, QueryPipeline.this, () -> {
+                if (cancelled)
+                    return null;
+                begin(Stage.LLM);
+                try {
+                    return task.run();
+                } finally {
+                    end(Stage.LLM);
+                }
+            }, result -> mainExecutor.execute(() -> {
+                if (!cancelled)
+                    callback.onResult(result);
+            }));
+        }
+
+        /**
+         * last stage done, log the timing of the request
+         */
+        void finish() {
+            if (finished)
+                return;
+            finished = true;
+            StringBuilder sb = new StringBuilder("query ");
+            sb.append((System.nanoTime() - startNanos) / 1000000).append(" ms");
+            for (Stage stage : Stage.values())
+                if (elapsedMs(stage) >= 0)
+                    sb.append(", ").append(stage.name().toLowerCase()).append(' ').append(elapsedMs(stage)).append(" ms");
+            Log.d(OBDUtils.TAG, sb.toString());
+        }
+
+        private void cancel() {
+            cancelled = true;
+            Future<?> f = pending;
+            if (f != null)
+                f.cancel(false); // a running embedding can't be interrupted, its result is dropped
+            InferenceScheduler.Handle h = inference;
+            if (h != null)
+                h.cancel();
+        }
+    }
+
+    private final ExecutorService intentExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "intent"));
+    private final Executor mainExecutor;
+    private Request current;
+
+    QueryPipeline(Executor mainExecutor) {
+        this.mainExecutor = mainExecutor;
+    }
+
+    /**
+     * main thread, cancels the previous request
+     */
+    Request start(String question) {
+        cancel();
+        current = new Request(question);
+        return current;
+    }
+
+    /**
+     * main thread
+     */
+    void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+
+    /**
+     * cancel the current request and all LLM jobs queued by this pipeline
+     */
+    void shutdown() {
+        cancel();
+        InferenceScheduler.get().cancelAll(this);
+        intentExecutor.shutdownNow();
+    }
+}
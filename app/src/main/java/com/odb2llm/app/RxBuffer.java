@@ -0,0 +1,90 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * reusable receive buffer, filled by the socket thread and handed read-only to consumers
+ * the owner has to release() it after consuming, so it returns to the RxBufferPool
+ */
+final class RxBuffer {
+
+    private final RxBufferPool pool;
+    private final boolean pooled;
+    private final byte[] array;
+    private final ByteBuffer view;
+    private int length;
+    boolean released;   // guarded by pool
+
+    RxBuffer(RxBufferPool pool, int size, boolean pooled) {
+        this.pool = pool;
+        this.pooled = pooled;
+        this.array = new byte[size];
+        this.view = ByteBuffer.wrap(array).asReadOnlyBuffer();
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * single read from the stream into this buffer
+     *
+     * @return number of bytes read
+     */
+    int readFrom(InputStream in) throws IOException {
+        int len = in.read(array);
+        if (len < 0)
+            throw new IOException("end of stream");
+        length = len;
+        return len;
+    }
+
+    /**
+     * fill from a byte range, for sources which are not an InputStream
+     *
+     * @return number of bytes taken, limited by the buffer capacity
+     */
+    int put(byte[] src, int off, int len) {
+        length = Math.min(len, array.length);
+        System.arraycopy(src, off, array, 0, length);
+        return length;
+    }
+
+    /**
+     * fill from a ByteBuffer, for NIO sources
+     *
+     * @return number of bytes taken, limited by the buffer capacity
+     */
+    int put(ByteBuffer src) {
+        length = Math.min(src.remaining(), array.length);
+        src.get(array, 0, length);
+        return length;
+    }
+
+    int capacity() {
+        return array.length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte get(int i) {
+        return array[i];
+    }
+
+    /**
+     * read-only view of the received bytes, position 0, limit length
+     * the view object is reused, it is only valid until release()
+     */
+    ByteBuffer data() {
+        view.limit(length).position(0);
+        return view;
+    }
+
+    void release() {
+        pool.release(this);
+    }
+}
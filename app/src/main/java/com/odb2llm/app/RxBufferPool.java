@@ -0,0 +1,91 @@
+package com.odb2llm.app;
+
+/**
+ * fixed set of receive buffers shared by the socket thread (acquire) and the consumers (release)
+ * if all buffers are in use, e.g. while the UI is detached and data is queued, temporary buffers are
+ * allocated and counted as overflow
+ */
+final class RxBufferPool {
+
+    static final int DEFAULT_BUFFERS = 32;
+    static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final RxBuffer[] free;
+    private final int bufferSize;
+    private int freeCount;
+    private int inUse;
+    private int maxInUse;
+    private long acquired;
+    private long overflows;
+
+    RxBufferPool() {
+        this(DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE);
+    }
+
+    RxBufferPool(int buffers, int bufferSize) {
+        this.bufferSize = bufferSize;
+        free = new RxBuffer[buffers];
+        for (int i = 0; i < buffers; i++)
+            free[i] = new RxBuffer(this, bufferSize, true);
+        freeCount = buffers;
+    }
+
+    synchronized RxBuffer acquire() {
+        acquired++;
+        inUse++;
+        if (inUse > maxInUse)
+            maxInUse = inUse;
+        RxBuffer buffer;
+        if (freeCount > 0) {
+            buffer = free[--freeCount];
+            free[freeCount] = null;
+        } else {
+            overflows++;
+            buffer = new RxBuffer(this, bufferSize, false);
+        }
+        buffer.released = false;
+        return buffer;
+    }
+
+    synchronized void release(RxBuffer buffer) {
+        if (buffer.released)
+            return;
+        buffer.released = true;
+        inUse--;
+        if (buffer.isPooled())
+            free[freeCount++] = buffer;
+    }
+
+    /*
+     * statistics
+     */
+    int capacity() {
+        return free.length;
+    }
+
+    synchronized int available() {
+        return freeCount;
+    }
+
+    synchronized int inUse() {
+        return inUse;
+    }
+
+    synchronized int maxInUse() {
+        return maxInUse;
+    }
+
+    synchronized long acquired() {
+        return acquired;
+    }
+
+    synchronized long overflows() {
+        return overflows;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rx buffers: " + inUse + "/" + free.length + " in use, max " + maxInUse
+                + ", acquired " + acquired + ", overflows " + overflows;
+    }
+}
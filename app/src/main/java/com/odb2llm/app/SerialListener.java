@@ -2,10 +2,14 @@ package com.odb2llm.app;
 
 import java.util.ArrayDeque;
 
+/**
+ * RxBuffers are pooled: onSerialRead(data) passes ownership, the listener has to release() the buffer
+ * onSerialRead(datas) lends the buffers for the duration of the call, the service releases them afterwards
+ */
 interface SerialListener {
     void onSerialConnect      ();
     void onSerialConnectError (Exception e);
-    void onSerialRead         (byte[] data);                // socket -> service
-    void onSerialRead         (ArrayDeque<byte[]> datas);   // service -> UI thread
+    void onSerialRead         (RxBuffer data);                // socket -> service
+    void onSerialRead         (ArrayDeque<RxBuffer> datas);   // service -> UI thread
     void onSerialIoError      (Exception e);
 }
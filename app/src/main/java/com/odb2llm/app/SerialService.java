@@ -16,12 +16,13 @@ import android.os.Looper;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
 
 /**
  * create notification and queue serial data while activity is not in the foreground
- * use listener chain: SerialSocket -> SerialService -> UI fragment
+ * use listener chain: SerialTransport (SerialSocket, TcpSerialSocket, ..) -> SerialService -> UI fragment
  */
 public class SerialService extends Service implements SerialListener {
 
@@ -33,25 +34,29 @@ public class SerialService extends Service implements SerialListener {
 
     private static class QueueItem {
         QueueType type;
-        ArrayDeque<byte[]> datas;
+        ArrayDeque<RxBuffer> datas;
         Exception e;
 
         QueueItem(QueueType type) { this.type=type; if(type==QueueType.Read) init(); }
         QueueItem(QueueType type, Exception e) { this.type=type; this.e=e; }
-        QueueItem(QueueType type, ArrayDeque<byte[]> datas) { this.type=type; this.datas=datas; }
+        QueueItem(QueueType type, ArrayDeque<RxBuffer> datas) { this.type=type; this.datas=datas; }
 
         void init() { datas = new ArrayDeque<>(); }
-        void add(byte[] data) { datas.add(data); }
+        void add(RxBuffer data) { datas.add(data); }
     }
 
     private final Handler mainLooper;
     private final IBinder binder;
     private final ArrayDeque<QueueItem> queue1, queue2;
     private final QueueItem lastRead;
+    private final Runnable deliverRead = this::deliverRead;
+    private ArrayDeque<RxBuffer> spareDatas; // main thread only, recycled lastRead.datas
 
-    private SerialSocket socket;
+    private SerialTransport socket;
     private SerialListener listener;
     private boolean connected;
+    private volatile TripRecorder recorder; // raw traffic and decoded samples of the current connection
+    private volatile CommandQueue commands; // outbound, written by its own thread
 
     /**
      * Lifecylce
@@ -80,25 +85,78 @@ public class SerialService extends Service implements SerialListener {
     /**
      * Api
      */
-    public void connect(SerialSocket socket) throws IOException {
+    public void connect(SerialTransport socket) throws IOException {
+        recorder = new TripRecorder(new File(getFilesDir(), "trips"));
         socket.connect(this);
         this.socket = socket;
+        commands = new CommandQueue((data, off, len) -> {
+            socket.write(data, off, len);
+            TripRecorder recorder = this.recorder;
+            if(recorder != null)
+                recorder.tx(data, off, len, System.currentTimeMillis());
+        }, this::onSerialIoError);
         connected = true;
     }
 
     public void disconnect() {
         connected = false; // ignore data,errors while disconnecting
         cancelNotification();
+        CommandQueue commands = this.commands;
+        this.commands = null;
+        if(commands != null)
+            commands.close(); // before the socket, closing it ends a blocked write
         if(socket != null) {
             socket.disconnect();
             socket = null;
         }
+        TripRecorder recorder = this.recorder;
+        this.recorder = null;
+        if(recorder != null)
+            recorder.close();
     }
 
     public void write(byte[] data) throws IOException {
-        if(!connected)
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int off, int len) throws IOException {
+        write(data, off, len, CommandQueue.DEFAULT_DEADLINE_MS, null);
+    }
+
+    /**
+     * queue the command and return, write errors are reported to onSerialIoError
+     *
+     * @param deadlineMs dropped if not written within this time
+     * @param expired called from the writer thread if dropped, may be null
+     */
+    public void write(byte[] data, int off, int len, long deadlineMs, Runnable expired) throws IOException {
+        CommandQueue commands = this.commands;
+        if(!connected || commands == null || !commands.offer(data, off, len, deadlineMs, expired))
             throw new IOException("not connected");
-        socket.write(data);
+    }
+
+    /**
+     * receive buffer usage of the current connection, null if not connected
+     */
+    @Nullable
+    RxBufferPool getRxBufferPool() {
+        return socket != null ? socket.getRxBufferPool() : null;
+    }
+
+    /**
+     * outbound queue of the current connection for write latency and queue depth, null if not connected
+     */
+    @Nullable
+    CommandQueue getCommandQueue() {
+        return commands;
+    }
+
+    /**
+     * recorder of the current connection, null if not connected
+     */
+    @Nullable
+    TripRecorder getRecorder() {
+        return recorder;
     }
 
     public void attach(SerialListener listener) {
@@ -115,7 +173,7 @@ public class SerialService extends Service implements SerialListener {
             switch(item.type) {
                 case Connect:       listener.onSerialConnect      (); break;
                 case ConnectError:  listener.onSerialConnectError (item.e); break;
-                case Read:          listener.onSerialRead         (item.datas); break;
+                case Read:          listener.onSerialRead         (item.datas); release(item.datas); break;
                 case IoError:       listener.onSerialIoError      (item.e); break;
             }
         }
@@ -123,7 +181,7 @@ public class SerialService extends Service implements SerialListener {
             switch(item.type) {
                 case Connect:       listener.onSerialConnect      (); break;
                 case ConnectError:  listener.onSerialConnectError (item.e); break;
-                case Read:          listener.onSerialRead         (item.datas); break;
+                case Read:          listener.onSerialRead         (item.datas); release(item.datas); break;
                 case IoError:       listener.onSerialIoError      (item.e); break;
             }
         }
@@ -219,10 +277,13 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
-    public void onSerialRead(ArrayDeque<byte[]> datas) { throw new UnsupportedOperationException(); }
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) { throw new UnsupportedOperationException(); }
 
-    public void onSerialRead(byte[] data) {
+    public void onSerialRead(RxBuffer data) {
         if(connected) {
+            TripRecorder recorder = this.recorder;
+            if(recorder != null)
+                recorder.rx(data, System.currentTimeMillis());
             synchronized (this) {
                 if (listener != null) {
                     boolean first;
@@ -230,29 +291,44 @@ public class SerialService extends Service implements SerialListener {
                         first = lastRead.datas.isEmpty(); // (1)
                         lastRead.add(data); // (3)
                     }
-                    if(first) {
-                        mainLooper.post(() -> {
-                            ArrayDeque<byte[]> datas;
-                            synchronized (lastRead) {
-                                datas = lastRead.datas;
-                                lastRead.init(); // (2)
-                            }
-                            if (listener != null) {
-                                listener.onSerialRead(datas);
-                            } else {
-                                queue1.add(new QueueItem(QueueType.Read, datas));
-                            }
-                        });
-                    }
+                    if(first)
+                        mainLooper.post(deliverRead);
                 } else {
                     if(queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
                         queue2.add(new QueueItem(QueueType.Read));
                     queue2.getLast().add(data);
                 }
             }
+        } else {
+            data.release();
         }
     }
 
+    /**
+     * runs in main thread. the deque is swapped with a recycled one, buffers are released after delivery
+     */
+    private void deliverRead() {
+        ArrayDeque<RxBuffer> datas;
+        synchronized (lastRead) {
+            datas = lastRead.datas;
+            lastRead.datas = spareDatas != null ? spareDatas : new ArrayDeque<>(); // (2)
+            spareDatas = null;
+        }
+        if (listener != null) {
+            listener.onSerialRead(datas);
+            release(datas);
+            spareDatas = datas;
+        } else {
+            queue1.add(new QueueItem(QueueType.Read, datas));
+        }
+    }
+
+    private static void release(ArrayDeque<RxBuffer> datas) {
+        RxBuffer data;
+        while ((data = datas.poll()) != null)
+            data.release();
+    }
+
     public void onSerialIoError(Exception e) {
         if(connected) {
             synchronized (this) {
@@ -11,12 +11,11 @@ import android.content.IntentFilter;
 import androidx.core.content.ContextCompat;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
-import java.util.Arrays;
 import java.util.UUID;
-import java.util.concurrent.Executors;
 
-class SerialSocket implements Runnable {
+class SerialSocket implements SerialTransport, Runnable {
 
     private static final UUID BLUETOOTH_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
@@ -25,8 +24,9 @@ class SerialSocket implements Runnable {
     private final Context context;
     private SerialListener listener;
     private final BluetoothDevice device;
-    private BluetoothSocket socket;
-    private boolean connected;
+    private final RxBufferPool rxBufferPool = new RxBufferPool();
+    private volatile BluetoothSocket socket;
+    private volatile boolean connected; // read by the writer thread
 
     SerialSocket(Context context, BluetoothDevice device) {
         if(context instanceof Activity)
@@ -43,20 +43,28 @@ class SerialSocket implements Runnable {
         };
     }
 
-    String getName() {
+    @Override
+    public String getName() {
         return device.getName() != null ? device.getName() : device.getAddress();
     }
 
+    @Override
+    public RxBufferPool getRxBufferPool() {
+        return rxBufferPool;
+    }
+
     /**
      * connect-success and most connect-errors are returned asynchronously to listener
      */
-    void connect(SerialListener listener) throws IOException {
+    @Override
+    public void connect(SerialListener listener) throws IOException {
         this.listener = listener;
         ContextCompat.registerReceiver(context, disconnectBroadcastReceiver, new IntentFilter(Constants.INTENT_ACTION_DISCONNECT), ContextCompat.RECEIVER_NOT_EXPORTED);
-        Executors.newSingleThreadExecutor().submit(this);
+        new Thread(this, "bt-serial").start(); // ends with the run loop, unlike a pool thread per connection
     }
 
-    void disconnect() {
+    @Override
+    public void disconnect() {
         listener = null; // ignore remaining data and errors
         // connected = false; // run loop will reset connected
         if(socket != null) {
@@ -72,10 +80,16 @@ class SerialSocket implements Runnable {
         }
     }
 
-    void write(byte[] data) throws IOException {
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
         if (!connected)
             throw new IOException("not connected");
-        socket.getOutputStream().write(data);
+        socket.getOutputStream().write(data, off, len);
     }
 
     @Override
@@ -97,14 +111,21 @@ class SerialSocket implements Runnable {
         }
         connected = true;
         try {
-            byte[] buffer = new byte[1024];
-            int len;
+            InputStream inputStream = socket.getInputStream();
             //noinspection InfiniteLoopStatement
             while (true) {
-                len = socket.getInputStream().read(buffer);
-                byte[] data = Arrays.copyOf(buffer, len);
+                RxBuffer buffer = rxBufferPool.acquire();
+                try {
+                    buffer.readFrom(inputStream);
+                } catch (IOException e) {
+                    buffer.release();
+                    throw e;
+                }
+                SerialListener listener = this.listener;
                 if(listener != null)
-                    listener.onSerialRead(data);
+                    listener.onSerialRead(buffer); // listener releases buffer
+                else
+                    buffer.release();
             }
         } catch (Exception e) {
             connected = false;
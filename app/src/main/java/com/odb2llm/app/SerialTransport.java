@@ -0,0 +1,30 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+
+/**
+ * connection to an ELM327 adapter, driven by SerialService
+ *
+ * connect-success, received data and errors are returned asynchronously to the SerialListener,
+ * from a thread of the transport. received buffers are taken from getRxBufferPool()
+ */
+interface SerialTransport {
+
+    String getName();
+
+    RxBufferPool getRxBufferPool();
+
+    /**
+     * connect-success and most connect-errors are returned asynchronously to listener
+     */
+    void connect(SerialListener listener) throws IOException;
+
+    /**
+     * close the connection, remaining data and errors are no longer passed to the listener
+     */
+    void disconnect();
+
+    void write(byte[] data) throws IOException;
+
+    void write(byte[] data, int off, int len) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.odb2llm.app
+
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * one sentence embedder per process, loaded and warmed up in the background at app start
+ * instead of on every question. queries wait on [ready], which is usually already complete
+ */
+object SharedEmbedder {
+
+    @JvmStatic
+    val ready = CompletableFuture<MediaPipeEmbeddings>()
+
+    private val started = AtomicBoolean()
+
+    /** time to create the embedder from the model asset, -1 until loaded */
+    @Volatile
+    var loadTimeMs = -1L
+        private set
+
+    /** time of the warm-up inference, -1 until done */
+    @Volatile
+    var firstInferenceMs = -1L
+        private set
+
+    /** time to load or compute the catalog embeddings, -1 until done */
+    @Volatile
+    var catalogTimeMs = -1L
+        private set
+
+    @JvmStatic
+    fun start(context: Context) {
+        if (!started.compareAndSet(false, true))
+            return
+        val appContext = context.applicationContext
+        val thread = Thread({
+            try {
+                var start = System.nanoTime()
+                val embeddings = MediaPipeEmbeddings()
+                embeddings.setUpMLModel(appContext)
+                loadTimeMs = (System.nanoTime() - start) / 1000000
+                start = System.nanoTime()
+                embeddings.warmUp()
+                firstInferenceMs = (System.nanoTime() - start) / 1000000
+                // embeddings of the catalog sentences are cached, only the question is embedded per query
+                start = System.nanoTime()
+                try {
+                    embeddings.loadCatalog(appContext, TextEmbeddingsViewModel.CATALOG.map { it.sentence })
+                    catalogTimeMs = (System.nanoTime() - start) / 1000000
+                } catch (e: Exception) {
+                    Log.e(OBDUtils.TAG, "catalog embeddings not available", e)
+                }
+                Log.d(OBDUtils.TAG, "embedder ready, load $loadTimeMs ms, first inference $firstInferenceMs ms, catalog $catalogTimeMs ms")
+                ready.complete(embeddings)
+            } catch (e: Exception) {
+                Log.e(OBDUtils.TAG, "embedder not available", e)
+                ready.completeExceptionally(e)
+            }
+        }, "embedder")
+        thread.priority = Thread.NORM_PRIORITY - 1  // do not compete with the UI during startup
+        thread.start()
+    }
+}
@@ -0,0 +1,56 @@
+package com.odb2llm.app;
+
+/**
+ * cosine similarity ranking of sentence embeddings, independent of the embedding model
+ */
+final class SimilarityRanker {
+
+    private SimilarityRanker() {
+    }
+
+    static double cosine(float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA <= 0 || normB <= 0)
+            return 0;
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * candidates more similar than min, most similar first
+     *
+     * @param indexes out: candidate indexes
+     * @param scores  out: similarity of indexes[i]
+     * @return number of matches
+     */
+    static int rank(float[] query, float[][] candidates, double min, int[] indexes, double[] scores) {
+        int count = 0;
+        for (int c = 0; c < candidates.length; c++) {
+            double similarity = cosine(query, candidates[c]);
+            if (similarity > min)
+                count = insert(count, c, similarity, indexes, scores);
+        }
+        return count;
+    }
+
+    /**
+     * insert into the matches sorted by descending similarity
+     *
+     * @return new number of matches
+     */
+    static int insert(int count, int index, double similarity, int[] indexes, double[] scores) {
+        int i = count;
+        while (i > 0 && scores[i - 1] < similarity) {
+            scores[i] = scores[i - 1];
+            indexes[i] = indexes[i - 1];
+            i--;
+        }
+        scores[i] = similarity;
+        indexes[i] = index;
+        return count + 1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.odb2llm.app;
+
+/**
+ * Mode 01 PIDs supported by the vehicle, discovered with 0100, 0120, 0140, ..
+ * each reply is a 32 bit map of the following PIDs, the last bit tells if the next range is supported
+ * replies of multiple ECUs are combined, a range is queried if any ECU has the bit set
+ */
+final class SupportedPids {
+
+    private static final int RANGES = 8; // 0x00 .. 0xE0
+
+    private final int[] bitmaps = new int[RANGES];
+    private int answered;   // bit per range that has been answered
+    private boolean failed; // a range query was not answered
+
+    SupportedPids() {
+        reset();
+    }
+
+    void reset() {
+        for (int i = 0; i < RANGES; i++)
+            bitmaps[i] = 0;
+        answered = 0;
+        failed = false;
+    }
+
+    /**
+     * @return next range PID to request (0x00, 0x20, ..), or -1 if discovery is complete
+     */
+    int nextQuery() {
+        if (failed)
+            return -1;
+        for (int range = 0; range < RANGES; range++) {
+            if ((answered & (1 << range)) == 0)
+                return range << 5;
+            int following = (range + 1) << 5;   // from the combined bitmap, any ECU may continue
+            if (!OBDPid.isSupportedPidsRange(following) || !isSupportedBit(following))
+                return -1;
+        }
+        return -1;
+    }
+
+    boolean isComplete() {
+        return nextQuery() < 0;
+    }
+
+    /**
+     * take over a decoded supported-PIDs reply
+     *
+     * @return false if the reading is not a supported-PIDs reply
+     */
+    boolean merge(OBDReading reading) {
+        if (!reading.isValid() || reading.mode != 0x41 || !OBDPid.isSupportedPidsRange(reading.pid))
+            return false;
+        int range = reading.pid >> 5;
+        bitmaps[range] |= (int) reading.raw;
+        answered |= 1 << range;
+        return true;
+    }
+
+    /**
+     * the ECU did not answer the pending range query (NO DATA), stop discovery
+     */
+    void failed() {
+        failed = true;
+    }
+
+    /**
+     * @return false only if the PID is known to be unsupported, i.e. requesting it would end in NO DATA
+     * while discovery is still running or if the ECU did not answer 0100, unknown PIDs are treated as supported
+     */
+    boolean isSupported(int pid) {
+        if (pid == 0x00)
+            return true;
+        if (pid < 0 || pid > 0xFF)
+            return false;
+        int range = (pid - 1) >> 5;
+        if ((answered & (1 << range)) != 0)
+            return isSupportedBit(pid);
+        return !isComplete() || answered == 0;
+    }
+
+    private boolean isSupportedBit(int pid) {
+        int range = (pid - 1) >> 5;
+        int bit = (pid - 1) & 0x1F;
+        return (bitmaps[range] & (0x80000000 >>> bit)) != 0;
+    }
+
+    int count() {
+        int n = 0;
+        for (int i = 0; i < RANGES; i++)
+            n += Integer.bitCount(bitmaps[i] & ~1); // range bits are not PIDs with data
+        return n;
+    }
+}
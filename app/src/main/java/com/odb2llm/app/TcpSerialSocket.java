@@ -0,0 +1,218 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Wi-Fi ELM327 adapter, usually at 192.168.0.10:35000, over a non-blocking SocketChannel
+ *
+ * TCP_NODELAY, commands are a few bytes and must not wait for Nagle's algorithm. the read thread waits in
+ * a selector with the connect timeout, then with the read timeout while a command is unanswered. reads go
+ * into a direct buffer and are copied into pooled RxBuffers like SerialSocket
+ */
+final class TcpSerialSocket implements SerialTransport, Runnable {
+
+    static final String DEFAULT_ADDRESS = "192.168.0.10:35000";
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;  // longer than the adapter's own timeout incl. protocol search
+    private static final int WRITE_TIMEOUT_MS = 2000;
+
+    private final String host;
+    private final int port;
+    private final RxBufferPool rxBufferPool = new RxBufferPool();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(RxBufferPool.DEFAULT_BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(RxBufferPool.DEFAULT_BUFFER_SIZE);   // guarded by itself
+    private volatile SerialListener listener;
+    private volatile SocketChannel channel;
+    private volatile boolean connected;
+    private volatile long lastWrite;    // nanoTime of the last write not answered yet, 0 if none
+    private Selector writeSelector;     // only for a full send buffer
+    private Thread thread;
+
+    /**
+     * @param address host:port
+     */
+    TcpSerialSocket(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0)
+            throw new IllegalArgumentException("expected host:port, got " + address);
+        this.host = address.substring(0, colon);
+        this.port = Integer.parseInt(address.substring(colon + 1));
+    }
+
+    /**
+     * @return true for host:port, false for a Bluetooth MAC address
+     */
+    static boolean isAddress(String address) {
+        int colon = address.indexOf(':');
+        return colon > 0 && colon == address.lastIndexOf(':');
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public RxBufferPool getRxBufferPool() {
+        return rxBufferPool;
+    }
+
+    @Override
+    public void connect(SerialListener listener) throws IOException {
+        this.listener = listener;
+        thread = new Thread(this, "tcp-serial");
+        thread.start();
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null; // ignore remaining data and errors
+        connected = false;
+        SocketChannel c = channel;
+        if (c != null) {
+            try {
+                c.close();  // wakes up the selectors
+            } catch (IOException ignored) {
+            }
+        }
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        SocketChannel c = channel;
+        if (!connected || c == null)
+            throw new IOException("not connected");
+        synchronized (writeBuffer) {
+            while (len > 0) {
+                writeBuffer.clear();
+                int n = Math.min(len, writeBuffer.capacity());
+                writeBuffer.put(data, off, n).flip();
+                off += n;
+                len -= n;
+                while (writeBuffer.hasRemaining()) {
+                    if (c.write(writeBuffer) == 0)
+                        awaitWritable(c);
+                }
+            }
+            if (lastWrite == 0)
+                lastWrite = System.nanoTime();
+        }
+    }
+
+    private void awaitWritable(SocketChannel c) throws IOException {
+        if (writeSelector == null)
+            writeSelector = Selector.open();
+        SelectionKey key = c.register(writeSelector, SelectionKey.OP_WRITE);
+        try {
+            if (writeSelector.select(WRITE_TIMEOUT_MS) == 0)
+                throw new SocketTimeoutException("write timeout");
+            writeSelector.selectedKeys().clear();
+        } finally {
+            key.cancel();
+            writeSelector.selectNow();  // deregister, the channel is also registered with the read selector
+        }
+    }
+
+    @Override
+    public void run() { // connect & read
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            SocketChannel c = SocketChannel.open();
+            channel = c;
+            c.configureBlocking(false);
+            c.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            c.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            SelectionKey key;
+            if (!c.connect(new InetSocketAddress(host, port))) {
+                key = c.register(selector, SelectionKey.OP_CONNECT);
+                if (selector.select(CONNECT_TIMEOUT_MS) == 0)
+                    throw new SocketTimeoutException("connect timeout " + getName());
+                selector.selectedKeys().clear();
+                c.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key = c.register(selector, SelectionKey.OP_READ);
+            }
+            connected = true;
+            SerialListener listener = this.listener;
+            if (listener != null)
+                listener.onSerialConnect();
+        } catch (Exception e) {
+            SerialListener listener = this.listener;
+            if (listener != null)
+                listener.onSerialConnectError(e);
+            close(selector);
+            return;
+        }
+        try {
+            while (true) {
+                if (selector.select(READ_TIMEOUT_MS) == 0) {
+                    if (!channel.isOpen())
+                        throw new IOException("closed");
+                    long since = lastWrite;
+                    if (since != 0 && System.nanoTime() - since >= READ_TIMEOUT_MS * 1000000L)
+                        throw new SocketTimeoutException("no reply from " + getName());
+                    continue;   // idle, nothing requested
+                }
+                selector.selectedKeys().clear();
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                if (n < 0)
+                    throw new IOException("end of stream");
+                if (n == 0)
+                    continue;
+                lastWrite = 0;
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    RxBuffer buffer = rxBufferPool.acquire();
+                    buffer.put(readBuffer);
+                    SerialListener listener = this.listener;
+                    if (listener != null)
+                        listener.onSerialRead(buffer); // listener releases buffer
+                    else
+                        buffer.release();
+                }
+            }
+        } catch (Exception e) {
+            connected = false;
+            SerialListener listener = this.listener;
+            if (listener != null)
+                listener.onSerialIoError(e);
+            close(selector);
+        }
+    }
+
+    private void close(Selector selector) {
+        connected = false;
+        try {
+            if (selector != null)
+                selector.close();
+            SocketChannel c = channel;
+            if (c != null)
+                c.close();
+            synchronized (writeBuffer) {
+                if (writeSelector != null)
+                    writeSelector.close();
+                writeSelector = null;
+            }
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,340 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * long-term history of decoded values on storage, one GorillaCodec block per PID and value field and time window
+ *
+ * samples are collected per BLOCK_MS window. when a sample of a later window arrives, the window is sealed:
+ * a background thread compresses each series into a block and writes one columnar segment file, the index
+ * of all series followed by their blocks. range scans only read the index of the segments overlapping the
+ * range and decompress the blocks of the requested series. the open window is not scanned, recent values
+ * are in TelemetryStore
+ *
+ * segment file &lt;first time&gt;-&lt;last time&gt;.tsg, big-endian:
+ *   int magic, int series
+ *   per series: byte pid, byte field, int count, long first time, long last time, int words
+ *   the blocks as longs, in index order
+ */
+final class TelemetryArchive {
+
+    static final long BLOCK_MS = 10 * 60 * 1000L;
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final int MAGIC = 0x54534731;    // "TSG1"
+    private static final String SUFFIX = ".tsg";
+    private static final int FIELDS = OBDReading.MAX_VALUES;
+    private static final int HEADER = 8;
+    private static final int ENTRY = 26;
+
+    /**
+     * uncompressed samples of one series in a window
+     */
+    private static final class Block {
+        final int pid;
+        final int field;
+        long[] times = new long[64];
+        float[] values = new float[64];
+        int count;
+
+        Block(int pid, int field) {
+            this.pid = pid;
+            this.field = field;
+        }
+
+        void add(long time, float value) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = time;
+            values[count] = value;
+            count++;
+        }
+    }
+
+    /** sealed window on its way to storage, immutable */
+    private static final class Window {
+        final Block[] blocks;
+        final long first;
+        final long last;
+
+        Window(Block[] blocks, long first, long last) {
+            this.blocks = blocks;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final ExecutorService sealer;
+    private final List<Window> sealing = new CopyOnWriteArrayList<>();
+
+    // writer thread only
+    private Block[] open = new Block[256 * FIELDS];
+    private long window = Long.MIN_VALUE;
+    private long first;
+    private long last;
+
+    // sealer thread, read by any
+    private volatile long samples;
+    private volatile long bytes;
+
+    TelemetryArchive(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes oldest segments are deleted above this size
+     */
+    TelemetryArchive(File dir, long maxBytes) {
+        this(dir, maxBytes, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "telemetry-sealer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param sealer single thread, writes the sealed windows in order, shut down by close()
+     */
+    TelemetryArchive(File dir, long maxBytes, ExecutorService sealer) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.sealer = sealer;
+    }
+
+    /**
+     * record the values of a valid Mode 01 reading, writer thread only, timestamps must not decrease
+     */
+    void append(OBDReading reading, long time) {
+        if (!reading.isValid() || reading.mode != 0x41 || reading.pid < 0)
+            return;
+        long w = Math.floorDiv(time, BLOCK_MS);
+        if (w != window) {
+            seal();
+            window = w;
+            first = time;
+        }
+        last = time;
+        for (int field = 0; field < reading.valueCount; field++) {
+            Block block = open[reading.pid * FIELDS + field];
+            if (block == null)
+                block = open[reading.pid * FIELDS + field] = new Block(reading.pid, field);
+            block.add(time, reading.values[field]);
+        }
+    }
+
+    /**
+     * seal the open window and stop the sealer once it is written, writer thread only
+     */
+    void close() {
+        seal();
+        sealer.shutdown();
+    }
+
+    /**
+     * wait for the windows sealed so far to be written, after close()
+     */
+    boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        return sealer.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void seal() {
+        if (window == Long.MIN_VALUE)
+            return;
+        Window w = new Window(open, first, last);
+        open = new Block[256 * FIELDS];
+        window = Long.MIN_VALUE;
+        sealing.add(w);
+        sealer.execute(() -> {
+            try {
+                write(w);
+            } catch (IOException e) {
+                Log.e(OBDUtils.TAG, "telemetry window not archived", e);
+            } finally {
+                sealing.remove(w);
+            }
+        });
+    }
+
+    /** sealer thread */
+    private void write(Window w) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        List<long[]> encoded = new ArrayList<>();
+        for (Block block : w.blocks) {
+            if (block == null || block.count == 0)
+                continue;
+            GorillaCodec.Encoder encoder = new GorillaCodec.Encoder(block.count);
+            for (int i = 0; i < block.count; i++)
+                encoder.add(block.times[i], block.values[i]);
+            blocks.add(block);
+            encoded.add(encoder.toWords());
+        }
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create " + dir);
+        File file = new File(dir, String.format(Locale.US, "%013d-%013d%s", w.first, w.last, SUFFIX));
+        File tmp = new File(file.getPath() + ".tmp");
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                out.writeByte(block.pid);
+                out.writeByte(block.field);
+                out.writeInt(block.count);
+                out.writeLong(block.times[0]);
+                out.writeLong(block.times[block.count - 1]);
+                out.writeInt(encoded.get(i).length);
+                count += block.count;
+            }
+            for (long[] words : encoded)
+                for (long word : words)
+                    out.writeLong(word);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename failed: " + file);
+        samples += count;
+        bytes += file.length();
+
+        File[] segments = segments();
+        long total = 0;
+        for (File segment : segments)
+            total += segment.length();
+        for (int i = 0; i < segments.length - 1 && total > maxBytes; i++) {
+            total -= segments[i].length();
+            segments[i].delete();
+        }
+    }
+
+    /**
+     * copy the archived samples with from <= time < to of a series, oldest first, from any thread
+     *
+     * @return number of samples copied, limited by the output arrays
+     */
+    int range(int pid, int field, long from, long to, long[] timesOut, float[] valuesOut) throws IOException {
+        Window[] pending = sealing.toArray(new Window[0]);  // before listing, a window is either here or a file
+        int n = 0;
+        for (File segment : segments()) {
+            long[] span = span(segment);
+            if (span == null || span[0] >= to || span[1] < from || isPending(pending, span[0]))
+                continue;
+            n += read(segment, pid, field, from, to, timesOut, valuesOut, n);
+            if (n >= timesOut.length)
+                return n;
+        }
+        for (Window w : pending) {
+            if (w.first >= to || w.last < from)
+                continue;
+            Block block = w.blocks[pid * FIELDS + field];
+            for (int i = 0; block != null && i < block.count && n < timesOut.length; i++) {
+                long time = block.times[i];
+                if (time >= from && time < to) {
+                    timesOut[n] = time;
+                    valuesOut[n] = block.values[i];
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static boolean isPending(Window[] pending, long first) {
+        for (Window w : pending)
+            if (w.first == first)
+                return true;
+        return false;
+    }
+
+    /** read the index and decompress the block of the series, if it overlaps the range */
+    private static int read(File segment, int pid, int field, long from, long to, long[] timesOut, float[] valuesOut, int off)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            byte[] header = new byte[HEADER];
+            file.readFully(header);
+            ByteBuffer h = ByteBuffer.wrap(header);
+            if (h.getInt() != MAGIC)
+                return 0;
+            int series = h.getInt();
+            byte[] index = new byte[series * ENTRY];
+            file.readFully(index);
+            ByteBuffer entries = ByteBuffer.wrap(index);
+            long offset = HEADER + index.length;
+            for (int i = 0; i < series; i++) {
+                int p = entries.get() & 0xFF;
+                int f = entries.get() & 0xFF;
+                int count = entries.getInt();
+                long firstTime = entries.getLong();
+                long lastTime = entries.getLong();
+                int words = entries.getInt();
+                if (p == pid && f == field) {
+                    if (firstTime >= to || lastTime < from)
+                        return 0;
+                    byte[] block = new byte[words * 8];
+                    file.seek(offset);
+                    file.readFully(block);
+                    long[] longs = new long[words];
+                    ByteBuffer.wrap(block).asLongBuffer().get(longs);
+                    return GorillaCodec.decode(longs, count, from, to, timesOut, valuesOut, off);
+                }
+                offset += words * 8L;
+            }
+            return 0;
+        }
+    }
+
+    /** @return first and last time from the file name, null if it is not a segment */
+    private static long[] span(File segment) {
+        String name = segment.getName();
+        int dash = name.indexOf('-', 1);
+        try {
+            return new long[]{Long.parseLong(name.substring(0, dash)),
+                    Long.parseLong(name.substring(dash + 1, name.length() - SUFFIX.length()))};
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** @return segment files, oldest first */
+    private File[] segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    /*
+     * statistics of the windows written since start
+     */
+    long samples() {
+        return samples;
+    }
+
+    long bytesWritten() {
+        return bytes;
+    }
+
+    /** @return compressed size compared to a long timestamp and float value per sample */
+    double compressionRatio() {
+        return bytes > 0 ? samples * 12.0 / bytes : 0;
+    }
+}
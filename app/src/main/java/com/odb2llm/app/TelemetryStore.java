@@ -0,0 +1,234 @@
+package com.odb2llm.app;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * in-memory history of decoded values, one fixed capacity ring of primitive timestamps and values
+ * per PID and value field (e.g. O2 sensor voltage and trim are separate series)
+ *
+ * single writer (the thread delivering readings), any number of lock-free readers. the writer fills a
+ * slot and then publishes it by incrementing the volatile count. readers copy slots and afterwards
+ * check the count again, to drop slots which were overwritten while reading. the slot the writer fills
+ * next is still counted as the oldest sample while it is written, so readers never see it and a ring
+ * of capacity n holds n - 1 samples
+ */
+final class TelemetryStore {
+
+    static final long RETENTION_MS = 3 * 60 * 60 * 1000L;    // 3 hours
+    static final int DEFAULT_CAPACITY = 1 << 12;            // ad-hoc values, e.g. from user questions
+    static final int MAX_CAPACITY = 1 << 17;                // 1.5 MB, 3.6 hours at 10 Hz
+
+    static final class Series {
+        final int pid;
+        final int field;
+        private final long[] times;
+        private final float[] values;
+        private final int mask;
+        private volatile long count;    // samples ever appended, slot of sample i is i & mask
+
+        Series(int pid, int field, int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.pid = pid;
+            this.field = field;
+            this.times = new long[size];
+            this.values = new float[size];
+            this.mask = size - 1;
+        }
+
+        /**
+         * writer thread only, timestamps must not decrease
+         */
+        void append(long time, float value) {
+            long c = count;
+            int slot = (int) c & mask;
+            times[slot] = time;
+            values[slot] = value;
+            count = c + 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        /** number of samples available */
+        int size() {
+            return (int) Math.min(count, mask);
+        }
+
+        long count() {
+            return count;
+        }
+
+        /** @return time of the newest sample, 0 if empty */
+        long latestTime() {
+            long c = count;
+            return c > 0 ? times[(int) (c - 1) & mask] : 0;
+        }
+
+        /** @return newest value, NaN if empty */
+        float latest() {
+            long c = count;
+            return c > 0 ? values[(int) (c - 1) & mask] : Float.NaN;
+        }
+
+        /**
+         * copy the samples with from <= time < to, oldest first
+         *
+         * @return number of samples copied, limited by the output arrays
+         */
+        int range(long from, long to, long[] timesOut, float[] valuesOut) {
+            for (int attempt = 0; ; attempt++) {
+                long end = count;
+                long start = first(from, end);
+                int n = 0;
+                for (long i = start; i < end && n < timesOut.length; i++) {
+                    int slot = (int) i & mask;
+                    long time = times[slot];
+                    if (time >= to)
+                        break;
+                    timesOut[n] = time;
+                    valuesOut[n] = values[slot];
+                    n++;
+                }
+                long overwritten = count - mask - start; // leading samples overwritten while copying
+                if (overwritten <= 0)
+                    return n;
+                if (attempt >= 2 || overwritten >= n) {   // writer is too fast, drop the torn samples
+                    int keep = (int) Math.max(0, n - overwritten);
+                    System.arraycopy(timesOut, n - keep, timesOut, 0, keep);
+                    System.arraycopy(valuesOut, n - keep, valuesOut, 0, keep);
+                    return keep;
+                }
+            }
+        }
+
+        /**
+         * min / max / average per bucket of (to - from) / buckets ms, for charts
+         * buckets without samples get count 0 and NaN values
+         */
+        void downsample(long from, long to, int buckets, float[] min, float[] max, float[] avg, int[] counts) {
+            for (int b = 0; b < buckets; b++) {
+                min[b] = Float.POSITIVE_INFINITY;
+                max[b] = Float.NEGATIVE_INFINITY;
+                avg[b] = 0;
+                counts[b] = 0;
+            }
+            long end = count;
+            long start = first(from, end);
+            double width = (double) (to - from) / buckets;
+            for (long i = start; i < end; i++) {
+                int slot = (int) i & mask;
+                long time = times[slot];
+                if (time >= to)
+                    break;
+                float value = values[slot];
+                int b = (int) Math.min(buckets - 1, (time - from) / width);
+                if (value < min[b])
+                    min[b] = value;
+                if (value > max[b])
+                    max[b] = value;
+                avg[b] += value;
+                counts[b]++;
+            }
+            // samples overwritten while reading are not removed from the aggregate, at most a few
+            // samples at the oldest end which is outside the retention anyway
+            for (int b = 0; b < buckets; b++) {
+                if (counts[b] > 0) {
+                    avg[b] /= counts[b];
+                } else {
+                    min[b] = max[b] = avg[b] = Float.NaN;
+                }
+            }
+        }
+
+        /** @return highest value with from <= time < to, NaN if there is none */
+        float max(long from, long to) {
+            float[] min = new float[1], max = new float[1], avg = new float[1];
+            downsample(from, to, 1, min, max, avg, new int[1]);
+            return max[0];
+        }
+
+        /** @return lowest value with from <= time < to, NaN if there is none */
+        float min(long from, long to) {
+            float[] min = new float[1], max = new float[1], avg = new float[1];
+            downsample(from, to, 1, min, max, avg, new int[1]);
+            return min[0];
+        }
+
+        /**
+         * binary search over the retained samples
+         *
+         * @return index of the first sample with time >= from
+         */
+        private long first(long from, long end) {
+            long lo = Math.max(0, end - mask);     // the oldest slot may be being written
+            long hi = end;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (times[(int) mid & mask] < from)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private static final int FIELDS = OBDReading.MAX_VALUES;
+
+    private final AtomicReferenceArray<Series> series = new AtomicReferenceArray<>(256 * FIELDS);
+
+    /**
+     * capacity to keep RETENTION_MS of a PID polled every periodMs
+     */
+    static int capacityFor(long periodMs) {
+        return (int) Math.min(MAX_CAPACITY, RETENTION_MS / Math.max(1, periodMs));
+    }
+
+    /**
+     * create the series of all value fields of a PID, writer thread only
+     */
+    void reserve(int pid, int capacity) {
+        OBDPid def = OBDPid.get(pid);
+        int fields = def != null && def.kind == OBDPid.Kind.VALUE ? def.fields.length : 1;
+        for (int field = 0; field < fields; field++)
+            if (series(pid, field) == null)
+                series.set(pid * FIELDS + field, new Series(pid, field, capacity));
+    }
+
+    /**
+     * @return series of the value field of the PID, null if nothing was recorded
+     */
+    Series series(int pid, int field) {
+        return series.get(pid * FIELDS + field);
+    }
+
+    /**
+     * record the values of a valid Mode 01 reading, writer thread only
+     */
+    void append(OBDReading reading, long time) {
+        if (!reading.isValid() || reading.mode != 0x41 || reading.pid < 0)
+            return;
+        for (int field = 0; field < reading.valueCount; field++) {
+            Series s = series(reading.pid, field);
+            if (s == null) {
+                s = new Series(reading.pid, field, DEFAULT_CAPACITY);
+                series.set(reading.pid * FIELDS + field, s);
+            }
+            s.append(time, reading.values[field]);
+        }
+    }
+
+    /**
+     * @return bytes held by all series
+     */
+    long memoryUsage() {
+        long bytes = 0;
+        for (int i = 0; i < series.length(); i++) {
+            Series s = series.get(i);
+            if (s != null)
+                bytes += (long) s.capacity() * (8 + 4);
+        }
+        return bytes;
+    }
+}
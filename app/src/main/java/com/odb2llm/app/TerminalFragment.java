@@ -1,7 +1,5 @@
 package com.odb2llm.app;
 
-import static com.odb2llm.app.OBDUtils.decodeOBDResponse;
-
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -9,10 +7,10 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 
 import android.os.Bundle;
 import android.os.IBinder;
-import android.text.Editable;
 import android.text.Layout;
 import android.text.Spannable;
 import android.text.SpannableString;
@@ -32,25 +30,22 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.fragment.app.Fragment;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener {
+public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener, PollScheduler.Listener, ELMInit.Listener {
 
     private enum Connected { False, Pending, True }
     private ExecutorService executorService;
+    private QueryPipeline pipeline;
     private String deviceAddress;
     private SerialService service;
 
@@ -59,8 +54,37 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private Connected connected = Connected.False;
     private boolean initialStart = true;
-    private boolean pendingNewline = false;
-    private String newline = TextUtil.newline_crlf;
+    private final SupportedPids supportedPids = new SupportedPids();
+    private final OBDBatch replies = new OBDBatch();
+    private PollScheduler scheduler;
+    private ELMInit init;
+    private long connectTime;
+    private final OBDReading[] latest = new OBDReading[256];    // last polled value per PID
+    private final long[] latestTime = new long[256];
+    private final TelemetryStore telemetry = new TelemetryStore();  // history of all values, written in main thread
+    private TelemetryArchive archive;   // compressed long-term history on storage, written in main thread
+    private BackendSelector backends;
+    private final CommentaryCache commentary = new CommentaryCache(256, 32 * 1024);  // LLM comments on similar readings
+    private FastAnswers answers = new FastAnswers(FastAnswers.Mode.TEMPLATE);
+
+    /** PIDs polled continuously once supported PIDs are known, with period in ms */
+    private static final int[][] POLL = {
+            {0x0C, 100},    // engine speed
+            {0x0D, 200},    // vehicle speed
+            {0x04, 1000},   // engine load
+            {0x05, 5000},   // coolant temperature
+    };
+
+    private static final String COMMENTARY_FILE = "commentary.bin";
+    // persona prefixes are evaluated once, each request clones that session and adds its user turn
+    private static final String QUESTION_PERSONA = "Respond in not more than 10 words only.";
+    private static final String COMMENT_PERSONA = "As an automotive mechanic, provide only a 10-word comment on the reading, nothing else. " +
+            "Do not include 'Sure,' 'Here is,' or any additional text. Respond with exactly 5 words.";
+
+    private static final String MODEL_URL = "https://bit.ly/chatobd";
+    private static final long MODEL_SIZE = -1;        // not published, the size the server first reports is pinned
+    private static final long MODEL_MIN_SIZE = 512L << 20;  // Gemma 2B is 1.3 GB or more, far smaller is an error page
+    private static final String MODEL_SHA256 = null;  // not published
 
     public static final String INTRO_MESSAGE = "How can I help?" +
             "\n\nYou can ask me questions like..." +
@@ -75,6 +99,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         setHasOptionsMenu(true);
         assert getArguments() != null;
         deviceAddress = getArguments().getString("device");
+        pipeline = new QueryPipeline(ContextCompat.getMainExecutor(requireContext()));
     }
 
     @Override
@@ -86,79 +111,41 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     }
 
     private void downloadFile() {
+        File file = OnDeviceBackend.modelFile(requireContext());
         executorService.execute(() -> {
-
-            String destinationPath = requireContext().getFilesDir().getAbsolutePath() + "/llm/model.bin";
-            File file = new File(destinationPath);
-
-            File parentDir = file.getParentFile();
-            if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
-                Log.d(OBDUtils.TAG, "Failed to create directories: " + parentDir.getAbsolutePath());
-                return;
-            }
-
-            if (file.exists()) {
+            ModelDownload download = new ModelDownload(MODEL_URL, file, MODEL_SIZE, MODEL_SHA256);
+            download.setMinSize(MODEL_MIN_SIZE);
+            if (download.isComplete()) {
                 Log.d(OBDUtils.TAG, "File already exists. Skipping download.");
-                status(INTRO_MESSAGE);
+                uiStatus(INTRO_MESSAGE);
                 return;
             }
-
-            status("Downloading model.. Should be done in a few minutes");
-            InputStream inputStream = null;
-            FileOutputStream outputStream = null;
-
-            try {
-                URL url = new URL("https://bit.ly/chatobd");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.connect();
-
-                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    inputStream = connection.getInputStream();
-                    outputStream = new FileOutputStream(file);
-
-                    byte[] buffer = new byte[1024];
-                    int bytesRead;
-
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                    }
-
-                    if (getActivity() != null && isAdded()) {
-                        getActivity().runOnUiThread(() -> status(INTRO_MESSAGE));
-                    }
-
-                } else {
-
-                    //debug
-                    Log.d(OBDUtils.TAG, "Response Code: " + connection.getResponseCode());
-                    InputStream errorStream = connection.getErrorStream();
-                    if (errorStream != null) {
-                        try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
-                            StringBuilder errorResponse = new StringBuilder();
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                errorResponse.append(line);
-                            }
-                            Log.e(OBDUtils.TAG, "Error response: " + errorResponse);
-                        }
-                    }
-                    requireActivity().runOnUiThread(() -> status("Download failed!"));
+            uiStatus("Downloading model.. Should be done in a few minutes");
+            int[] reported = {0};
+            download.setListener((bytes, total, bytesPerSecond) -> {
+                int percent = total > 0 ? (int) (bytes * 100 / total) : 0;
+                Log.d(OBDUtils.TAG, "model download " + bytes + " of " + total + " bytes, " + (long) (bytesPerSecond / 1000) + " kB/s");
+                if (percent / 10 > reported[0] / 10 && percent < 100) {
+                    reported[0] = percent;
+                    uiStatus("Downloading model.. " + percent + "% at " + (long) (bytesPerSecond / 1000000) + " MB/s");
                 }
+            });
+            try {
+                download.run();
+                uiStatus(INTRO_MESSAGE);
             } catch (IOException e) {
                 Log.e(OBDUtils.TAG, "Error during file download", e);
-                requireActivity().runOnUiThread(() -> status("Download failed!"));
-            } finally {
-                try {
-                    if (inputStream != null) inputStream.close();
-                    if (outputStream != null) outputStream.close();
-                } catch (IOException e) {
-                    Log.e(OBDUtils.TAG, "Error closing streams", e);
-                }
+                // a model from older versions stays usable until it was verified or replaced
+                uiStatus(file.isFile() ? INTRO_MESSAGE : "Download failed! It is resumed on the next start");
             }
         });
     }
 
+    private void uiStatus(String str) {
+        if (getActivity() != null && isAdded())
+            getActivity().runOnUiThread(() -> status(str));
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -182,11 +169,41 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public void onAttach(@NonNull Activity activity) {
         super.onAttach(activity);
         executorService = Executors.newSingleThreadExecutor();
+        File commentaryFile = new File(activity.getFilesDir(), COMMENTARY_FILE);
+        executorService.execute(() -> commentary.load(commentaryFile));
+        archive = new TelemetryArchive(new File(activity.getFilesDir(), "telemetry"));
+        // the on-device model, and an OpenAI compatible server if configured, the faster one answers
+        backends = new BackendSelector();
+        backends.add(new OnDeviceBackend(activity));
+        SharedPreferences inference = activity.getSharedPreferences("inference", Context.MODE_PRIVATE);
+        String endpoint = inference.getString("endpoint", "");
+        if (!endpoint.isEmpty())
+            backends.add(new HttpBackend(endpoint, inference.getString("model", "default")));
+        // "template": LLM only for abnormal readings and questions asking for advice, "llm": comment on every reading
+        answers = new FastAnswers("llm".equals(inference.getString("answers", "template"))
+                ? FastAnswers.Mode.LLM : FastAnswers.Mode.TEMPLATE);
         requireActivity().bindService(new Intent(getActivity(), SerialService.class), this, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     public void onDetach() {
+        File commentaryFile = new File(requireContext().getFilesDir(), COMMENTARY_FILE);
+        executorService.execute(() -> {
+            Log.d(OBDUtils.TAG, "commentary cache " + commentary.size() + " entries, " + commentary.hits() + " hits, " + commentary.misses() + " misses");
+            Log.d(OBDUtils.TAG, answers.mode() + " answers, " + answers.avoided() + " LLM calls avoided");
+            try {
+                commentary.save(commentaryFile);
+            } catch (IOException e) {
+                Log.e(OBDUtils.TAG, "commentary cache not saved", e);
+            }
+        });
+        executorService.shutdown();
+        archive.close();    // the open window is written in the background
+        Log.d(OBDUtils.TAG, "telemetry archive " + archive.samples() + " samples in " + archive.bytesWritten()
+                + " bytes, ratio " + archive.compressionRatio());
+        pipeline.shutdown();    // queued LLM work is no longer wanted
+        Log.d(OBDUtils.TAG, "inference queue " + InferenceScheduler.get().queueDepth() + ", wait avg " +
+                InferenceScheduler.get().averageWaitMs() + " ms, max " + InferenceScheduler.get().maxWaitMs() + " ms");
         try { getActivity().unbindService(this); } catch(Exception ignored) {}
         super.onDetach();
     }
@@ -241,13 +258,18 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
      */
     private void connect() {
         try {
-            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
-
            // status("Connecting to OBD2 Module ");
             Log.d(OBDUtils.TAG, "connecting to obd2 Module");
             connected = Connected.Pending;
-            SerialSocket socket = new SerialSocket(requireActivity().getApplicationContext(), device);
+            connectTime = now();
+            SerialTransport socket;
+            if (TcpSerialSocket.isAddress(deviceAddress)) {   // Wi-Fi adapter, host:port
+                socket = new TcpSerialSocket(deviceAddress);
+            } else {
+                BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
+                socket = new SerialSocket(requireActivity().getApplicationContext(), device);
+            }
             service.connect(socket);
         } catch (Exception e) {
             onSerialConnectError(e);
@@ -256,46 +278,50 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private void disconnect() {
         connected = Connected.False;
+        if (scheduler != null) {
+            Log.d(OBDUtils.TAG, "requests " + scheduler.requests() + ", coalesced " + scheduler.coalesced());
+            scheduler.stop();
+            scheduler = null;
+        }
+        CommandQueue commands = service.getCommandQueue();
+        if (commands != null)
+            Log.d(OBDUtils.TAG, commands.toString());
         service.disconnect();
     }
 
-    private void OBD2inference(String prompt) {
-        String updatedPrompt = prompt;
-
-        try {
-            InferenceModel inferenceModel = InferenceModel.Companion.getInstance(getActivity());
-            updatedPrompt = inferenceModel.generateResponse(prompt);  // Get the generated response.
-            Log.d("LLMInference", "Generated response: " + updatedPrompt);
-            if (getActivity() != null) {
-                SpannableStringBuilder spannablePrompt = new SpannableStringBuilder(updatedPrompt + '\n'); // Combine updatedPrompt and newline
-                int promptLength = prompt.length(); // Save prompt length for span application
-
-                // Ensure prompt length doesn't exceed the spannable text length
-                if (promptLength > spannablePrompt.length()) {
-                    Log.e("SpanError", "Prompt length exceeds spannable text length. Adjusting.");
-                    promptLength = spannablePrompt.length();
-                    spannablePrompt.setSpan(
-                            new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)),
-                            0,
-                            promptLength,
-                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
-                    );
-                } else {
-                    spannablePrompt.setSpan(
-                            new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)),
-                            0,
-                            promptLength,
-                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
-                    );
-                }
-
-                // Apply span with validated range
-                spannablePrompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, promptLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                getActivity().runOnUiThread(() -> receiveText.append(spannablePrompt));
-            }
-        } catch (Exception e) {
-            Log.e(OBDUtils.TAG, "Unexpected error occurred: " + e.getMessage(), e);
+    /**
+     * LLM answer on the InferenceScheduler worker, tokens are shown as they are generated
+     *
+     * @param key commentary cache key, null if the answer is not cached
+     */
+    private void OBD2inference(QueryPipeline.Request request, String persona, String text, String key) {
+        String cached = key != null ? commentary.get(key) : null;
+        if (cached != null) {
+            reply(cached);
+            request.finish();
+            return;
         }
+        BackendSelector backends = this.backends;
+        TokenStream stream = new TokenStream(receiveText, getResources().getColor(R.color.colorRecieveText));
+        // answers to questions go before comments. comments are keyed by their PIDs, so a newer one would replace a
+        // queued one; today every comment belongs to a question, and a new question cancels the previous one
+        InferenceScheduler.Priority priority = key != null ? InferenceScheduler.Priority.COMMENTARY : InferenceScheduler.Priority.QUESTION;
+        request.generate(priority, key != null ? CommentaryCache.subject(key) : null, () -> {
+            return backends.generate(persona, text, token -> {
+                if (request.isCancelled())
+                    stream.cancel();
+                else
+                    stream.append(token);
+            });
+        }, response -> {
+            if (response != null) {
+                Log.d("LLMInference", "Generated response: " + response);
+                stream.append("\n");
+                if (key != null && !response.trim().isEmpty())
+                    commentary.put(key, response.trim());
+            }
+            request.finish();
+        });
     }
 
     private void send(String str) {
@@ -305,15 +331,22 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_NORMAL), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         receiveText.append(prompt);  // Append the message to receiveText immediately
 
+        // embedding and LLM run on worker threads, a new question cancels the previous one
         TextEmbeddingsViewModel textEmbeddingsViewModel = new ViewModelProvider(this).get(TextEmbeddingsViewModel.class);
-        textEmbeddingsViewModel.setUpMLModel(requireActivity().getApplicationContext());
+        QueryPipeline.Request request = pipeline.start(str);
+        request.run(QueryPipeline.Stage.INTENT, () -> textEmbeddingsViewModel.calculateSimilarity(str),
+                decodedobd2code -> onIntent(request, decodedobd2code));
+    }
 
-        String decodedobd2code = textEmbeddingsViewModel.calculateSimilarity(str);
+    private void onIntent(QueryPipeline.Request request, String decodedobd2code) {
+        String str = request.question;
+        if (!isAdded())
+            return;
 
         /* give a creative answer */
-        if ("No match found".equals(decodedobd2code) || decodedobd2code == null) {
+        if ("No match found".equals(decodedobd2code) || decodedobd2code == null || decodedobd2code.startsWith("Error")) {
             if (str.trim().split("\\s+").length > 0) {
-                OBD2inference("<start_of_turn>user Respond in not more than 10 words only" + str + "<end_of_turn>model>");
+                OBD2inference(request, QUESTION_PERSONA, str, null);
             }
         } else {    /* send obd2 code across */
             str = decodedobd2code.substring(0, 4); // Take the first character
@@ -321,63 +354,232 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
             if (connected != Connected.True) {
                 Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+                request.finish();
                 return;
             }
-            try {
-                byte[] data;
-                String newline = TextUtil.newline_crlf;
-                data = (str + newline).getBytes();
-                service.write(data);
-            } catch (Exception e) {
-                onSerialIoError(e);
+            // don't wait for the adapter timeout, if the vehicle already told us it has no such PID
+            int pid = Integer.parseInt(str.substring(2, 4), 16);
+            if (str.startsWith("01") && !supportedPids.isSupported(pid)) {
+                OBDPid def = OBDPid.get(pid);
+                status((def != null ? def.name : str) + " is not supported by this vehicle");
+                request.finish();
+                return;
             }
+            // polled values are at most a few poll periods old, no need for another round-trip
+            if (str.startsWith("01") && latest[pid] != null && now() - latestTime[pid] < 1000) {
+                request.begin(QueryPipeline.Stage.DECODE);
+                String comment_on = OBDUtils.describe(latest[pid]);
+                FastAnswers.Answer answer = FastAnswers.answer(latest[pid]);
+                String key = CommentaryCache.appendReading(CommentaryCache.key(COMMENT_PERSONA), latest[pid]).toString();
+                request.end(QueryPipeline.Stage.DECODE);
+                if (!show(request, comment_on, answer, key))
+                    request.finish();
+                return;
+            }
+            request.begin(QueryPipeline.Stage.OBD);
+            scheduler.submit(str, new Query(request));
         }
     }
 
-    private void receive(ArrayDeque<byte[]> datas) {
-        SpannableStringBuilder spn = new SpannableStringBuilder();
-        for (byte[] data : datas) {
-            String msg = new String(data);
-            if (!msg.isEmpty()) {
-                // don't show CR as ^M if directly before LF
-                msg = msg.replace(TextUtil.newline_crlf, TextUtil.newline_lf);
-                // special handling if CR and LF come in separate fragments
-                if (pendingNewline && msg.charAt(0) == '\n') {
-                    if(spn.length() >= 2) {
-                        spn.delete(spn.length() - 2, spn.length());
-                    } else {
-                        Editable edt = receiveText.getEditableText();
-                        if (edt != null && edt.length() >= 2)
-                            edt.delete(edt.length() - 2, edt.length());
-                    }
-                }
-                pendingNewline = msg.charAt(msg.length() - 1) == '\r';
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * request the next supported-PIDs bitmap (0100, 0120, ..) until the vehicle reports no further ranges
+     */
+    private void querySupportedPids() {
+        int pid = supportedPids.nextQuery();
+        if (pid < 0) {
+            startPolling();
+            return;
+        }
+        StringBuilder sb = new StringBuilder("01");
+        OBDReading.appendHex(sb, pid, 2);
+        scheduler.submit(sb.toString(), new Discovery(pid));
+    }
+
+    /**
+     * supported PIDs are known, start polling
+     */
+    private void startPolling() {
+        Log.d(OBDUtils.TAG, "supported PIDs: " + supportedPids.count());
+        scheduler.setSupportedPids(supportedPids);
+        for (int[] poll : POLL) {
+            if (supportedPids.isSupported(poll[0])) {
+                telemetry.reserve(poll[0], TelemetryStore.capacityFor(poll[1]));
+                scheduler.subscribe(poll[0], poll[1]);
+            }
+        }
+    }
+
+    private void receive(ArrayDeque<RxBuffer> datas) {
+        if (scheduler == null)
+            return;
+        for (RxBuffer data : datas)
+            scheduler.feed(data.data());
+    }
+
+    /**
+     * reply to one supported-PIDs range request
+     */
+    private class Discovery implements PollScheduler.Callback {
+        private final int pid;
+
+        Discovery(int pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+            if (type != ELMFramer.Type.DATA)
+                return;
+            int count = replies.decode(buf, off, len);
+            for (int i = 0; i < count; i++)
+                supportedPids.merge(replies.reading(i));
+        }
+
+        @Override
+        public void onComplete(boolean timeout) {
+            if (scheduler == null)
+                return;
+            if (supportedPids.nextQuery() == pid)
+                supportedPids.failed(); // range not answered
+            querySupportedPids();
+        }
+    }
+
+    /**
+     * reply to a user question
+     */
+    private class Query implements PollScheduler.Callback {
+        private final QueryPipeline.Request request;
+        private boolean answered;
+        private boolean commenting;
+
+        Query(QueryPipeline.Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+            if (request.isCancelled())
+                return;
+            switch (type) {
+                case DATA:
+                    answered = true;
+                    request.end(QueryPipeline.Stage.OBD);
+                    commenting |= onData(request, buf, off, len);
+                    break;
+                case NO_DATA:
+                    answered = true;
+                    request.end(QueryPipeline.Stage.OBD);
+                    reply("No data from OBD");
+                    break;
+                case ERROR:
+                    answered = true;
+                    request.end(QueryPipeline.Stage.OBD);
+                    Log.d(OBDUtils.TAG, "adapter error: " + new String(buf, off, len));
+                    reply("OBD adapter error: " + new String(buf, off, len));
+                    break;
+                default: // OK, STATUS and TEXT are replies to AT commands or progress
+                    break;
             }
-            spn.append(TextUtil.toCaretString(msg, !newline.isEmpty()));
         }
-        if(String.valueOf(spn).contains("NO DATA")) {
-            SpannableStringBuilder prompt = new SpannableStringBuilder("No data from OBD\n");
-            prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            getActivity().runOnUiThread(() -> receiveText.append(prompt));
+
+        @Override
+        public void onComplete(boolean timeout) {
+            if (request.isCancelled())
+                return;
+            if (timeout && !answered && isAdded())
+                reply("No response from OBD");
+            if (!commenting)
+                request.finish();   // otherwise when the LLM comment is done
         }
+    }
+
+    /*
+     * PollScheduler.Listener
+     */
+    @Override
+    public void onReading(OBDReading reading) {
+        if (!reading.isValid() || reading.pid < 0)
+            return;
+        if (latest[reading.pid] == null)
+            latest[reading.pid] = new OBDReading();
+        latest[reading.pid].copyFrom(reading);
+        latestTime[reading.pid] = now();
+        record(reading, System.currentTimeMillis());
+    }
+
+    /**
+     * keep the values in the telemetry history and the trip log
+     */
+    private void record(OBDReading reading, long time) {
+        telemetry.append(reading, time);
+        archive.append(reading, time);
+        TripRecorder recorder = service != null ? service.getRecorder() : null;
+        if (recorder != null)
+            recorder.sample(reading, time);
+    }
+
+    @Override
+    public void onWriteError(Exception e) {
+        if (connected != Connected.False)
+            onSerialIoError(e);
+    }
+
+    /**
+     * @return true if an LLM comment was requested
+     */
+    private boolean onData(QueryPipeline.Request request, byte[] buf, int off, int len) {
+        request.begin(QueryPipeline.Stage.DECODE);
+        int count = replies.decode(buf, off, len);
+        if (count == 0)
+            return false;
+        for (int i = 0; i < count; i++)
+            record(replies.reading(i), System.currentTimeMillis());
+
+        // a reply to a multi PID request carries several readings
+        String comment_on = OBDUtils.describe(replies.reading(0));
+        for (int i = 1; i < count; i++)
+            comment_on += " " + OBDUtils.describe(replies.reading(i));
+        StringBuilder key = CommentaryCache.key(COMMENT_PERSONA);
+        for (int i = 0; i < count; i++)
+            CommentaryCache.appendReading(key, replies.reading(i));
+        FastAnswers.Answer answer = FastAnswers.answer(replies, count);
+        request.end(QueryPipeline.Stage.DECODE);
+        Log.d("ODB2llm", "msg from OBD2" + new String(buf, off, len) + "meaning: " + comment_on);
+        return show(request, comment_on, answer, key.toString());
+    }
 
-        String comment_on = decodeOBDResponse(String.valueOf(spn));
+    /**
+     * reply with the template answer, the LLM only comments if the answer mode asks for it
+     *
+     * @param answer null if no template applies, comment_on is shown instead
+     * @return true if an LLM comment was requested
+     */
+    private boolean show(QueryPipeline.Request request, String comment_on, FastAnswers.Answer answer, String key) {
         if (!(comment_on.toLowerCase().contains("invalid") ||
                 comment_on.toLowerCase().contains("no pid") ||
                 comment_on.toLowerCase().contains("no message"))) {
 
-            SpannableStringBuilder prompt = new SpannableStringBuilder(comment_on+"\n");
-            prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            requireActivity().runOnUiThread(() -> receiveText.append(prompt));
+            reply(answer != null ? answer.text : comment_on);
 
-            Log.d("ODB2llm", "msg from OBD2" + spn + "meaning: " + comment_on);
-            if (comment_on.split("\\s+").length > 3 && getActivity() != null) {
-                OBD2inference("<start_of_turn>user As an automotive mechanic, provide only a 10-word comment on" + comment_on + "nothing else. " +
-                        "Do not include 'Sure,' 'Here is,' or any additional text. Respond with exactly 5 words <end_of_turn>");
+            if (comment_on.split("\\s+").length > 3 && getActivity() != null
+                    && answers.needsLlm(answer, request.question)) {
+                OBD2inference(request, COMMENT_PERSONA, comment_on, key);
+                return true;
             }
         }
+        return false;
+    }
+
+    private void reply(String str) {
+        SpannableStringBuilder prompt = new SpannableStringBuilder(str + "\n");
+        prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        requireActivity().runOnUiThread(() -> receiveText.append(prompt));
     }
 
     private void status(String str) {
@@ -390,6 +592,44 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public void onSerialConnect() {
         Log.d(OBDUtils.TAG, "connected to module");
         connected = Connected.True;
+        for (int i = 0; i < latest.length; i++)
+            latest[i] = null;
+        supportedPids.reset();
+        scheduler = new PollScheduler(
+                (data, off, len, expired) -> service.write(data, off, len, CommandQueue.DEFAULT_DEADLINE_MS, expired),
+                ContextCompat.getMainExecutor(requireContext()));
+        scheduler.setListener(this);
+        String protocol = protocols().getString(deviceAddress, "");
+        init = new ELMInit(scheduler, supportedPids, this);
+        init.start(protocol.isEmpty() ? 0 : protocol.charAt(0));
+    }
+
+    /**
+     * protocol detected per adapter, so reconnecting to a known car skips the protocol search
+     */
+    private SharedPreferences protocols() {
+        return requireContext().getSharedPreferences("protocols", Context.MODE_PRIVATE);
+    }
+
+    /*
+     * ELMInit.Listener
+     */
+    @Override
+    public void onInitDone(char protocol) {
+        if (scheduler == null)
+            return;
+        long firstReading = init.timeToFirstReadingMs();
+        Log.d(OBDUtils.TAG, "init done, protocol " + ELMInit.protocolName(protocol)
+                + (init.usedCachedProtocol() ? " (cached)" : " (searched)")
+                + ", first reading after " + firstReading + " ms, " + (now() - connectTime) + " ms after connect");
+        if (protocol != 0) {
+            protocols().edit().putString(deviceAddress, String.valueOf(protocol)).apply();
+            status("OBD ready in " + (now() - connectTime) + " ms, " + ELMInit.protocolName(protocol));
+        } else {
+            status("No response from vehicle, is the ignition on?");
+        }
+        scheduler.setMaxPids(ELMInit.isCan(protocol) ? OBDBatch.MAX_PIDS : 1);
+        querySupportedPids();
     }
 
     @Override
@@ -399,13 +639,13 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     }
 
     @Override
-    public void onSerialRead(byte[] data) {
-        ArrayDeque<byte[]> datas = new ArrayDeque<>();
-        datas.add(data);
-        receive(datas);
+    public void onSerialRead(RxBuffer data) {
+        if (scheduler != null)
+            scheduler.feed(data.data());
+        data.release();
     }
 
-    public void onSerialRead(ArrayDeque<byte[]> datas) {
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
         receive(datas);
     }
 
@@ -1,16 +1,10 @@
 package com.odb2llm.app
 
-import android.content.Context
 import android.util.Log
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
-import androidx.lifecycle.viewModelScope
-import kotlinx.coroutines.CompletableDeferred
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.runBlocking
 
 sealed class State {
     data object Loading : State()
@@ -30,50 +24,42 @@ data class TextEmbeddingsUiState(
 
 class TextEmbeddingsViewModel : ViewModel() {
 
-    private lateinit var mediaPipeEmbeddings: MediaPipeEmbeddings
-
-    private var uiStateTextEmbeddings by mutableStateOf(TextEmbeddingsUiState(state = State.Empty))
-
-    fun setUpMLModel(context: Context) {
-        mediaPipeEmbeddings = MediaPipeEmbeddings()
-        uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
-            state = State.Loading,
-            similaritySentences = emptyList()
+    companion object {
+        // intent catalog, the embeddings of the sentences are cached by MediaPipeEmbeddings.loadCatalog
+        val CATALOG = listOf(
+            SentenceWithCode("0101", "is my engine light on (or) are there any codes present?"),
+            SentenceWithCode("0102", "Read DTC error code (or) Diagnostic Trouble Codes (or) vehicle health (or) check engine light"),
+            SentenceWithCode("0103", "What is the fuel system status?"),
+            SentenceWithCode("0104", "What is the engine load?"),
+            SentenceWithCode("0105", "What is the engine coolant temperature?"),
+            SentenceWithCode("0106", "What is the short term fuel trim for Bank 1 or STFT Bank 1?"),
+            SentenceWithCode("0107", "What is the long term fuel trim for Bank 1 or LTFT Bank 1?"),
+            SentenceWithCode("0108", "What is the short term fuel trim for Bank 2 or STFT Bank 2?"),
+            SentenceWithCode("0109", "What is the long term fuel trim for Bank 2 or LTFT Bank 2?"),
+            SentenceWithCode("010A", "What is the fuel pressure?"),
+            SentenceWithCode("010B", "What is the intake manifold pressure?"),
+            SentenceWithCode("010C", "What is the engine rpm or speed or revolutions?"),
+            SentenceWithCode("010D", "What is the vehicle speed?"),
+            SentenceWithCode("010E", "What is the timing advance?"),
+            SentenceWithCode("010F", "What is the intake air temperature?"),
+            SentenceWithCode("0110", "What is the MAF air flow rate?"),
+            SentenceWithCode("0111", "What is the throttle position or absolute throttle position?"),
+            SentenceWithCode("0112", "What is the commanded secondary air status?"),
+            SentenceWithCode("0113", "How many oxygen sensors are present in the 2 banks?"),
+            SentenceWithCode("0114", "What is the status of Oxygen Sensor 1?"),
+            SentenceWithCode("0115", "What is the status of Oxygen Sensor 2?")
         )
-        viewModelScope.launch {
-            mediaPipeEmbeddings.setUpMLModel(context)
-            uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
-                sentencesWithCodes = listOf(
-                    SentenceWithCode("0101", "is my engine light on (or) are there any codes present?"),
-                    SentenceWithCode("0102", "Read DTC error code (or) Diagnostic Trouble Codes (or) vehicle health (or) check engine light"),
-                    SentenceWithCode("0103", "What is the fuel system status?"),
-                    SentenceWithCode("0104", "What is the engine load?"),
-                    SentenceWithCode("0105", "What is the engine coolant temperature?"),
-                    SentenceWithCode("0106", "What is the short term fuel trim for Bank 1 or STFT Bank 1?"),
-                    SentenceWithCode("0107", "What is the long term fuel trim for Bank 1 or LTFT Bank 1?"),
-                    SentenceWithCode("0108", "What is the short term fuel trim for Bank 2 or STFT Bank 2?"),
-                    SentenceWithCode("0109", "What is the long term fuel trim for Bank 2 or LTFT Bank 2?"),
-                    SentenceWithCode("010A", "What is the fuel pressure?"),
-                    SentenceWithCode("010B", "What is the intake manifold pressure?"),
-                    SentenceWithCode("010C", "What is the engine rpm or speed or revolutions?"),
-                    SentenceWithCode("010D", "What is the vehicle speed?"),
-                    SentenceWithCode("010E", "What is the timing advance?"),
-                    SentenceWithCode("010F", "What is the intake air temperature?"),
-                    SentenceWithCode("0110", "What is the MAF air flow rate?"),
-                    SentenceWithCode("0111", "What is the throttle position or absolute throttle position?"),
-                    SentenceWithCode("0112", "What is the commanded secondary air status?"),
-                    SentenceWithCode("0113", "How many oxygen sensors are present in the 2 banks?"),
-                    SentenceWithCode("0114", "What is the status of Oxygen Sensor 1?"),
-                    SentenceWithCode("0115", "What is the status of Oxygen Sensor 2?")
-                ),
-                state = State.Empty
-            )
-        }
-
     }
 
+    private var uiStateTextEmbeddings by mutableStateOf(
+        TextEmbeddingsUiState(sentencesWithCodes = CATALOG, state = State.Empty)
+    )
+
+    /**
+     * code of the catalog sentence most similar to the question, "No match found" if none is similar
+     * enough. blocks on the embedder, call from a worker thread
+     */
     fun calculateSimilarity(mainSentence: String): String {
-        val deferred = CompletableDeferred<String>()
         val similarityThreshold = 0.95  // Fixed threshold value
 
         uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
@@ -81,51 +67,47 @@ class TextEmbeddingsViewModel : ViewModel() {
             similaritySentences = emptyList()
         )
 
-        viewModelScope.launch(Dispatchers.IO) {
-            try {
-                val sentences = uiStateTextEmbeddings.sentencesWithCodes.map { it.sentence }
-                val similarities = mediaPipeEmbeddings.getSimilarities(mainSentence, sentences)
-
-                // Map similarities and filter by threshold
-                val sentencesWithSimilarity = similarities.mapNotNull { similarity ->
-                    if (similarity.resultSimilarity >= similarityThreshold) {
-                        similarity.copy(
-                            mainSentenceEmbeddings = similarity.mainSentenceEmbeddings,
-                            sentenceEmbeddings = similarity.sentenceEmbeddings,
-                            resultSimilarity = similarity.resultSimilarity
-                        )
-                    } else {
-                        null // Ignore if below the threshold
-                    }
+        try {
+            // loaded and warmed up once at app start, only waits if the question comes earlier
+            val mediaPipeEmbeddings = SharedEmbedder.ready.get()
+            val sentences = uiStateTextEmbeddings.sentencesWithCodes.map { it.sentence }
+            val similarities = mediaPipeEmbeddings.getSimilarities(mainSentence, sentences)
+
+            // Map similarities and filter by threshold
+            val sentencesWithSimilarity = similarities.mapNotNull { similarity ->
+                if (similarity.resultSimilarity >= similarityThreshold) {
+                    similarity.copy(
+                        mainSentenceEmbeddings = similarity.mainSentenceEmbeddings,
+                        sentenceEmbeddings = similarity.sentenceEmbeddings,
+                        resultSimilarity = similarity.resultSimilarity
+                    )
+                } else {
+                    null // Ignore if below the threshold
                 }
+            }
 
-                val mostSimilarSentence = sentencesWithSimilarity.maxByOrNull { it.resultSimilarity }
+            val mostSimilarSentence = sentencesWithSimilarity.maxByOrNull { it.resultSimilarity }
 
-                val codeOfMostSimilarSentence = mostSimilarSentence?.let {
-                    uiStateTextEmbeddings.sentencesWithCodes.find { code -> code.sentence == it.sentence }?.code
-                } ?: "No match found"
+            val codeOfMostSimilarSentence = mostSimilarSentence?.let {
+                uiStateTextEmbeddings.sentencesWithCodes.find { code -> code.sentence == it.sentence }?.code
+            } ?: "No match found"
 
-                Log.d(OBDUtils.TAG, "Most Similar Sentence: ${mostSimilarSentence?.sentence}")
-                Log.d(OBDUtils.TAG, "Code of Most Similar Sentence: $codeOfMostSimilarSentence")
+            Log.d(OBDUtils.TAG, "Most Similar Sentence: ${mostSimilarSentence?.sentence}")
+            Log.d(OBDUtils.TAG, "Code of Most Similar Sentence: $codeOfMostSimilarSentence")
 
-                uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
-                    state = State.Success,
-                    similaritySentences = sentencesWithSimilarity,
-                    errorMessage = codeOfMostSimilarSentence
-                )
+            uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
+                state = State.Success,
+                similaritySentences = sentencesWithSimilarity,
+                errorMessage = codeOfMostSimilarSentence
+            )
 
-                deferred.complete(codeOfMostSimilarSentence)
-            } catch (e: Exception) {
-                uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
-                    state = State.Error,
-                    errorMessage = e.message ?: "Error getting similarities"
-                )
-                deferred.complete("Error: ${e.message}")
-            }
+            return codeOfMostSimilarSentence
+        } catch (e: Exception) {
+            uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
+                state = State.Error,
+                errorMessage = e.message ?: "Error getting similarities"
+            )
+            return "Error: ${e.message}"
         }
-
-        return runBlocking { deferred.await() }
     }
-
-
 }
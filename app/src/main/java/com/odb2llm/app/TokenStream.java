@@ -0,0 +1,74 @@
+package com.odb2llm.app;
+
+import android.text.Layout;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.AlignmentSpan;
+import android.text.style.ForegroundColorSpan;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * appends streamed LLM tokens to the terminal
+ *
+ * tokens arrive on the inference thread, often faster than the display refresh. they are collected and
+ * appended at most once per frame, so the TextView is not re-laid out for every token
+ */
+final class TokenStream implements Choreographer.FrameCallback {
+
+    private final TextView view;
+    private final int color;
+    private final Choreographer choreographer;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean scheduled;
+    private volatile boolean cancelled;
+
+    /**
+     * create in the main thread
+     */
+    TokenStream(TextView view, int color) {
+        this.view = view;
+        this.color = color;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * any thread
+     */
+    void append(String token) {
+        if (cancelled)
+            return;
+        synchronized (pending) {
+            pending.append(token);
+            if (!scheduled) {
+                scheduled = true;
+                choreographer.postFrameCallback(this);
+            }
+        }
+    }
+
+    /**
+     * drop tokens not yet shown and ignore further ones
+     */
+    void cancel() {
+        cancelled = true;
+        choreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        String text;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            scheduled = false;
+        }
+        if (cancelled || text.isEmpty())
+            return;
+        SpannableStringBuilder spn = new SpannableStringBuilder(text);
+        spn.setSpan(new ForegroundColorSpan(color), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        spn.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, spn.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        view.append(spn);
+    }
+}
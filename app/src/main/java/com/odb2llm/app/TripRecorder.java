@@ -0,0 +1,491 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * append-only log of the raw adapter traffic and decoded samples of a trip, in memory-mapped segment files
+ *
+ * record layout, big-endian, padded to 8 bytes:
+ *   0  int   CRC32 of bytes 4 .. 16 + length
+ *   4  byte  type (RX, TX, SAMPLE)
+ *   5  byte  aux, PID of a SAMPLE
+ *   6  short length of the payload
+ *   8  long  time, ms since epoch
+ *  16  payload, raw bytes or the float values of a sample
+ *
+ * producers (the socket read thread, the main thread) only copy the record into a heap staging buffer,
+ * a writer thread moves the batch into the mapped segment and forces it to storage at most every
+ * COMMIT_MS (group commit). a full staging buffer drops records instead of blocking the producer.
+ * records never span segments, unused space is zero, so the first invalid record is the end of a segment.
+ * a segment cut short by a crash or power loss is truncated after its last valid record when reopened
+ */
+final class TripRecorder implements Closeable {
+
+    static final int RX = 1;
+    static final int TX = 2;
+    static final int SAMPLE = 3;
+
+    static final int HEADER = 16;
+    static final int MAX_PAYLOAD = 0xFFFF;
+    static final int SEGMENT_HEADER = 16;
+    static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+    static final int DEFAULT_MAX_SEGMENTS = 16;     // 64 MB, oldest segments are deleted
+
+    private static final int MAGIC = 0x54524950;    // "TRIP"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".trip";
+    private static final long COMMIT_MS = 200;
+    private static final int STAGING = 256 * 1024;
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Thread writer;
+    private final Object lock = new Object();
+    private ByteBuffer staging = ByteBuffer.allocate(STAGING);  // guarded by lock
+    private ByteBuffer batch = ByteBuffer.allocate(STAGING);    // writer thread
+    private boolean closed;
+    private boolean flush;      // a flush() is waiting, write without waiting for the commit interval
+    private boolean stopped;    // writer thread ended
+    private long records;
+    private long dropped;
+    private long written;       // records in the segments
+
+    // writer thread only
+    private final CRC32 crc = new CRC32();
+    private RandomAccessFile file;
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private boolean dirty;
+    private volatile long commits;
+    private volatile long bytes;
+    private volatile long recovered;    // records found in the segment truncated at startup
+    private volatile IOException error;
+
+    TripRecorder(File dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    TripRecorder(File dir, int segmentSize, int maxSegments) {
+        if (segmentSize < SEGMENT_HEADER + align(HEADER + MAX_PAYLOAD))
+            throw new IllegalArgumentException("segment size " + segmentSize);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        writer = new Thread(this::write, "trip-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * received bytes, before they are passed on. socket read thread
+     */
+    void rx(RxBuffer data, long time) {
+        ByteBuffer bytes = data.data();
+        synchronized (lock) {
+            if (begin(RX, 0, bytes.remaining(), time))
+                end(staging.put(bytes));
+        }
+    }
+
+    /**
+     * bytes sent to the adapter
+     */
+    void tx(byte[] data, int off, int len, long time) {
+        synchronized (lock) {
+            if (begin(TX, 0, len, time))
+                end(staging.put(data, off, len));
+        }
+    }
+
+    /**
+     * values of a valid Mode 01 reading
+     */
+    void sample(OBDReading reading, long time) {
+        if (!reading.isValid() || reading.mode != 0x41 || reading.pid < 0)
+            return;
+        synchronized (lock) {
+            if (begin(SAMPLE, reading.pid, reading.valueCount * 4, time)) {
+                for (int i = 0; i < reading.valueCount; i++)
+                    staging.putFloat(reading.values[i]);
+                end(staging);
+            }
+        }
+    }
+
+    /** producer side, with lock held */
+    private boolean begin(int type, int aux, int length, long time) {
+        if (closed || length > MAX_PAYLOAD || staging.remaining() < align(HEADER + length)) {
+            dropped++;
+            return false;
+        }
+        staging.putInt(0).put((byte) type).put((byte) aux).putShort((short) length).putLong(time);
+        return true;
+    }
+
+    /** producer side, with lock held: pad the record and wake the writer early if the batch grows large */
+    private void end(ByteBuffer buffer) {
+        buffer.position(align(buffer.position()));
+        records++;
+        if (buffer.position() > STAGING / 2)
+            lock.notifyAll();
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * write and commit the records appended so far, blocking
+     */
+    void flush() throws InterruptedException {
+        synchronized (lock) {
+            long target = records;
+            flush = true;
+            lock.notifyAll();
+            while (written < target && !stopped)
+                lock.wait();
+        }
+    }
+
+    /**
+     * write the pending records and stop the writer, blocking
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            recover();
+            roll();
+            while (true) {
+                boolean last;
+                synchronized (lock) {
+                    if (!closed && !flush && staging.position() <= STAGING / 2)
+                        lock.wait(COMMIT_MS);
+                    ByteBuffer full = staging;
+                    staging = batch;
+                    batch = full;
+                    last = closed;
+                    flush = false;
+                }
+                batch.flip();
+                int count = append(batch);
+                batch.clear();
+                if (dirty) {
+                    segment.force();    // group commit of everything since the last force
+                    dirty = false;
+                    commits++;
+                }
+                synchronized (lock) {
+                    written += count;
+                    lock.notifyAll();
+                }
+                if (last)
+                    break;
+            }
+        } catch (IOException e) {
+            error = e;
+            Log.e(OBDUtils.TAG, "trip recorder stopped", e);
+            synchronized (lock) {
+                closed = true;  // producers drop from now on
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            closeSegment();
+            synchronized (lock) {
+                stopped = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * copy the records of a batch into the segment, checksums are computed here and not by the producers
+     *
+     * @return number of records
+     */
+    private int append(ByteBuffer batch) throws IOException {
+        byte[] array = batch.array();
+        int pos = 0;
+        int count = 0;
+        while (pos < batch.limit()) {
+            int length = batch.getShort(pos + 6) & 0xFFFF;
+            int size = align(HEADER + length);
+            if (segment.remaining() < size)
+                roll();
+            crc.reset();
+            crc.update(array, pos + 4, HEADER - 4 + length);
+            batch.putInt(pos, (int) crc.getValue());
+            segment.put(array, pos, size);
+            pos += size;
+            bytes += size;
+            dirty = true;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * truncate the newest segment after its last valid record, a torn tail after a crash
+     */
+    private void recover() throws IOException {
+        File[] segments = segments(dir);
+        if (segments.length == 0)
+            return;
+        File last = segments[segments.length - 1];
+        segmentIndex = index(last);
+        try (RandomAccessFile f = new RandomAccessFile(last, "rw")) {
+            MappedByteBuffer map = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, f.length());
+            if (map.limit() < SEGMENT_HEADER || map.getInt(0) != MAGIC)
+                return;
+            int pos = SEGMENT_HEADER;
+            int size;
+            long count = 0;
+            byte[] scratch = new byte[HEADER + MAX_PAYLOAD];
+            while ((size = validRecord(map, pos, crc, scratch)) > 0) {
+                pos += size;
+                count++;
+            }
+            recovered = count;
+            int end = pos;
+            while (end < map.limit() && map.get(end) == 0)
+                end++;
+            if (end < map.limit()) {
+                Log.w(OBDUtils.TAG, "trip segment " + last.getName() + " truncated at " + pos + " after " + count + " records");
+                for (int i = pos; i < map.limit(); i++)
+                    map.put(i, (byte) 0);
+                map.force();
+            }
+        }
+    }
+
+    /** start the next segment file, delete the oldest if there are too many */
+    private void roll() throws IOException {
+        closeSegment();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create " + dir);
+        segmentIndex++;
+        file = new RandomAccessFile(new File(dir, String.format(Locale.US, "%08d%s", segmentIndex, SUFFIX)), "rw");
+        file.setLength(segmentSize);
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        dirty = true;
+        File[] segments = segments(dir);
+        for (int i = 0; i < segments.length - maxSegments; i++)
+            segments[i].delete();
+    }
+
+    private void closeSegment() {
+        if (file == null)
+            return;
+        try {
+            if (dirty)
+                segment.force();
+            file.close();   // the mapping stays valid until it is garbage collected
+        } catch (IOException e) {
+            Log.w(OBDUtils.TAG, "trip segment close failed", e);
+        }
+        file = null;
+        segment = null;
+        dirty = false;
+    }
+
+    /**
+     * @param record receives header and payload of the record
+     * @return size of the valid record at pos, 0 at the end of the segment data
+     */
+    static int validRecord(ByteBuffer buffer, int pos, CRC32 crc, byte[] record) {
+        if (pos + HEADER > buffer.limit())
+            return 0;
+        int type = buffer.get(pos + 4);
+        if (type != RX && type != TX && type != SAMPLE)
+            return 0;
+        int length = buffer.getShort(pos + 6) & 0xFFFF;
+        int size = align(HEADER + length);
+        if (pos + size > buffer.limit())
+            return 0;
+        buffer.position(pos);
+        buffer.get(record, 0, HEADER + length);
+        crc.reset();
+        crc.update(record, 4, HEADER - 4 + length);
+        return (int) crc.getValue() == buffer.getInt(pos) ? size : 0;
+    }
+
+    /**
+     * @return segment files of the directory, oldest first
+     */
+    static File[] segments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    private static int index(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * statistics
+     */
+    long records() {
+        synchronized (lock) {
+            return records;
+        }
+    }
+
+    long dropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    long commits() {
+        return commits;
+    }
+
+    long bytesWritten() {
+        return bytes;
+    }
+
+    long recovered() {
+        return recovered;
+    }
+
+    /** @return error which stopped the writer, null if running */
+    IOException error() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "trip recorder: " + records() + " records, " + dropped() + " dropped, " + bytes + " bytes, " + commits + " commits";
+    }
+
+    /**
+     * sequential reader over all segments of a directory, oldest first
+     */
+    static final class Cursor implements Closeable {
+
+        int type;
+        int aux;
+        long time;
+        final byte[] record = new byte[HEADER + MAX_PAYLOAD];  // payload starts at HEADER
+        int length;
+
+        private final File[] segments;
+        private final CRC32 crc = new CRC32();
+        private int next;
+        private ByteBuffer map;
+        private int pos;
+
+        Cursor(File dir) {
+            segments = segments(dir);
+        }
+
+        /**
+         * @return false after the last record
+         */
+        boolean next() throws IOException {
+            while (true) {
+                if (map != null) {
+                    int size = validRecord(map, pos, crc, record);
+                    if (size > 0) {
+                        type = map.get(pos + 4);
+                        aux = map.get(pos + 5) & 0xFF;
+                        length = map.getShort(pos + 6) & 0xFFFF;
+                        time = map.getLong(pos + 8);
+                        pos += size;
+                        return true;
+                    }
+                    map = null;
+                }
+                if (next >= segments.length)
+                    return false;
+                open(segments[next++]);
+            }
+        }
+
+        /**
+         * position before the first record with time >= the given time, next() returns it
+         */
+        void seek(long time) throws IOException {
+            if (segments.length == 0)
+                return;
+            int i = segments.length - 1;
+            while (i > 0 && firstTime(i) > time)    // segments are in time order
+                i--;
+            next = i;
+            map = null;
+            open(segments[next++]);
+            while (map != null) {
+                int size = validRecord(map, pos, crc, record);
+                if (size == 0 || map.getLong(pos + 8) >= time)
+                    return;
+                pos += size;
+            }
+        }
+
+        private long firstTime(int segment) throws IOException {
+            map = null;
+            open(segments[segment]);
+            return map != null && validRecord(map, SEGMENT_HEADER, crc, record) > 0
+                    ? map.getLong(SEGMENT_HEADER + 8) : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return number of values of a SAMPLE record
+         */
+        int values(float[] out) {
+            int n = Math.min(out.length, length / 4);
+            for (int i = 0, p = HEADER; i < n; i++, p += 4)
+                out[i] = Float.intBitsToFloat((record[p] & 0xFF) << 24 | (record[p + 1] & 0xFF) << 16
+                        | (record[p + 2] & 0xFF) << 8 | (record[p + 3] & 0xFF));
+            return n;
+        }
+
+        private void open(File segment) throws IOException {
+            try (RandomAccessFile f = new RandomAccessFile(segment, "r")) {
+                ByteBuffer m = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+                if (m.limit() >= SEGMENT_HEADER && m.getInt(0) == MAGIC) {
+                    map = m;
+                    pos = SEGMENT_HEADER;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            map = null;
+            next = segments.length;
+        }
+    }
+}
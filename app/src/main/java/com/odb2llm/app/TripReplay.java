@@ -0,0 +1,179 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * recorded trip as a stand-in for SerialSocket, replays the received bytes of a TripRecorder log
+ *
+ * same connect / write / disconnect shape and SerialListener contract as SerialSocket, so field issues can
+ * be reproduced and the framer, decoder and storage load-tested without a vehicle. reads are delivered with
+ * their recorded spacing divided by the speed, or back to back with MAX_SPEED. commands written are
+ * discarded, the recorded replies arrive on their own timeline. the end of the log is reported as an IO error
+ */
+final class TripReplay implements SerialTransport, Runnable {
+
+    static final double REAL_TIME = 1;
+    static final double MAX_SPEED = 0;
+
+    private static final long MAX_GAP_MS = 5000;    // longer pauses, e.g. between trips, are skipped
+
+    private final File dir;
+    private final RxBufferPool rxBufferPool = new RxBufferPool();
+    private volatile SerialListener listener;
+    private volatile double speed = REAL_TIME;
+    private long seekTo = -1;       // guarded by this, -1 if no seek is pending
+    private volatile long position; // recorded time of the last read delivered
+    private volatile long reads;
+    private volatile long bytes;
+    private Thread thread;
+
+    /**
+     * @param dir directory of a TripRecorder
+     */
+    TripReplay(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public String getName() {
+        return "trip replay " + dir.getName();
+    }
+
+    @Override
+    public RxBufferPool getRxBufferPool() {
+        return rxBufferPool;
+    }
+
+    /**
+     * @param speed 1 for real time, 10 for 10 times faster, MAX_SPEED without pauses. also while playing
+     */
+    TripReplay setSpeed(double speed) {
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * continue with the first read at or after the recorded time, also while playing
+     */
+    synchronized void seek(long time) {
+        seekTo = time;
+        notifyAll();
+    }
+
+    /** @return recorded time of the last read delivered, 0 before the first */
+    long position() {
+        return position;
+    }
+
+    long reads() {
+        return reads;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * connect-success and the replayed data are returned asynchronously to listener
+     */
+    @Override
+    public void connect(SerialListener listener) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("no trip recorded in " + dir);
+        this.listener = listener;
+        thread = new Thread(this, "trip-replay");
+        thread.start();
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null; // ignore remaining data and errors
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (listener == null)
+            throw new IOException("not connected");
+    }
+
+    @Override
+    public void run() {
+        SerialListener listener = this.listener;
+        if (listener != null)
+            listener.onSerialConnect();
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            long baseTime = -1;     // recorded time and clock at the start of the current pacing
+            long baseNanos = 0;
+            double baseSpeed = 0;
+            long previous = 0;
+            while (true) {
+                long seek;
+                synchronized (this) {
+                    seek = seekTo;
+                    seekTo = -1;
+                }
+                if (seek >= 0) {
+                    cursor.seek(seek);
+                    baseTime = -1;
+                }
+                if (!cursor.next())
+                    throw new IOException("end of trip");
+                if (cursor.type != TripRecorder.RX)
+                    continue;   // own commands and decoded samples are produced again by the app
+                double s = speed;
+                if (s > 0) {
+                    if (baseTime < 0 || s != baseSpeed || cursor.time - previous > MAX_GAP_MS || cursor.time < previous) {
+                        baseTime = cursor.time;
+                        baseNanos = System.nanoTime();
+                        baseSpeed = s;
+                    }
+                    if (!pause(baseNanos + (long) ((cursor.time - baseTime) * 1e6 / s)))
+                        continue;   // seek while waiting
+                }
+                previous = cursor.time;
+                listener = this.listener;
+                if (listener == null)
+                    return;
+                deliver(listener, cursor.record, TripRecorder.HEADER, cursor.length);
+                position = cursor.time;
+            }
+        } catch (InterruptedException ignored) {
+            // disconnect
+        } catch (Exception e) {
+            listener = this.listener;
+            if (listener != null)
+                listener.onSerialIoError(e);
+        }
+    }
+
+    /**
+     * wait until the clock reaches due
+     *
+     * @return false if a seek interrupted the wait
+     */
+    private synchronized boolean pause(long due) throws InterruptedException {
+        long wait;
+        while (seekTo < 0 && (wait = due - System.nanoTime()) > 0)
+            wait(wait / 1000000, (int) (wait % 1000000));
+        return seekTo < 0;
+    }
+
+    private void deliver(SerialListener listener, byte[] data, int off, int len) {
+        int pos = off;
+        while (pos < off + len) {
+            RxBuffer buffer = rxBufferPool.acquire();
+            pos += buffer.put(data, pos, off + len - pos);
+            reads++;
+            bytes += buffer.length();
+            listener.onSerialRead(buffer); // listener releases buffer
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.text;
+
+/**
+ * JVM stand-in for android.text.Spannable
+ */
+public interface Spannable extends CharSequence {
+
+    int SPAN_EXCLUSIVE_EXCLUSIVE = 0x21;
+
+    void setSpan(Object what, int start, int end, int flags);
+}
@@ -0,0 +1,69 @@
+package android.text;
+
+import java.util.Arrays;
+
+/**
+ * JVM stand-in for android.text.SpannableStringBuilder
+ * keeps text and spans in growable arrays like the original, so allocation is comparable
+ */
+public class SpannableStringBuilder implements Spannable {
+
+    private char[] text = new char[16];
+    private int length;
+    private Object[] spans = new Object[0];
+    private int[] spanData = new int[0];
+    private int spanCount;
+
+    public SpannableStringBuilder() {
+    }
+
+    public SpannableStringBuilder(CharSequence text) {
+        append(text);
+    }
+
+    public SpannableStringBuilder append(char c) {
+        if (length == text.length)
+            text = Arrays.copyOf(text, 2 * length + 2);
+        text[length++] = c;
+        return this;
+    }
+
+    public SpannableStringBuilder append(CharSequence s) {
+        for (int i = 0; i < s.length(); i++)
+            append(s.charAt(i));
+        return this;
+    }
+
+    @Override
+    public void setSpan(Object what, int start, int end, int flags) {
+        if (spanCount == spans.length) {
+            spans = Arrays.copyOf(spans, 2 * spanCount + 1);
+            spanData = Arrays.copyOf(spanData, 3 * spans.length);
+        }
+        spans[spanCount] = what;
+        spanData[3 * spanCount] = start;
+        spanData[3 * spanCount + 1] = end;
+        spanData[3 * spanCount + 2] = flags;
+        spanCount++;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(text, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(text, 0, length);
+    }
+}
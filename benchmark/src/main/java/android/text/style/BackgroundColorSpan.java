@@ -0,0 +1,17 @@
+package android.text.style;
+
+/**
+ * JVM stand-in for android.text.style.BackgroundColorSpan
+ */
+public class BackgroundColorSpan {
+
+    private final int color;
+
+    public BackgroundColorSpan(int color) {
+        this.color = color;
+    }
+
+    public int getBackgroundColor() {
+        return color;
+    }
+}
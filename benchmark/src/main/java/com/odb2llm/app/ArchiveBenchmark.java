@@ -0,0 +1,100 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * scans of an hour of engine speed at 10 Hz, one operation is one sample
+ * decode: the compressed blocks in memory, scan: the archive on storage incl. reading the segment files
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArchiveBenchmark {
+
+    private static final int SAMPLES = 36000;
+    private static final long START = 1700000000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private File dir;
+    private TelemetryArchive archive;
+    private final long[][] blocks = new long[6][];
+    private final int[] counts = new int[6];
+    private final long[] times = new long[SAMPLES];
+    private final float[] values = new float[SAMPLES];
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("telemetry").toFile();
+        archive = new TelemetryArchive(dir);
+        GorillaCodec.Encoder[] encoders = new GorillaCodec.Encoder[blocks.length];
+        Random random = new Random(1);
+        OBDReading reading = new OBDReading();
+        StringBuilder reply = new StringBuilder();
+        int raw = 800 * 4;
+        for (int i = 0; i < SAMPLES; i++) {
+            long time = START + i * 100L + random.nextInt(3);     // polling jitter
+            raw = Math.max(600 * 4, Math.min(6000 * 4, raw + random.nextInt(41) - 20));
+            reply.setLength(0);
+            OBDReading.appendHex(reply.append("41 0C "), raw >> 8, 2);
+            OBDReading.appendHex(reply.append(' '), raw & 0xFF, 2);
+            byte[] bytes = reply.toString().getBytes(StandardCharsets.US_ASCII);
+            OBDDecoder.decode(bytes, 0, bytes.length, reading);
+            archive.append(reading, time);
+            int b = (int) ((time - START) / TelemetryArchive.BLOCK_MS);
+            if (encoders[b] == null)
+                encoders[b] = new GorillaCodec.Encoder(SAMPLES / blocks.length);
+            encoders[b].add(time, reading.values[0]);
+        }
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = encoders[b].toWords();
+            counts[b] = encoders[b].count();
+        }
+        archive.close();
+        archive.awaitClosed(10000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int decode() {
+        int n = 0;
+        for (int b = 0; b < blocks.length; b++)
+            n += GorillaCodec.decode(blocks[b], counts[b], Long.MIN_VALUE, Long.MAX_VALUE, times, values, n);
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int scan() throws IOException {
+        return archive.range(0x0C, 0, START, START + HOUR_MS, times, values);
+    }
+}
@@ -0,0 +1,86 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reply decoding, text API (OBDUtils) vs. reused OBDReading (OBDDecoder, OBDBatch)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"single", "multi", "isotp"})
+    public String reply;
+
+    private String text;
+    private byte[] ascii;
+    private String hex;
+    private final OBDReading reading = new OBDReading();
+    private final OBDBatch batch = new OBDBatch();
+
+    @Setup
+    public void setup() {
+        switch (reply) {
+            case "single":
+                text = "41 0C 1A F8";
+                break;
+            case "multi":
+                text = "41 0C 1A F8 0D 32 05 7B";
+                break;
+            default:
+                text = "00A\r0: 41 0C 1A F8 0D 32\r1: 05 7B 04 40";
+                break;
+        }
+        ascii = text.getBytes(StandardCharsets.US_ASCII);
+        hex = text.replaceAll("[^0-9A-F]", "").substring(reply.equals("isotp") ? 3 : 0);
+        batch.clear();
+        batch.setMaxPids(OBDBatch.MAX_PIDS);
+        batch.add(0x0C);
+        batch.add(0x0D);
+        batch.add(0x05);
+        batch.add(0x04);
+    }
+
+    @Benchmark
+    public String decodeOBDResponseString() {
+        return OBDUtils.decodeOBDResponse(text);
+    }
+
+    @Benchmark
+    public String decodeOBDResponseBytes() {
+        return OBDUtils.decodeOBDResponse(ascii, 0, ascii.length);
+    }
+
+    @Benchmark
+    public byte[] hexStringToByteArray() {
+        return OBDUtils.hexStringToByteArray(hex);
+    }
+
+    @Benchmark
+    public float decodeIntoReading() {
+        OBDDecoder.decode(ascii, 0, ascii.length, reading);
+        return reading.values[0];
+    }
+
+    @Benchmark
+    public int decodeBatch() {
+        return batch.decode(ascii, 0, ascii.length);
+    }
+}
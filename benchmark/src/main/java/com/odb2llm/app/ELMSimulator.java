@@ -0,0 +1,651 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ELM327 adapter and vehicle simulator, a stand-in for SerialSocket without Bluetooth in benchmarks and tests
+ *
+ * same connect / write / disconnect shape and SerialListener contract as SerialSocket, so the decoder,
+ * framer and scheduler can be driven on a plain JVM. supports the common AT commands, Mode 01
+ * (incl. multi PID requests on CAN), Mode 03 and Mode 09, multiple ECUs, ISO-TP multi frame formatting
+ * with the last frame padded like real ECUs do, per command latency and fault injection
+ *
+ * commands are processed one at a time in an own thread, like the adapter, a byte received while a
+ * reply is pending aborts it with STOPPED
+ */
+final class ELMSimulator implements SerialTransport {
+
+    enum Fault {
+        NO_DATA,            // "NO DATA"
+        BUS_INIT_ERROR,     // "BUS INIT: ...ERROR"
+        TRUNCATED,          // last reply line cut short
+        TIMEOUT,            // no reply and no prompt
+    }
+
+    private static final String VERSION = "ELM327 v1.5";
+
+    /**
+     * one control unit, answering with the configured values
+     */
+    final class Ecu {
+        final int address;     // CAN id (0x7E8, ..) or K-line / J1850 source address (0x10, ..)
+        private final byte[][] pids = new byte[256][];
+        private int[] dtcs = new int[0];
+        private String vin;
+
+        private Ecu(int address) {
+            this.address = address;
+        }
+
+        /**
+         * @param data Mode 01 data bytes A, B, .. for the PID, makes the PID supported
+         */
+        Ecu setPid(int pid, int... data) {
+            byte[] bytes = new byte[data.length];
+            for (int i = 0; i < data.length; i++)
+                bytes[i] = (byte) data[i];
+            synchronized (ELMSimulator.this) {
+                pids[pid] = bytes;
+            }
+            return this;
+        }
+
+        Ecu removePid(int pid) {
+            synchronized (ELMSimulator.this) {
+                pids[pid] = null;
+            }
+            return this;
+        }
+
+        /**
+         * @param dtcs 2 byte codes, e.g. 0x0301 for P0301
+         */
+        Ecu setDtcs(int... dtcs) {
+            synchronized (ELMSimulator.this) {
+                this.dtcs = dtcs.clone();
+            }
+            return this;
+        }
+
+        Ecu setVin(String vin) {
+            synchronized (ELMSimulator.this) {
+                this.vin = vin;
+            }
+            return this;
+        }
+
+        private boolean supports(int pid) {
+            if (OBDPid.isSupportedPidsRange(pid))
+                return pid == 0 || (rangeBitmap(pid - 0x20) & 1) != 0;
+            return pids[pid] != null;
+        }
+
+        /** 32 bit map of supported PIDs pid+1 .. pid+0x20, the last bit tells if the next range follows */
+        private long rangeBitmap(int pid) {
+            long bitmap = 0;
+            for (int bit = 0; bit < 32; bit++) {
+                int p = pid + bit + 1;
+                boolean supported = p < 256 && (OBDPid.isSupportedPidsRange(p) ? hasPidsAbove(p) : pids[p] != null);
+                if (supported)
+                    bitmap |= 0x80000000L >>> bit;
+            }
+            return bitmap;
+        }
+
+        private boolean hasPidsAbove(int pid) {
+            for (int p = pid + 1; p < 256; p++)
+                if (pids[p] != null)
+                    return true;
+            return false;
+        }
+    }
+
+    private final ArrayList<Ecu> ecus = new ArrayList<>();
+    private final RxBufferPool rxBufferPool = new RxBufferPool();
+    private final Random random = new Random(1);
+    private final double[] faultRates = new double[Fault.values().length];
+    private ScheduledExecutorService executor;
+    private volatile SerialListener listener;
+
+    // configuration, guarded by this
+    private char vehicleProtocol = '6';
+    private long connectLatencyMs = 0;
+    private long atLatencyMs = 1;
+    private long obdLatencyMs = 30;
+    private long searchLatencyMs = 1500;
+    private int chunkSize;          // 0: whole reply in one read
+    private int padding = 0x00;     // fill byte of the last ISO-TP frame, -1 for none
+
+    // adapter state, only used in executor thread
+    private boolean echo, linefeeds, spaces, headers;
+    private char protocol;          // selected with ATSP, '0' = automatic
+    private boolean searched;       // automatic search done
+    private final StringBuilder command = new StringBuilder();
+    private String lastCommand = "";
+    private final StringBuilder out = new StringBuilder(256);
+    private final byte[] message = new byte[256];
+    private final byte[] chunkBytes = new byte[RxBufferPool.DEFAULT_BUFFER_SIZE];
+    private ScheduledFuture<?> pending;
+    private String pendingReply;
+
+    // statistics
+    private long commands;
+    private long bytesSent;
+
+    ELMSimulator() {
+        reset();
+        addEcu(0x7E8)
+                .setPid(0x01, 0x00, 0x07, 0x65, 0x00)  // monitor status, MIL off
+                .setPid(0x03, 0x02, 0x00)              // closed loop
+                .setPid(0x04, 0x40)                    // engine load 25%
+                .setPid(0x05, 0x7B)                    // coolant 83 °C
+                .setPid(0x06, 0x80)                    // short term fuel trim 0%
+                .setPid(0x07, 0x82)                    // long term fuel trim 1.6%
+                .setPid(0x0B, 0x21)                    // intake manifold pressure 33 kPa
+                .setPid(0x0C, 0x1A, 0xF8)              // engine speed 1726 rpm
+                .setPid(0x0D, 0x32)                    // vehicle speed 50 km/h
+                .setPid(0x0E, 0x8C)                    // timing advance 6°
+                .setPid(0x0F, 0x46)                    // intake air 30 °C
+                .setPid(0x10, 0x01, 0xF4)              // MAF 5 g/s
+                .setPid(0x11, 0x30)                    // throttle 18.8%
+                .setPid(0x1C, 0x06)                    // EOBD
+                .setPid(0x1F, 0x02, 0x58)              // run time 600 s
+                .setPid(0x2F, 0x80)                    // fuel level 50%
+                .setPid(0x33, 0x65)                    // barometric pressure 101 kPa
+                .setPid(0x42, 0x37, 0x6E)              // control module voltage 14.19 V
+                .setPid(0x46, 0x3C)                    // ambient air 20 °C
+                .setPid(0x51, 0x01)                    // gasoline
+                .setVin("1G1JC5444R7252367");
+    }
+
+    /**
+     * add an ECU, e.g. 0x7E9 for the transmission on 11 bit CAN
+     */
+    Ecu addEcu(int address) {
+        Ecu ecu = new Ecu(address);
+        synchronized (this) {
+            ecus.add(ecu);
+        }
+        return ecu;
+    }
+
+    Ecu ecu(int i) {
+        return ecus.get(i);
+    }
+
+    /**
+     * protocol of the simulated vehicle, ATDPN digit '1'..'9'
+     */
+    synchronized ELMSimulator setProtocol(char protocol) {
+        this.vehicleProtocol = protocol;
+        return this;
+    }
+
+    synchronized ELMSimulator setLatency(long atMs, long obdMs) {
+        this.atLatencyMs = atMs;
+        this.obdLatencyMs = obdMs;
+        return this;
+    }
+
+    synchronized ELMSimulator setConnectLatency(long ms) {
+        this.connectLatencyMs = ms;
+        return this;
+    }
+
+    /**
+     * additional delay of the first request with automatic protocol selection
+     */
+    synchronized ELMSimulator setSearchLatency(long ms) {
+        this.searchLatencyMs = ms;
+        return this;
+    }
+
+    /**
+     * split replies into reads of at most chunkSize bytes, like Bluetooth SPP packets
+     */
+    synchronized ELMSimulator setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param padding fill byte of the last consecutive frame, e.g. 0x00, 0x55 or 0xAA, -1 to send only the message
+     */
+    synchronized ELMSimulator setPadding(int padding) {
+        this.padding = padding;
+        return this;
+    }
+
+    /**
+     * @param probability of the fault for each OBD request (not AT commands)
+     */
+    synchronized ELMSimulator setFault(Fault fault, double probability) {
+        faultRates[fault.ordinal()] = probability;
+        return this;
+    }
+
+    synchronized ELMSimulator setSeed(long seed) {
+        random.setSeed(seed);
+        return this;
+    }
+
+    @Override
+    public String getName() {
+        return "ELM327 simulator";
+    }
+
+    @Override
+    public RxBufferPool getRxBufferPool() {
+        return rxBufferPool;
+    }
+
+    synchronized long commands() {
+        return commands;
+    }
+
+    synchronized long bytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * connect-success is returned asynchronously to listener
+     */
+    @Override
+    public void connect(SerialListener listener) throws IOException {
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.schedule(() -> {
+            SerialListener l = this.listener;
+            if (l != null)
+                l.onSerialConnect();
+        }, connectLatencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null; // ignore remaining data and errors
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (listener == null || executor == null || executor.isShutdown())
+            throw new IOException("not connected");
+        byte[] copy = new byte[len];
+        System.arraycopy(data, off, copy, 0, len);
+        executor.execute(() -> receive(copy));
+    }
+
+    /*
+     * adapter, runs in executor thread
+     */
+    private void receive(byte[] data) {
+        for (byte b : data) {
+            if (pending != null) {  // any byte interrupts a running command
+                pending.cancel(false);
+                pending = null;
+                send("STOPPED\r\r>");
+            }
+            if (b == '\r') {
+                String cmd = command.toString().toUpperCase();
+                command.setLength(0);
+                if (echo)
+                    send(cmd + "\r");
+                process(cmd.isEmpty() ? lastCommand : cmd);
+            } else if (b != ' ' && b != '\n' && b != 0) {
+                command.append((char) b);
+            }
+        }
+    }
+
+    private void process(String cmd) {
+        lastCommand = cmd;
+        out.setLength(0);
+        long latency;
+        synchronized (this) {
+            commands++;
+            if (cmd.startsWith("AT")) {
+                latency = atLatencyMs;
+                at(cmd.substring(2));
+            } else {
+                latency = obdLatencyMs;
+                if (protocol == '0' && !searched) {
+                    line("SEARCHING...");
+                    latency += searchLatencyMs;
+                    searched = true;
+                }
+                if (!obd(cmd))
+                    latency = -1;
+            }
+        }
+        if (latency < 0) // TIMEOUT
+            return;
+        out.append('\r').append('>');
+        pendingReply = out.toString();
+        pending = executor.schedule(() -> {
+            pending = null;
+            send(pendingReply);
+        }, latency, TimeUnit.MILLISECONDS);
+    }
+
+    private void reset() {
+        echo = true;
+        linefeeds = false;
+        spaces = true;
+        headers = false;
+        protocol = '0';
+        searched = false;
+    }
+
+    private void at(String cmd) {
+        if (cmd.equals("Z") || cmd.equals("WS") || cmd.equals("D")) {
+            reset();
+            line(cmd.equals("D") ? "OK" : VERSION);
+        } else if (cmd.equals("I")) {
+            line(VERSION);
+        } else if (cmd.equals("@1")) {
+            line("OBDII to RS232 Interpreter");
+        } else if (cmd.equals("RV")) {
+            line("14.1V");
+        } else if (cmd.equals("DPN")) {
+            char p = protocol == '0' ? (searched ? vehicleProtocol : '0') : protocol;
+            line(protocol == '0' ? "A" + p : String.valueOf(p));
+        } else if (cmd.equals("DP")) {
+            char p = protocol == '0' ? (searched ? vehicleProtocol : '0') : protocol;
+            line(protocol == '0' ? "AUTO, " + ELMInit.protocolName(p) : ELMInit.protocolName(p));
+        } else if (cmd.startsWith("SP") && cmd.length() >= 3) {
+            protocol = cmd.charAt(cmd.length() - 1);
+            if (cmd.length() == 4 && cmd.charAt(2) == 'A') // ATSPA6: automatic, try 6 first
+                protocol = '0';
+            searched = false;
+            line("OK");
+        } else if (flag(cmd, "E")) {
+            echo = cmd.endsWith("1");
+            line("OK");
+        } else if (flag(cmd, "L")) {
+            linefeeds = cmd.endsWith("1");
+            line("OK");
+        } else if (flag(cmd, "S")) {
+            spaces = cmd.endsWith("1");
+            line("OK");
+        } else if (flag(cmd, "H")) {
+            headers = cmd.endsWith("1");
+            line("OK");
+        } else if (cmd.equals("AT0") || cmd.equals("AT1") || cmd.equals("AT2") || cmd.startsWith("ST")
+                || cmd.startsWith("CAF") || cmd.equals("M0") || cmd.equals("M1")) {
+            line("OK");
+        } else {
+            line("?");
+        }
+    }
+
+    private static boolean flag(String cmd, String name) {
+        return cmd.length() == name.length() + 1 && cmd.startsWith(name) && (cmd.endsWith("0") || cmd.endsWith("1"));
+    }
+
+    /**
+     * @return false if no reply should be sent at all
+     */
+    private boolean obd(String cmd) {
+        int n = cmd.length() / 2;
+        if (cmd.length() % 2 != 0 || n < 1 || n > 7) {
+            line("?");
+            return true;
+        }
+        int[] request = new int[n];
+        for (int i = 0; i < n; i++) {
+            int hi = OBDDecoder.nibble((byte) cmd.charAt(2 * i));
+            int lo = OBDDecoder.nibble((byte) cmd.charAt(2 * i + 1));
+            if (hi < 0 || lo < 0) {
+                line("?");
+                return true;
+            }
+            request[i] = hi << 4 | lo;
+        }
+        char p = protocol == '0' ? vehicleProtocol : protocol;
+        if (p != vehicleProtocol) {
+            line(ELMInit.isCan(p) ? "CAN ERROR" : "UNABLE TO CONNECT");
+            return true;
+        }
+        Fault fault = fault();
+        if (fault == Fault.TIMEOUT)
+            return false;
+        if (fault == Fault.NO_DATA) {
+            line("NO DATA");
+            return true;
+        }
+        if (fault == Fault.BUS_INIT_ERROR) {
+            line("BUS INIT: ...ERROR");
+            return true;
+        }
+        boolean answered = false;
+        for (Ecu ecu : ecus) {
+            int len = respond(ecu, request, ELMInit.isCan(p));
+            if (len > 0) {
+                message(ecu, len, ELMInit.isCan(p));
+                answered = true;
+            }
+        }
+        if (!answered)
+            line("NO DATA");
+        else if (fault == Fault.TRUNCATED)
+            truncate();
+        return true;
+    }
+
+    private Fault fault() {
+        for (Fault fault : Fault.values())
+            if (faultRates[fault.ordinal()] > 0 && random.nextDouble() < faultRates[fault.ordinal()])
+                return fault;
+        return null;
+    }
+
+    /**
+     * build the reply message of one ECU into message[]
+     *
+     * @return message length, 0 if the ECU does not answer
+     */
+    private int respond(Ecu ecu, int[] request, boolean can) {
+        int mode = request[0];
+        int len = 0;
+        message[len++] = (byte) (mode + 0x40);
+        switch (mode) {
+            case 0x01: {
+                int pids = can ? request.length - 1 : Math.min(1, request.length - 1); // multi PID only on CAN
+                for (int i = 1; i <= pids; i++) {
+                    int pid = request[i];
+                    if (!ecu.supports(pid))
+                        continue;
+                    message[len++] = (byte) pid;
+                    if (OBDPid.isSupportedPidsRange(pid)) {
+                        long bitmap = ecu.rangeBitmap(pid);
+                        for (int shift = 24; shift >= 0; shift -= 8)
+                            message[len++] = (byte) (bitmap >>> shift);
+                    } else {
+                        byte[] data = ecu.pids[pid];
+                        System.arraycopy(data, 0, message, len, data.length);
+                        len += data.length;
+                    }
+                }
+                return len > 1 ? len : 0;
+            }
+            case 0x03: {
+                if (request.length != 1)
+                    return 0;
+                if (can)
+                    message[len++] = (byte) ecu.dtcs.length;
+                for (int dtc : ecu.dtcs) {
+                    message[len++] = (byte) (dtc >> 8);
+                    message[len++] = (byte) dtc;
+                }
+                while (!can && (len == 1 || (len - 1) % 6 != 0)) // 3 codes per message, padded with 0000
+                    message[len++] = 0;
+                return len;
+            }
+            case 0x09: {
+                if (request.length != 2 || ecu.vin == null)
+                    return 0;
+                int pid = request[1];
+                message[len++] = (byte) pid;
+                if (pid == 0x00) {
+                    message[len++] = 0x40;  // 02 (VIN)
+                    message[len++] = 0x00;
+                    message[len++] = 0x00;
+                    message[len++] = 0x00;
+                    return len;
+                }
+                if (pid == 0x02) {
+                    message[len++] = 1;     // number of data items
+                    for (int i = 0; i < ecu.vin.length(); i++)
+                        message[len++] = (byte) ecu.vin.charAt(i);
+                    return len;
+                }
+                return 0;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * format message[0..len) as the adapter shows it
+     */
+    private void message(Ecu ecu, int len, boolean can) {
+        if (!can) {
+            // K-line / J1850: one line per message, no ISO-TP. headers are priority, target, source
+            int start = out.length();
+            if (headers) {
+                hex(0x48); hex(0x6B); hex(ecu.address);
+            }
+            int checksum = 0x48 + 0x6B + ecu.address;
+            for (int i = 0; i < len; i++) {
+                hex(message[i] & 0xFF);
+                checksum += message[i] & 0xFF;
+            }
+            if (headers)
+                hex(checksum & 0xFF);
+            endLine(start);
+            return;
+        }
+        if (len <= 7) { // single frame
+            int start = out.length();
+            if (headers) {
+                header(ecu);
+                hex(len);
+            }
+            for (int i = 0; i < len; i++)
+                hex(message[i] & 0xFF);
+            endLine(start);
+            return;
+        }
+        // ISO-TP first frame + consecutive frames
+        int start = out.length();
+        if (headers) {
+            header(ecu);
+            hex(0x10 | len >> 8);
+            hex(len & 0xFF);
+        } else {
+            out.append(Character.toUpperCase(Character.forDigit(len >> 8 & 0xF, 16)));
+            out.append(Character.toUpperCase(Character.forDigit(len >> 4 & 0xF, 16)));
+            out.append(Character.toUpperCase(Character.forDigit(len & 0xF, 16)));
+            endLine(start);
+            start = out.length();
+            out.append("0:");
+            if (spaces)
+                out.append(' ');
+        }
+        int i = 0;
+        for (; i < 6; i++)
+            hex(message[i] & 0xFF);
+        endLine(start);
+        for (int seq = 1; i < len; seq++) {
+            start = out.length();
+            if (headers) {
+                header(ecu);
+                hex(0x20 | seq & 0xF);
+            } else {
+                out.append(Character.toUpperCase(Character.forDigit(seq & 0xF, 16))).append(':');
+                if (spaces)
+                    out.append(' ');
+            }
+            int j = 0;
+            for (; j < 7 && i < len; j++, i++)
+                hex(message[i] & 0xFF);
+            for (; j < 7 && padding >= 0; j++)
+                hex(padding);
+            endLine(start);
+        }
+    }
+
+    private void header(Ecu ecu) {
+        out.append(Character.toUpperCase(Character.forDigit(ecu.address >> 8 & 0xF, 16)));
+        hex(ecu.address & 0xFF);
+    }
+
+    private void hex(int b) {
+        out.append(Character.toUpperCase(Character.forDigit(b >> 4, 16)));
+        out.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        if (spaces)
+            out.append(' ');
+    }
+
+    private void endLine(int start) {
+        while (out.length() > start && out.charAt(out.length() - 1) == ' ')
+            out.setLength(out.length() - 1);
+        out.append('\r');
+        if (linefeeds)
+            out.append('\n');
+    }
+
+    private void line(String text) {
+        out.append(text);
+        endLine(out.length());
+    }
+
+    /** cut the last line short, keeping the line end */
+    private void truncate() {
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == '\r' || out.charAt(end - 1) == '\n'))
+            end--;
+        int start = end;
+        while (start > 0 && out.charAt(start - 1) != '\r' && out.charAt(start - 1) != '\n')
+            start--;
+        out.delete(start + (end - start) / 2, end);
+    }
+
+    private void send(String text) {
+        SerialListener listener = this.listener;
+        if (listener == null)
+            return;
+        int chunk;
+        synchronized (this) {
+            chunk = chunkSize;
+            bytesSent += text.length();
+        }
+        int pos = 0;
+        while (pos < text.length()) {
+            RxBuffer buffer = rxBufferPool.acquire();
+            int len = text.length() - pos;
+            if (chunk > 0)
+                len = Math.min(len, chunk);
+            len = Math.min(len, Math.min(buffer.capacity(), chunkBytes.length));
+            for (int i = 0; i < len; i++)
+                chunkBytes[i] = (byte) text.charAt(pos + i);
+            buffer.put(chunkBytes, 0, len);
+            pos += len;
+            listener.onSerialRead(buffer); // listener releases buffer
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * framing of a recorded polling session, fed as one block or in Bluetooth SPP sized fragments
+ * one operation is the complete session of 10 replies
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramerBenchmark implements ELMFramer.Listener {
+
+    private static final String SESSION =
+            "0100\r41 00 BE 3F B8 13\r\r>" +
+            "010C\rSEARCHING...\r41 0C 1A F8\r\r>" +
+            "010C0D\r41 0C 1A F8 0D 32\r\r>" +
+            "010C0D05\r00A\r0: 41 0C 1A F8 0D 32\r1: 05 7B 04 40\r\r>" +
+            "0105\r41 05 7B\r41 05 70\r\r>" +
+            "0112\rNO DATA\r\r>" +
+            "03\r43 02 03 01 C1 23\r\r>" +
+            "ATRV\r14.1V\r\r>" +
+            "010C\r41 0C 1B 10\r\r>" +
+            "010D\r41 0D 33\r\r>";
+
+    @Param({"0", "20"})
+    public int chunk;
+
+    private ByteBuffer[] chunks;
+    private final ELMFramer framer = new ELMFramer(this);
+    private final OBDBatch batch = new OBDBatch();
+    private int frames;
+    private int readings;
+
+    @Setup
+    public void setup() {
+        byte[] data = SESSION.getBytes(StandardCharsets.US_ASCII);
+        int size = chunk > 0 ? chunk : data.length;
+        chunks = new ByteBuffer[(data.length + size - 1) / size];
+        for (int i = 0; i < chunks.length; i++) {
+            int off = i * size;
+            chunks[i] = ByteBuffer.wrap(data, off, Math.min(size, data.length - off)).slice().asReadOnlyBuffer();
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        frames = 0;
+        readings = 0;
+        for (ByteBuffer buffer : chunks)
+            framer.feed(buffer);
+        return frames + readings;
+    }
+
+    @Override
+    public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+        frames++;
+        if (type == ELMFramer.Type.DATA)
+            readings += batch.decode(buf, off, len);
+    }
+
+    @Override
+    public void onPrompt() {
+    }
+}
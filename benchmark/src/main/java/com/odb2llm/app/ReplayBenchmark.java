@@ -0,0 +1,134 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * an hour of 20 PIDs polled at 10 Hz, replayed at maximum speed through framing, decoding and the telemetry store
+ * one operation is the complete hour, 720k replies
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark implements SerialListener, ELMFramer.Listener {
+
+    private static final int[] PIDS = {
+            0x04, 0x05, 0x06, 0x07, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F, 0x10,
+            0x11, 0x1F, 0x2F, 0x33, 0x42, 0x46, 0x5C, 0x5E, 0x3C, 0x44,
+    };
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private File dir;
+    private final ELMFramer framer = new ELMFramer(this);
+    private final OBDBatch batch = new OBDBatch();
+    private TelemetryStore telemetry;
+    private CountDownLatch done;
+    private long time;
+    private int readings;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("trips").toFile();
+        TripRecorder recorder = new TripRecorder(dir, TripRecorder.DEFAULT_SEGMENT_SIZE, Integer.MAX_VALUE);
+        RxBufferPool pool = new RxBufferPool();
+        StringBuilder frame = new StringBuilder();
+        long start = System.currentTimeMillis() - HOUR_MS;
+        int n = 0;
+        for (long t = 0; t < HOUR_MS; t += 100) {
+            for (int pid : PIDS) {
+                frame.setLength(0);
+                OBDReading.appendHex(frame.append("41 "), pid, 2);
+                for (int i = 0; i < OBDPid.get(pid).bytes; i++)
+                    OBDReading.appendHex(frame.append(' '), (int) (t / 100 + i * 7) & 0xFF, 2);
+                byte[] bytes = frame.append("\r\r>").toString().getBytes(StandardCharsets.US_ASCII);
+                RxBuffer buffer = pool.acquire();
+                buffer.put(bytes, 0, bytes.length);
+                recorder.rx(buffer, start + t);
+                buffer.release();
+                if (++n % 1000 == 0)
+                    recorder.flush();   // the staging buffer drops records if the writer falls behind
+            }
+        }
+        recorder.close();
+        if (recorder.dropped() > 0)
+            throw new IllegalStateException(recorder.toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File segment : TripRecorder.segments(dir))
+            segment.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int replay() throws IOException, InterruptedException {
+        telemetry = new TelemetryStore();
+        readings = 0;
+        done = new CountDownLatch(1);
+        TripReplay replay = new TripReplay(dir).setSpeed(TripReplay.MAX_SPEED);
+        replay.connect(this);
+        done.await();
+        replay.disconnect();
+        return readings;
+    }
+
+    @Override
+    public void onSerialConnect() {
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        done.countDown();
+    }
+
+    @Override
+    public void onSerialRead(RxBuffer data) {
+        framer.feed(data.data());
+        data.release();
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        done.countDown();   // end of trip
+    }
+
+    @Override
+    public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+        if (type != ELMFramer.Type.DATA)
+            return;
+        int count = batch.decode(buf, off, len);
+        for (int i = 0; i < count; i++)
+            telemetry.append(batch.reading(i), ++time);
+        readings += count;
+    }
+
+    @Override
+    public void onPrompt() {
+    }
+}
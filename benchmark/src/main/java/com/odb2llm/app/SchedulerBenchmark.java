@@ -0,0 +1,107 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * requests through PollScheduler, ELMFramer and the decoder against ELMSimulator without latency
+ * one operation is a Mode 01 request of 1 or 6 PIDs up to its prompt. with faults, that share of the
+ * replies is NO DATA and the same share is cut short
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark implements SerialListener, PollScheduler.Callback {
+
+    private static final String[] REQUESTS = {"010C", "010C0D", "010C0D05", "010C0D0504", "010C0D05040B", "010C0D05040B11"};
+
+    @Param({"1", "6"})
+    public int pids;
+
+    @Param({"0", "0.1"})
+    public double faults;
+
+    private ELMSimulator simulator;
+    private PollScheduler scheduler;
+    private final OBDBatch replies = new OBDBatch();
+    private final Semaphore done = new Semaphore(0);
+    private int readings;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        simulator = new ELMSimulator()
+                .setLatency(0, 0)
+                .setFault(ELMSimulator.Fault.NO_DATA, faults)
+                .setFault(ELMSimulator.Fault.TRUNCATED, faults);
+        scheduler = new PollScheduler((data, off, len, expired) -> simulator.write(data, off, len), Runnable::run);
+        simulator.connect(this);
+        scheduler.submit("ATSP6", this);   // no protocol search
+        done.acquire();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.stop();
+        simulator.disconnect();
+    }
+
+    @Benchmark
+    public int request() throws InterruptedException {
+        readings = 0;
+        scheduler.submit(REQUESTS[pids - 1], this);
+        done.acquire();
+        return readings;
+    }
+
+    @Override
+    public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+        if (type == ELMFramer.Type.DATA)
+            readings += replies.decode(buf, off, len);
+    }
+
+    @Override
+    public void onComplete(boolean timeout) {
+        done.release();
+    }
+
+    @Override
+    public void onSerialConnect() {
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+    }
+
+    @Override
+    public void onSerialRead(RxBuffer data) {
+        scheduler.feed(data.data());
+        data.release();
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+    }
+}
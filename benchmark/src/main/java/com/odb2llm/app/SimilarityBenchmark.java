@@ -0,0 +1,102 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * intent matching as done by MediaPipeEmbeddings.getSimilarities, with a stub embedder instead of
+ * the sentence encoder. rankQuery embeds the question and every catalog sentence per query,
+ * rankCached only embeds the question and ranks against the cached EmbeddingMatrix of the catalog
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimilarityBenchmark {
+
+    private static final int DIMENSIONS = 100; // universal sentence encoder lite
+
+    // catalog of TextEmbeddingsViewModel
+    private static final String[] CATALOG = {
+            "is my engine light on (or) are there any codes present?",
+            "Read DTC error code (or) Diagnostic Trouble Codes (or) vehicle health (or) check engine light",
+            "What is the fuel system status?",
+            "What is the engine load?",
+            "What is the engine coolant temperature?",
+            "What is the short term fuel trim for Bank 1 or STFT Bank 1?",
+            "What is the long term fuel trim for Bank 1 or LTFT Bank 1?",
+            "What is the short term fuel trim for Bank 2 or STFT Bank 2?",
+            "What is the long term fuel trim for Bank 2 or LTFT Bank 2?",
+            "What is the fuel pressure?",
+            "What is the intake manifold pressure?",
+            "What is the engine rpm or speed or revolutions?",
+            "What is the vehicle speed?",
+            "What is the timing advance?",
+            "What is the intake air temperature?",
+            "What is the MAF air flow rate?",
+            "What is the throttle position or absolute throttle position?",
+            "What is the commanded secondary air status?",
+            "How many oxygen sensors are present in the 2 banks?",
+            "What is the status of Oxygen Sensor 1?",
+            "What is the status of Oxygen Sensor 2?",
+    };
+
+    private final String question = "What's the engine coolant temperature?";
+    private EmbeddingMatrix catalog;
+    private final int[] indexes = new int[CATALOG.length];
+    private final double[] scores = new double[CATALOG.length];
+
+    /**
+     * feature hashing of words, deterministic and roughly proportional to sentence length like the encoder
+     */
+    static float[] embed(String sentence) {
+        String s = sentence.toLowerCase(Locale.getDefault());
+        float[] v = new float[DIMENSIONS];
+        int h = 0;
+        for (int i = 0; i <= s.length(); i++) {
+            char c = i < s.length() ? s.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                h = 31 * h + c;
+            } else if (h != 0) {
+                v[(h & 0x7FFFFFFF) % DIMENSIONS] += 1;
+                h = 0;
+            }
+        }
+        return v;
+    }
+
+    @Setup
+    public void setup() {
+        float[][] embeddings = new float[CATALOG.length][];
+        for (int i = 0; i < CATALOG.length; i++)
+            embeddings[i] = embed(CATALOG[i]);
+        catalog = EmbeddingMatrix.of(embeddings);
+    }
+
+    @Benchmark
+    public int rankQuery() {
+        float[] query = embed(question);
+        float[][] sentences = new float[CATALOG.length][];
+        for (int i = 0; i < CATALOG.length; i++)
+            sentences[i] = embed(CATALOG[i]);
+        return SimilarityRanker.rank(query, sentences, 0.5, indexes, scores);
+    }
+
+    @Benchmark
+    public int rankCached() {
+        return catalog.rank(embed(question), 0.5, indexes, scores);
+    }
+}
@@ -0,0 +1,39 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextUtilBenchmark {
+
+    @Param({"plain", "control"})
+    public String text;
+
+    private String s;
+
+    @Setup
+    public void setup() {
+        s = text.equals("plain") ? "Engine RPM is 1726 rpm." : "010C\r41 0C 1A F8\r\n\r>";
+    }
+
+    @Benchmark
+    public CharSequence toCaretString() {
+        return TextUtil.toCaretString(s, true);
+    }
+}
@@ -0,0 +1,64 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of recording on the socket read thread, the mapped segment writes and forces run on the writer thread
+ * one operation is a received reply frame and its decoded sample, sampled for latency percentiles
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TripRecorderBenchmark {
+
+    private File dir;
+    private TripRecorder recorder;
+    private final RxBufferPool pool = new RxBufferPool();
+    private final OBDReading reading = new OBDReading();
+    private final byte[] frame = "41 0C 1A F8 0D 32\r\r>".getBytes(StandardCharsets.US_ASCII);
+    private long time;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("trips").toFile();
+        recorder = new TripRecorder(dir);
+        byte[] reply = "41 0C 1A F8".getBytes(StandardCharsets.US_ASCII);
+        OBDDecoder.decode(reply, 0, reply.length, reading);
+    }
+
+    @TearDown
+    public void tearDown() {
+        recorder.close();
+        for (File segment : TripRecorder.segments(dir))
+            segment.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void record() {
+        RxBuffer buffer = pool.acquire();
+        buffer.put(frame, 0, frame.length);
+        recorder.rx(buffer, ++time);
+        buffer.release();
+        recorder.sample(reading, time);
+    }
+}
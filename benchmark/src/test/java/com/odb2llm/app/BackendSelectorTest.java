@@ -0,0 +1,170 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ranking, probing and failover, with fake backends and HttpBackend against StubLlmServer
+ */
+public class BackendSelectorTest {
+
+    private final BackendSelector selector = new BackendSelector();
+    private StubLlmServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubLlmServer(0);
+        server.setLatency(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void ranksAvailableBackendsByLatency() {
+        Fake slow = new Fake("slow", 800, "");
+        Fake fast = new Fake("fast", 100, "");
+        Fake missing = new Fake("missing", 10, "");
+        missing.available = false;
+        selector.add(slow);
+        selector.add(fast);
+        selector.add(missing);
+        List<InferenceBackend> ranked = selector.ranked();
+        assertEquals(2, ranked.size());
+        assertSame(fast, ranked.get(0));
+        assertSame(slow, ranked.get(1));
+    }
+
+    @Test
+    public void probesRemoteBackends() {
+        HttpBackend remote = new HttpBackend(server.url(), "stub");
+        HttpBackend unreachable = new HttpBackend("http://127.0.0.1:1", "stub");
+        selector.add(new Fake("local", 60000, ""));
+        selector.add(remote);
+        selector.add(unreachable);
+        List<InferenceBackend> ranked = selector.ranked();
+        assertEquals(2, ranked.size());
+        assertSame(remote, ranked.get(0));
+        assertEquals(1, server.requests());
+    }
+
+    @Test
+    public void failsOverBeforeFirstToken() throws Exception {
+        Fake broken = new Fake("broken", 100, "");
+        broken.failure = new IOException("connection reset");
+        Fake working = new Fake("working", 200, "ok");
+        selector.add(broken);
+        selector.add(working);
+        StringBuilder shown = new StringBuilder();
+        assertEquals("ok", selector.generate("persona", "question", shown::append));
+        assertEquals("ok", shown.toString());
+        assertEquals(1, broken.calls);
+        assertEquals(1, working.calls);
+    }
+
+    @Test
+    public void streamedAnswerIsNotRetried() {
+        Fake broken = new Fake("broken", 100, "half");
+        broken.failure = new IOException("connection reset");
+        Fake working = new Fake("working", 200, "ok");
+        selector.add(broken);
+        selector.add(working);
+        StringBuilder shown = new StringBuilder();
+        try {
+            selector.generate("persona", "question", shown::append);
+            fail();
+        } catch (Exception e) {
+            assertSame(broken.failure, e);
+        }
+        assertEquals("half", shown.toString());
+        assertEquals(0, working.calls);
+    }
+
+    @Test
+    public void lastFailureIsReported() {
+        Fake first = new Fake("first", 100, "");
+        first.failure = new IOException("first");
+        Fake second = new Fake("second", 200, "");
+        second.failure = new IOException("second");
+        selector.add(first);
+        selector.add(second);
+        try {
+            selector.generate("persona", "question", token -> fail());
+            fail();
+        } catch (Exception e) {
+            assertSame(second.failure, e);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noBackendAvailable() throws Exception {
+        selector.generate("persona", "question", token -> fail());
+    }
+
+    @Test
+    public void generatesWithRemoteBackend() throws Exception {
+        selector.add(new HttpBackend(server.url(), "stub"));
+        server.setAnswer("Fine.");
+        assertEquals("Fine.", selector.generate("persona", "question", token -> { }));
+    }
+
+    /**
+     * streams its answer as one token, then fails if a failure is set
+     */
+    private static final class Fake implements InferenceBackend {
+
+        final String name;
+        final long latencyMs;
+        final String answer;
+        boolean available = true;
+        Exception failure;
+        int calls;
+
+        Fake(String name, long latencyMs, String answer) {
+            this.name = name;
+            this.latencyMs = latencyMs;
+            this.answer = answer;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public long latencyMs() {
+            return latencyMs;
+        }
+
+        @Override
+        public PromptBuilder newPrompt() {
+            return new PromptBuilder(1000, PromptBuilder.ESTIMATE);
+        }
+
+        @Override
+        public String generate(PromptBuilder.Prompt prompt, TokenListener listener) throws Exception {
+            calls++;
+            if (!answer.isEmpty())
+                listener.onToken(answer);
+            if (failure != null)
+                throw failure;
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandQueue with a sink which can be stalled, alone and between PollScheduler and ELMSimulator
+ */
+public class CommandQueueTest {
+
+    private final List<String> written = new ArrayList<>();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private CommandQueue queue;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (queue != null)
+            queue.close();
+    }
+
+    @Test
+    public void equalCommandsAreAllWritten() throws InterruptedException {
+        queue = new CommandQueue(this::write, e -> { });
+        stall();
+        offer("ATE0\r", null);
+        offer("ATE0\r", null);
+        offer("010C\r", null);
+        offer("010C\r", null);
+        gate.countDown();
+        awaitWritten(4);
+        assertEquals("[ATE0\r, ATE0\r, 010C\r, 010C\r]", written());
+        assertEquals(0, queue.expired());
+    }
+
+    @Test
+    public void commandQueuedPastDeadlineIsReported() throws InterruptedException {
+        queue = new CommandQueue(this::write, e -> { });
+        stall();
+        CountDownLatch expired = new CountDownLatch(1);
+        offer("ATI\r", null);
+        assertTrue(queue.offer(bytes("010C\r"), 0, 5, 50, expired::countDown));
+        offer("ATRV\r", null);
+        Thread.sleep(100);
+        gate.countDown();
+        assertTrue(expired.await(1, TimeUnit.SECONDS));
+        awaitWritten(2);
+        assertEquals("[ATI\r, ATRV\r]", written());
+        assertEquals(1, queue.expired());
+        assertEquals(2, queue.written());
+    }
+
+    @Test
+    public void closedQueueRefusesCommands() {
+        queue = new CommandQueue(this::write, e -> { });
+        queue.close();
+        assertFalse(queue.offer(bytes("ATZ\r"), 0, 4, CommandQueue.DEFAULT_DEADLINE_MS, null));
+    }
+
+    @Test
+    public void writeErrorClosesQueue() throws InterruptedException {
+        CountDownLatch failed = new CountDownLatch(1);
+        queue = new CommandQueue((data, off, len) -> {
+            throw new IOException("broken pipe");
+        }, e -> failed.countDown());
+        offer("ATZ\r", null);
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        assertFalse(queue.offer(bytes("ATZ\r"), 0, 4, CommandQueue.DEFAULT_DEADLINE_MS, null));
+    }
+
+    @Test
+    public void expiredRequestCompletesAtOnce() throws Exception {
+        ELMSimulator simulator = new ELMSimulator().setLatency(0, 1);
+        PollScheduler scheduler = new PollScheduler(
+                (data, off, len, expired) -> queue.offer(data, off, len, 100, expired), Runnable::run);
+        queue = new CommandQueue((data, off, len) -> {
+            await();
+            simulator.write(data, off, len);
+        }, e -> { });
+        simulator.connect(new SerialListener() {
+            @Override
+            public void onSerialConnect() {
+            }
+
+            @Override
+            public void onSerialConnectError(Exception e) {
+            }
+
+            @Override
+            public void onSerialRead(RxBuffer data) {
+                scheduler.feed(data.data());
+                data.release();
+            }
+
+            @Override
+            public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+                for (RxBuffer data : datas)
+                    scheduler.feed(data.data());
+            }
+
+            @Override
+            public void onSerialIoError(Exception e) {
+            }
+        });
+        try {
+            assertFalse(submit(scheduler, "ATSP6"));
+            stall();
+            offer(" ", null);  // stalled write ahead of the request, ignored by the idle adapter
+            CountDownLatch done = new CountDownLatch(1);
+            boolean[] timeout = new boolean[1];
+            long start = System.nanoTime();
+            scheduler.submit("010C", callback(timeout, done));
+            Thread.sleep(300);
+            gate.countDown();
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertTrue(timeout[0]);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(PollScheduler.RESPONSE_TIMEOUT_MS / 2));
+            assertEquals(1, scheduler.timeouts());
+            assertEquals(1, queue.expired());
+            assertFalse(submit(scheduler, "010D"));     // no stale reply to drain
+        } finally {
+            scheduler.stop();
+            simulator.disconnect();
+        }
+    }
+
+    /** @return true if the command timed out */
+    private static boolean submit(PollScheduler scheduler, String command) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] timeout = new boolean[1];
+        scheduler.submit(command, callback(timeout, done));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return timeout[0];
+    }
+
+    private static PollScheduler.Callback callback(boolean[] timeout, CountDownLatch done) {
+        return new PollScheduler.Callback() {
+            @Override
+            public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void onComplete(boolean t) {
+                timeout[0] = t;
+                done.countDown();
+            }
+        };
+    }
+
+    private void stall() {
+        gate = new CountDownLatch(1);
+    }
+
+    private void await() {
+        try {
+            gate.await();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void offer(String command, Runnable expired) {
+        byte[] data = bytes(command);
+        assertTrue(queue.offer(data, 0, data.length, CommandQueue.DEFAULT_DEADLINE_MS, expired));
+    }
+
+    private void write(byte[] data, int off, int len) {
+        await();
+        synchronized (written) {
+            written.add(new String(data, off, len, StandardCharsets.US_ASCII));
+        }
+    }
+
+    private String written() {
+        synchronized (written) {
+            return written.toString();
+        }
+    }
+
+    private void awaitWritten(int n) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (queue.written() < n && System.nanoTime() < end)
+            Thread.sleep(5);
+        assertEquals(n, queue.written());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
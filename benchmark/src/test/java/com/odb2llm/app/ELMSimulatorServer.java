@@ -0,0 +1,129 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+/**
+ * ELMSimulator behind a TCP port, a stand-in for a Wi-Fi ELM327 adapter when testing TcpSerialSocket
+ *
+ * one client at a time like the adapters, bytes received are written to the simulator and its replies
+ * are sent back as they are produced
+ */
+final class ELMSimulatorServer {
+
+    private final ELMSimulator simulator;
+    private final ServerSocket server;
+    private volatile Socket client;
+    private volatile int connections;
+
+    /**
+     * @param port 0 for any free port
+     */
+    ELMSimulatorServer(ELMSimulator simulator, int port) throws IOException {
+        this.simulator = simulator;
+        server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::accept, "elm-simulator-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** host:port for TcpSerialSocket */
+    String address() {
+        return "127.0.0.1:" + server.getLocalPort();
+    }
+
+    int connections() {
+        return connections;
+    }
+
+    /**
+     * stop listening and drop the connected client, like an adapter switched off
+     */
+    void close() {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        Socket s = client;
+        if (s != null)
+            close(s);
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections++;
+                client = socket;
+                socket.setTcpNoDelay(true);
+                serve(socket);
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        byte[] reply = new byte[RxBufferPool.DEFAULT_BUFFER_SIZE];
+        simulator.connect(new SerialListener() {
+            @Override
+            public void onSerialConnect() {
+            }
+
+            @Override
+            public void onSerialConnectError(Exception e) {
+            }
+
+            @Override
+            public void onSerialRead(RxBuffer data) {
+                send(data);
+                data.release();
+            }
+
+            @Override
+            public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+                for (RxBuffer data : datas)    // lent, not released here
+                    send(data);
+            }
+
+            private void send(RxBuffer data) {
+                int len = data.length();
+                for (int i = 0; i < len; i++)
+                    reply[i] = data.get(i);
+                try {
+                    out.write(reply, 0, len);
+                    out.flush();
+                } catch (IOException e) {
+                    close(socket);
+                }
+            }
+
+            @Override
+            public void onSerialIoError(Exception e) {
+                close(socket);
+            }
+        });
+        try {
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) >= 0)
+                simulator.write(buffer, 0, n);
+        } finally {
+            simulator.disconnect();
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
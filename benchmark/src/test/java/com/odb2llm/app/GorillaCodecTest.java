@@ -0,0 +1,152 @@
+package com.odb2llm.app;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * round trips of GorillaCodec blocks, values are compared bit for bit
+ */
+public class GorillaCodecTest {
+
+    private static final long START = 1700000000000L;
+
+    @Test
+    public void regularPollingTakesTwoBitsPerSample() {
+        long[] times = new long[1000];
+        float[] values = new float[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = START + i * 100L;
+            values[i] = 42.5f;
+        }
+        long[] words = roundTrip(times, values);
+        assertTrue(words.length * 64 < 96 + 2 * times.length + 64 + 64);
+    }
+
+    @Test
+    public void deltaOfDeltaRangeBoundaries() {
+        long[] dods = {0, -64, 63, -65, 64, -256, 255, -257, 256, -2048, 2047, -2049, 2048, 1, -1, 0};
+        long[] times = new long[dods.length + 2];
+        float[] values = new float[times.length];
+        long delta = 10000;
+        times[0] = START;
+        times[1] = START + delta;
+        for (int i = 0; i < dods.length; i++) {
+            delta += dods[i];
+            times[i + 2] = times[i + 1] + delta;
+        }
+        roundTrip(times, values);
+    }
+
+    @Test
+    public void clockJumps() {
+        // up to Long.MAX_VALUE - 1, the decoded range ends before Long.MAX_VALUE
+        long[] times = {-5000, 0, 100, 100, 200, 1L << 40, (1L << 40) + 100, (1L << 40) + 200,
+                Long.MAX_VALUE / 2, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2 + 1, Long.MAX_VALUE - 1};
+        float[] values = new float[times.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i;
+        roundTrip(times, values);
+    }
+
+    @Test
+    public void nanInfinityAndSignedZero() {
+        float[] values = {0f, -0f, 0f, Float.NaN, Float.NaN, Float.intBitsToFloat(0x7fc00001), Float.NaN,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MIN_VALUE, -Float.MIN_VALUE, -0f, -0f,
+                Float.MAX_VALUE, 1f};
+        roundTrip(regular(values.length), values);
+    }
+
+    @Test
+    public void allMeaningfulBits() {
+        int[] bits = {0x00000000, 0x80000001, 0x80000011, 0x00000011, 0xFFFFFFFF, 0x7FFFFFFE, 0x7FFFFFFF, 0xFFFFFFFF};
+        float[] values = new float[bits.length];
+        for (int i = 0; i < bits.length; i++)
+            values[i] = Float.intBitsToFloat(bits[i]);
+        roundTrip(regular(values.length), values);
+    }
+
+    @Test
+    public void narrowingAndWideningWindows() {
+        int[] bits = {0x40000000, 0x40000100, 0x40000300, 0x40000200, 0x40010200, 0x00010200, 0x00010201, 0x00010200};
+        float[] values = new float[bits.length];
+        for (int i = 0; i < bits.length; i++)
+            values[i] = Float.intBitsToFloat(bits[i]);
+        roundTrip(regular(values.length), values);
+    }
+
+    @Test
+    public void randomSamples() {
+        Random random = new Random(1);
+        long[] times = new long[10000];
+        float[] values = new float[times.length];
+        long time = START;
+        for (int i = 0; i < times.length; i++) {
+            int kind = random.nextInt(10);
+            time += kind < 6 ? 100 : kind < 8 ? random.nextInt(5000) : kind < 9 ? 0 : random.nextInt(Integer.MAX_VALUE);
+            times[i] = time;
+            values[i] = kind < 5 && i > 0 ? values[i - 1] : kind < 8 ? random.nextInt(8000) / 4f
+                    : Float.intBitsToFloat(random.nextInt());
+        }
+        roundTrip(times, values);
+    }
+
+    @Test
+    public void decodesRangeIntoOffsetAndStopsAtFullOutput() {
+        long[] times = regular(100);
+        float[] values = new float[times.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i;
+        GorillaCodec.Encoder encoder = encode(times, values);
+        long[] words = encoder.toWords();
+
+        long[] timesOut = new long[20];
+        float[] valuesOut = new float[20];
+        assertEquals(10, GorillaCodec.decode(words, 100, times[10], times[20], timesOut, valuesOut, 5));
+        assertEquals(times[10], timesOut[5]);
+        assertEquals(19, valuesOut[14], 0);
+        assertEquals(0, timesOut[4]);
+
+        assertEquals(20, GorillaCodec.decode(words, 100, times[50], Long.MAX_VALUE, timesOut, valuesOut, 0));
+        assertEquals(69, valuesOut[19], 0);
+        assertEquals(0, GorillaCodec.decode(words, 100, times[99] + 1, Long.MAX_VALUE, timesOut, valuesOut, 0));
+        assertEquals(0, GorillaCodec.decode(new long[0], 0, Long.MIN_VALUE, Long.MAX_VALUE, timesOut, valuesOut, 0));
+    }
+
+    @Test
+    public void singleSample() {
+        roundTrip(new long[]{START}, new float[]{Float.NaN});
+    }
+
+    private static long[] regular(int n) {
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++)
+            times[i] = START + i * 100L;
+        return times;
+    }
+
+    private static GorillaCodec.Encoder encode(long[] times, float[] values) {
+        GorillaCodec.Encoder encoder = new GorillaCodec.Encoder(1);
+        for (int i = 0; i < times.length; i++)
+            encoder.add(times[i], values[i]);
+        assertEquals(times.length, encoder.count());
+        return encoder;
+    }
+
+    /** @return encoded block */
+    private static long[] roundTrip(long[] times, float[] values) {
+        long[] words = encode(times, values).toWords();
+        long[] timesOut = new long[times.length];
+        float[] valuesOut = new float[times.length];
+        assertEquals(times.length, GorillaCodec.decode(words, times.length, Long.MIN_VALUE, Long.MAX_VALUE,
+                timesOut, valuesOut, 0));
+        for (int i = 0; i < times.length; i++) {
+            assertEquals("time " + i, times[i], timesOut[i]);
+            assertEquals("value " + i, Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(valuesOut[i]));
+        }
+        return words;
+    }
+}
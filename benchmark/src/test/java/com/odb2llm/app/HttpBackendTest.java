@@ -0,0 +1,128 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HttpBackend against StubLlmServer
+ */
+public class HttpBackendTest {
+
+    private StubLlmServer server;
+    private HttpBackend backend;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubLlmServer(0);
+        server.setLatency(0, 0);
+        backend = new HttpBackend(server.url() + "/", "stub");
+    }
+
+    @After
+    public void tearDown() {
+        backend.cancel();
+        server.close();
+    }
+
+    @Test
+    public void unavailableUntilProbed() {
+        assertFalse(backend.isAvailable());
+        assertTrue(backend.probe());
+        assertTrue(backend.isAvailable());
+        assertTrue(backend.latencyMs() >= 0);
+    }
+
+    @Test
+    public void streamsTokens() throws Exception {
+        server.setAnswer("Coolant", " at", " 90", " C.");
+        List<String> tokens = new ArrayList<>();
+        assertEquals("Coolant at 90 C.", backend.generate(prompt(), tokens::add));
+        assertEquals(4, tokens.size());
+        assertEquals(" 90", tokens.get(2));
+        assertTrue(backend.isAvailable());   // measured by the first token
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        assertTrue(backend.probe());
+        backend.generate(prompt(), token -> { });
+        backend.generate(prompt(), token -> { });
+        assertEquals(3, server.requests());
+        assertEquals(1, server.connections());
+    }
+
+    @Test
+    public void doneEndsGeneration() throws Exception {
+        server.setHold(2000);
+        long start = System.nanoTime();
+        assertEquals("Engine running normally, no action needed.", backend.generate(prompt(), token -> { }));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void httpErrorMakesBackendUnavailable() {
+        assertTrue(backend.probe());
+        server.setStatus(503);
+        try {
+            backend.generate(prompt(), token -> fail());
+            fail();
+        } catch (Exception e) {
+            assertEquals("HTTP 503", e.getMessage());
+        }
+        assertFalse(backend.isAvailable());
+        assertFalse(backend.probe());
+        server.setStatus(200);
+        assertTrue(backend.probe());
+        assertTrue(backend.isAvailable());
+    }
+
+    @Test
+    public void unreachableServerFailsProbe() {
+        server.close();
+        assertFalse(backend.probe());
+        assertFalse(backend.isAvailable());
+    }
+
+    @Test
+    public void cancelStopsGeneration() throws Exception {
+        assertTrue(backend.probe());
+        server.setLatency(0, 200);
+        CountDownLatch first = new CountDownLatch(1);
+        Thread canceller = new Thread(() -> {
+            try {
+                if (first.await(5, TimeUnit.SECONDS))
+                    backend.cancel();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        canceller.start();
+        List<String> tokens = new ArrayList<>();
+        try {
+            backend.generate(prompt(), token -> {
+                tokens.add(token);
+                first.countDown();
+            });
+            fail();
+        } catch (IOException expected) {
+        }
+        canceller.join();
+        assertTrue(tokens.size() < 3);
+        assertTrue(backend.isAvailable());   // cancelled, not failed
+    }
+
+    private PromptBuilder.Prompt prompt() {
+        return backend.newPrompt().persona("You are a car mechanic.").user("Is the engine ok?").build();
+    }
+}
@@ -0,0 +1,145 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * queue order, replacement of queued commentary per PID, dropping and cancelling, with the worker held busy
+ */
+public class InferenceSchedulerTest {
+
+    private static final String PERSONA = "comment on the reading";
+
+    private final InferenceScheduler scheduler = InferenceScheduler.get();
+    private final Object owner = new Object();
+    private final List<String> runs = new ArrayList<>();     // order the jobs ran in
+    private final ConcurrentHashMap<String, String> results = new ConcurrentHashMap<>();
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private CountDownLatch done;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(InferenceScheduler.Priority.QUESTION, null, owner, () -> {
+            started.countDown();
+            gate.await();
+            return "";
+        }, result -> { });
+        assertTrue(started.await(1, TimeUnit.SECONDS));     // the worker is busy, jobs submitted now are queued
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        scheduler.cancelAll(owner);
+    }
+
+    @Test
+    public void newerCommentOnSamePidReplacesQueuedOne() throws Exception {
+        String rpm800 = key(0x0C, "41 0C 0C 80");
+        String rpm3000 = key(0x0C, "41 0C 2E E0");
+        String speed = key(0x0D, "41 0D 32");
+        assertNotEquals(rpm800, rpm3000);
+        assertEquals(CommentaryCache.subject(rpm800), CommentaryCache.subject(rpm3000));
+        assertNotEquals(CommentaryCache.subject(rpm800), CommentaryCache.subject(speed));
+
+        long coalesced = scheduler.coalesced();
+        done = new CountDownLatch(4);
+        comment("rpm 800", rpm800);
+        comment("speed", speed);
+        comment("rpm 3000", rpm3000);
+        assertEquals(2, scheduler.queueDepth());
+        assertEquals(coalesced + 1, scheduler.coalesced());
+        assertEquals("null", results.get("rpm 800"));   // replaced, told at once
+
+        submit(InferenceScheduler.Priority.QUESTION, null, "question");
+        gate.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[question, speed, rpm 3000]", runs());
+        assertEquals("rpm 3000", results.get("rpm 3000"));
+    }
+
+    @Test
+    public void questionsAreNeverReplaced() throws Exception {
+        done = new CountDownLatch(2);
+        submit(InferenceScheduler.Priority.QUESTION, null, "first");
+        submit(InferenceScheduler.Priority.QUESTION, null, "second");
+        gate.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[first, second]", runs());
+    }
+
+    @Test
+    public void fullQueueDropsNewestComment() throws Exception {
+        long dropped = scheduler.dropped();
+        done = new CountDownLatch(InferenceScheduler.MAX_QUEUED + 1);
+        for (int pid = 0; pid < InferenceScheduler.MAX_QUEUED; pid++)
+            comment("pid " + pid, key(0x04 + pid, "41 " + hex(0x04 + pid) + " 80"));     // one byte PIDs
+        submit(InferenceScheduler.Priority.QUESTION, null, "question");
+        assertEquals(InferenceScheduler.MAX_QUEUED, scheduler.queueDepth());
+        assertEquals(dropped + 1, scheduler.dropped());
+        assertEquals("null", results.get("pid " + (InferenceScheduler.MAX_QUEUED - 1)));
+        gate.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[question, pid 0, pid 1, pid 2]", runs());
+    }
+
+    @Test
+    public void cancelledJobsDoNotRun() throws Exception {
+        done = new CountDownLatch(2);
+        InferenceScheduler.Handle handle = submit(InferenceScheduler.Priority.COMMENTARY, "k", "cancelled");
+        handle.cancel();
+        assertEquals("null", results.get("cancelled"));
+        submit(InferenceScheduler.Priority.COMMENTARY, null, "kept");
+        gate.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[kept]", runs());
+    }
+
+    private void comment(String name, String key) {
+        submit(InferenceScheduler.Priority.COMMENTARY, CommentaryCache.subject(key), name);
+    }
+
+    private InferenceScheduler.Handle submit(InferenceScheduler.Priority priority, String coalesceKey, String name) {
+        return scheduler.submit(priority, coalesceKey, owner, () -> {
+            synchronized (runs) {
+                runs.add(name);
+            }
+            return name;
+        }, result -> {
+            results.put(name, String.valueOf(result));
+            done.countDown();
+        });
+    }
+
+    private String runs() {
+        synchronized (runs) {
+            return runs.toString();
+        }
+    }
+
+    /** commentary cache key of a decoded reply, as built by the app */
+    private static String key(int pid, String reply) {
+        OBDReading reading = new OBDReading();
+        byte[] ascii = reply.getBytes(StandardCharsets.US_ASCII);
+        assertTrue(OBDDecoder.decode(ascii, 0, ascii.length, reading));
+        assertEquals(pid, reading.pid);
+        return CommentaryCache.appendReading(CommentaryCache.key(PERSONA), reading).toString();
+    }
+
+    private static String hex(int b) {
+        return OBDReading.appendHex(new StringBuilder(), b, 2).toString();
+    }
+}
@@ -0,0 +1,233 @@
+package com.odb2llm.app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ModelDownload against a local HTTP server with Range and If-Range support
+ */
+public class ModelDownloadTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[100000];
+    private HttpServer server;
+    private File target;
+    private volatile int ranges;
+    private volatile long sent;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/model.bin", this::serve);
+        server.start();
+        target = new File(folder.getRoot(), "llm/model.bin");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsAndVerifies() throws Exception {
+        ModelDownload download = download(-1, sha256(content));
+        download.run();
+        assertTrue(download.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(file(".part").exists());
+        assertFalse(file(".part.size").exists());
+    }
+
+    @Test
+    public void resumesPartFile() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(file(".part").toPath(), Arrays.copyOf(content, 40000));
+        download(-1, sha256(content)).run();
+        assertEquals(1, ranges);
+        assertEquals(60000, sent);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void completePartWithPinnedSizeIsAccepted() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(file(".part").toPath(), content);
+        Files.write(file(".part.size").toPath(), Integer.toString(content.length).getBytes(StandardCharsets.UTF_8));
+        download(-1, null).run();
+        assertEquals(0, sent);  // 416
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void partLongerThanFileStartsOver() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(file(".part").toPath(), Arrays.copyOf(content, content.length + 10));
+        ModelDownload download = download(-1, null);
+        download.run();
+        assertEquals(content.length, sent);
+        assertTrue(download.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void partOfDifferentSizeStartsOver() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(file(".part").toPath(), Arrays.copyOf(content, 40000));
+        Files.write(file(".part.size").toPath(), "200000".getBytes(StandardCharsets.UTF_8));   // file was replaced
+        download(-1, sha256(content)).run();
+        assertEquals(1, ranges);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unverifiedTargetIsKeptWhileOffline() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(target.toPath(), content);
+        server.stop(0);
+        try {
+            download(-1, null).run();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(file(".part").exists());
+    }
+
+    @Test
+    public void unverifiedTargetIsVerifiedInPlace() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(target.toPath(), content);
+        ModelDownload download = download(-1, sha256(content));
+        download.run();
+        assertEquals(1, ranges);
+        assertEquals(0, sent);  // 416
+        assertTrue(download.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unverifiedTruncatedTargetIsResumed() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(target.toPath(), Arrays.copyOf(content, 40000));
+        ModelDownload download = download(-1, sha256(content));
+        download.run();
+        assertEquals(60000, sent);
+        assertTrue(download.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unverifiedCorruptTargetIsReplaced() throws Exception {
+        target.getParentFile().mkdirs();
+        Files.write(target.toPath(), new byte[content.length]);
+        ModelDownload download = download(-1, sha256(content));
+        download.run();
+        assertEquals(content.length, sent);
+        assertTrue(download.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unexpectedSizeIsRejected() {
+        try {
+            download(content.length + 1, null).run();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void smallDownloadIsRejected() {
+        ModelDownload download = download(-1, null);
+        download.setMinSize(content.length + 1);
+        try {
+            download.run();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void checksumMismatchDropsPartFile() {
+        try {
+            download(-1, sha256(new byte[1])).run();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+        assertFalse(file(".part").exists());
+    }
+
+    private ModelDownload download(long expectedSize, String sha256) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/model.bin";
+        return new ModelDownload(url, target, expectedSize, sha256);
+    }
+
+    private File file(String suffix) {
+        return new File(target.getPath() + suffix);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        int from = 0;
+        if (range != null && (ifRange == null || ifRange.equals("\"v1\""))) {
+            ranges++;
+            from = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            if (from >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - from);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, from, content.length - from);
+        }
+        sent += content.length - from;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
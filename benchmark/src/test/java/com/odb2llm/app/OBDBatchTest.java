@@ -0,0 +1,61 @@
+package com.odb2llm.app;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class OBDBatchTest {
+
+    private final OBDBatch batch = new OBDBatch();
+
+    @Test
+    public void encodesRequest() {
+        batch.add(0x0C);
+        batch.add(0x0D);
+        batch.add(0x05);
+        int len = batch.encode();
+        assertEquals("010C0D05\r", new String(batch.command(), 0, len, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void splitsSingleFrameReply() {
+        assertEquals(2, decode("41 0C 1A F8 0D 32"));
+        assertEquals(1726, batch.find(0x0C).values[0], 0);
+        assertEquals(50, batch.find(0x0D).values[0], 0);
+    }
+
+    @Test
+    public void ignoresPaddingAfterIsoTpLength() {
+        assertEquals(3, decode("008\r0: 41 0C 1A F8 0D 20\r1: 05 7B 00 00 00 00 00"));
+        assertEquals(1726, batch.find(0x0C).values[0], 0);
+        assertEquals(32, batch.find(0x0D).values[0], 0);
+        assertEquals(83, batch.find(0x05).values[0], 0);
+        assertNull(batch.find(0x00));
+    }
+
+    @Test
+    public void ignoresPaddingWithoutSpaces() {
+        assertEquals(3, decode("008\r0:410C1AF80D20\r1:057B5555555555"));
+        assertNull(batch.find(0x55));
+    }
+
+    @Test
+    public void truncatedMultiFrameReplyIsShort() {
+        assertEquals(2, decode("00A\r0: 41 0C 1A F8 0D 20\r1: 05"));
+        assertFalse(batch.reading(2).isValid());
+    }
+
+    @Test
+    public void noData() {
+        assertEquals(0, decode("NO DATA"));
+    }
+
+    private int decode(String reply) {
+        byte[] ascii = reply.getBytes(StandardCharsets.US_ASCII);
+        return batch.decode(ascii, 0, ascii.length);
+    }
+}
@@ -0,0 +1,219 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PollScheduler and ELMInit against ELMSimulator, incl. its fault injection
+ */
+public class PollSchedulerTest implements SerialListener, PollScheduler.Listener {
+
+    private ELMSimulator simulator;
+    private PollScheduler scheduler;
+    private final float[] last = new float[256];
+    private int wrong;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new ELMSimulator().setLatency(0, 1).setSearchLatency(10).setChunkSize(20);
+        scheduler = new PollScheduler((data, off, len, expired) -> simulator.write(data, off, len), Runnable::run);
+        scheduler.setListener(this);
+        simulator.connect(this);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        simulator.disconnect();
+    }
+
+    @Test
+    public void initSearchesProtocolAndDiscoversPids() throws InterruptedException {
+        SupportedPids supportedPids = new SupportedPids();
+        BlockingQueue<Character> done = new ArrayBlockingQueue<>(1);
+        new ELMInit(scheduler, supportedPids, done::add).start((char) 0);
+        assertEquals(Character.valueOf('6'), done.poll(5, TimeUnit.SECONDS));
+        assertTrue(supportedPids.isSupported(0x0C));
+        assertFalse(supportedPids.isSupported(0x12));
+    }
+
+    @Test
+    public void cachedProtocolFallsBackToSearch() throws InterruptedException {
+        BlockingQueue<Character> done = new ArrayBlockingQueue<>(1);
+        new ELMInit(scheduler, new SupportedPids(), done::add).start('3');   // adapter moved to a CAN vehicle
+        assertEquals(Character.valueOf('6'), done.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pollsSubscriptionsInBatches() throws InterruptedException {
+        submit("ATSP6", 0);
+        scheduler.setMaxPids(OBDBatch.MAX_PIDS);
+        scheduler.subscribe(0x0C, 20);
+        scheduler.subscribe(0x0D, 20);
+        scheduler.subscribe(0x05, 20);
+        awaitSamples(60);
+        assertEquals(0, wrong());
+        assertEquals(1726, last(0x0C), 0);
+        assertEquals(50, last(0x0D), 0);
+        assertEquals(83, last(0x05), 0);
+        assertTrue(scheduler.requests() * 2 < scheduler.samples());
+    }
+
+    @Test
+    public void noDataAndTruncatedRepliesDoNotStopPolling() throws InterruptedException {
+        submit("ATSP6", 0);
+        simulator.setFault(ELMSimulator.Fault.NO_DATA, 0.2).setFault(ELMSimulator.Fault.TRUNCATED, 0.2);
+        scheduler.setMaxPids(OBDBatch.MAX_PIDS);
+        scheduler.subscribe(0x0C, 10);
+        scheduler.subscribe(0x0D, 10);
+        awaitSamples(50);
+        assertEquals(0, wrong());
+        assertEquals(0, scheduler.timeouts());
+    }
+
+    @Test
+    public void missingPromptCompletesWithTimeout() throws InterruptedException {
+        submit("ATSP6", 0);
+        simulator.setFault(ELMSimulator.Fault.TIMEOUT, 1);
+        assertTrue(submit("010C", 200));
+        assertEquals(1, scheduler.timeouts());
+    }
+
+    @Test
+    public void lateReplyIsNotCreditedToNextRequest() throws InterruptedException {
+        submit("ATSP6", 0);
+        simulator.setLatency(0, 300);
+        assertTrue(submit("010C", 100));
+        assertEquals("41 0D 32", request("010D"));
+        assertEquals("41 05 7B", request("0105"));
+    }
+
+    @Test
+    public void lostPromptResumesAfterQuietPeriod() throws InterruptedException {
+        submit("ATSP6", 0);
+        simulator.setFault(ELMSimulator.Fault.TIMEOUT, 1);
+        assertTrue(submit("010C", 100));
+        simulator.setFault(ELMSimulator.Fault.TIMEOUT, 0);
+        assertEquals("41 0D 32", request("010D"));
+        assertEquals(1, scheduler.timeouts());
+    }
+
+    @Test
+    public void busInitErrorIsNotData() throws InterruptedException {
+        submit("ATSP6", 0);
+        simulator.setFault(ELMSimulator.Fault.BUS_INIT_ERROR, 1);
+        scheduler.setMaxPids(OBDBatch.MAX_PIDS);
+        scheduler.subscribe(0x0C, 10);
+        Thread.sleep(100);
+        assertTrue(scheduler.requests() > 1);
+        assertEquals(0, scheduler.samples());
+    }
+
+    /** @return data lines of the reply */
+    private String request(String command) throws InterruptedException {
+        StringBuilder data = new StringBuilder();
+        assertFalse(submit(command, 0, data));
+        return data.toString();
+    }
+
+    /** @return true if the command timed out */
+    private boolean submit(String command, long timeoutMs) throws InterruptedException {
+        return submit(command, timeoutMs, new StringBuilder());
+    }
+
+    private boolean submit(String command, long timeoutMs, StringBuilder data) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] timeout = new boolean[1];
+        PollScheduler.Callback callback = new PollScheduler.Callback() {
+            @Override
+            public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+                if (type == ELMFramer.Type.DATA)
+                    data.append(new String(buf, off, len, StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public void onComplete(boolean t) {
+                timeout[0] = t;
+                done.countDown();
+            }
+        };
+        if (timeoutMs > 0)
+            scheduler.submit(command, timeoutMs, callback);
+        else
+            scheduler.submit(command, callback);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return timeout[0];
+    }
+
+    private void awaitSamples(int samples) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.samples() < samples && System.nanoTime() < end)
+            Thread.sleep(5);
+        assertTrue(scheduler.samples() >= samples);
+    }
+
+    private synchronized float last(int pid) {
+        return last[pid];
+    }
+
+    private synchronized int wrong() {
+        return wrong;
+    }
+
+    /*
+     * PollScheduler.Listener, values must be the simulated ones, whatever faults are injected
+     */
+    @Override
+    public synchronized void onReading(OBDReading reading) {
+        if (!reading.isValid())
+            return;
+        float expected = reading.pid == 0x0C ? 1726 : reading.pid == 0x0D ? 50 : reading.pid == 0x05 ? 83 : Float.NaN;
+        if (reading.values[0] != expected)
+            wrong++;
+        last[reading.pid] = reading.values[0];
+    }
+
+    @Override
+    public void onWriteError(Exception e) {
+    }
+
+    /*
+     * SerialListener of the simulator
+     */
+    @Override
+    public void onSerialConnect() {
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+    }
+
+    @Override
+    public void onSerialRead(RxBuffer data) {
+        scheduler.feed(data.data());
+        data.release();
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+        for (RxBuffer data : datas)
+            scheduler.feed(data.data());
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+    }
+}
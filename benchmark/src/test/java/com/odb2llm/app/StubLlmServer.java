@@ -0,0 +1,172 @@
+package com.odb2llm.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * OpenAI compatible chat completions server with canned answers, stand-in for a remote LLM
+ * when testing HttpBackend without a model
+ *
+ * GET /v1/models and streaming POST /v1/chat/completions, HTTP/1.1 keep-alive with chunked replies.
+ * every answer streams the same words with a configurable delay before the first and between tokens.
+ * like real servers, the stream starts with a comment and a delta without content
+ */
+final class StubLlmServer {
+
+    private final ServerSocket server;
+    private volatile String[] words = {"Engine", " running", " normally,", " no", " action", " needed."};
+    private volatile long firstTokenMs = 50;
+    private volatile long tokenMs = 10;
+    private volatile long holdMs;
+    private volatile int status = 200;
+    private volatile int requests;
+    private volatile int connections;
+
+    /**
+     * @param port 0 for any free port
+     */
+    StubLlmServer(int port) throws IOException {
+        server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::accept, "stub-llm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getLocalPort();
+    }
+
+    void setAnswer(String... words) {
+        this.words = words;
+    }
+
+    void setLatency(long firstTokenMs, long tokenMs) {
+        this.firstTokenMs = firstTokenMs;
+        this.tokenMs = tokenMs;
+    }
+
+    /**
+     * keep the stream open for a while after [DONE]
+     */
+    void setHold(long holdMs) {
+        this.holdMs = holdMs;
+    }
+
+    /**
+     * answer every request with this HTTP status, 200 for normal answers
+     */
+    void setStatus(int status) {
+        this.status = status;
+    }
+
+    /** requests served */
+    int requests() {
+        return requests;
+    }
+
+    /** TCP connections accepted, fewer than requests when connections are reused */
+    int connections() {
+        return connections;
+    }
+
+    void close() {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections++;
+                Thread thread = new Thread(() -> serve(socket), "stub-llm-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                int contentLength = 0;
+                String header;
+                while ((header = readLine(in)) != null && !header.isEmpty())
+                    if (header.toLowerCase(Locale.US).startsWith("content-length:"))
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                for (int i = 0; i < contentLength; i++)
+                    if (in.read() < 0)
+                        return;
+                requests++;
+                if (status != 200) {
+                    byte[] body = "{\"error\":{\"message\":\"stub error\"}}".getBytes(StandardCharsets.UTF_8);
+                    write(out, "HTTP/1.1 " + status + " Error\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n");
+                    out.write(body);
+                    out.flush();
+                } else if (requestLine.startsWith("GET /v1/models")) {
+                    byte[] body = "{\"object\":\"list\",\"data\":[{\"id\":\"stub\",\"object\":\"model\"}]}".getBytes(StandardCharsets.UTF_8);
+                    write(out, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n");
+                    out.write(body);
+                    out.flush();
+                } else if (requestLine.startsWith("POST /v1/chat/completions")) {
+                    write(out, "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nTransfer-Encoding: chunked\r\n\r\n");
+                    out.flush();
+                    chunk(out, ": stub\n\n");
+                    chunk(out, "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\"}}]}\n\n");
+                    Thread.sleep(firstTokenMs);
+                    for (String word : words) {
+                        chunk(out, "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + word + "\"}}]}\n\n");
+                        Thread.sleep(tokenMs);
+                    }
+                    chunk(out, "data: [DONE]\n\n");
+                    Thread.sleep(holdMs);
+                    write(out, "0\r\n\r\n");
+                    out.flush();
+                } else {
+                    write(out, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    private static void chunk(OutputStream out, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        write(out, Integer.toHexString(bytes.length) + "\r\n");
+        out.write(bytes);
+        write(out, "\r\n");
+        out.flush();
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** @return line without CRLF, null at end of stream */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n')
+                return line.toString("UTF-8").trim();
+            line.write(c);
+        }
+        return line.size() > 0 ? line.toString("UTF-8") : null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.odb2llm.app;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SupportedPidsTest {
+
+    private final SupportedPids pids = new SupportedPids();
+    private final OBDBatch batch = new OBDBatch();
+
+    @Test
+    public void walksRangesWhileTheNextRangeBitIsSet() {
+        assertEquals(0x00, pids.nextQuery());
+        assertTrue(pids.merge(reading("41 00 BE 1F A8 13")));
+        assertEquals(0x20, pids.nextQuery());
+        assertTrue(pids.merge(reading("41 20 80 00 00 00")));
+        assertEquals(-1, pids.nextQuery());
+        assertTrue(pids.isComplete());
+        assertTrue(pids.isSupported(0x0C));
+        assertFalse(pids.isSupported(0x0A));
+        assertTrue(pids.isSupported(0x21));
+        assertFalse(pids.isSupported(0x22));
+        assertFalse(pids.isSupported(0x41));
+    }
+
+    @Test
+    public void anyEcuMayContinueDiscovery() {
+        assertTrue(pids.merge(reading("41 00 BE 1F A8 12")));    // engine, no PIDs above 0x20
+        assertEquals(-1, pids.nextQuery());
+        assertTrue(pids.merge(reading("41 00 80 00 00 01")));    // transmission, range 0x20 follows
+        assertEquals(0x20, pids.nextQuery());
+        assertTrue(pids.merge(reading("41 20 00 00 20 00")));
+        assertEquals(-1, pids.nextQuery());
+        assertTrue(pids.isSupported(0x33));
+        assertEquals(17, pids.count());
+    }
+
+    @Test
+    public void laterRangeReplyOfAnotherEcuIsMerged() {
+        pids.merge(reading("41 00 00 00 00 01"));
+        pids.merge(reading("41 20 00 00 00 00"));    // first ECU ends at 0x20
+        assertEquals(-1, pids.nextQuery());
+        pids.merge(reading("41 20 00 00 00 01"));    // second ECU continues to 0x40
+        assertEquals(0x40, pids.nextQuery());
+    }
+
+    @Test
+    public void unansweredRangeEndsDiscovery() {
+        pids.merge(reading("41 00 00 00 00 01"));
+        assertEquals(0x20, pids.nextQuery());
+        assertTrue(pids.isSupported(0x2F));  // unknown while discovery is running
+        pids.failed();
+        assertTrue(pids.isComplete());
+        assertFalse(pids.isSupported(0x2F));
+        pids.reset();
+        assertEquals(0x00, pids.nextQuery());
+    }
+
+    @Test
+    public void otherRepliesAreNotMerged() {
+        assertFalse(pids.merge(reading("41 0C 1A F8")));
+        assertFalse(pids.merge(reading("NO DATA")));
+        assertEquals(0x00, pids.nextQuery());
+    }
+
+    private OBDReading reading(String reply) {
+        byte[] ascii = reply.getBytes(StandardCharsets.US_ASCII);
+        batch.decode(ascii, 0, ascii.length);
+        return batch.reading(0);
+    }
+}
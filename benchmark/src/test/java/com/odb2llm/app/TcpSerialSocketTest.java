@@ -0,0 +1,158 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TcpSerialSocket and PollScheduler end to end, against ELMSimulator served on a local TCP port
+ */
+public class TcpSerialSocketTest implements SerialListener {
+
+    private ELMSimulator simulator;
+    private ELMSimulatorServer server;
+    private TcpSerialSocket socket;
+    private PollScheduler scheduler;
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final CountDownLatch failed = new CountDownLatch(1);
+    private volatile Exception error;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new ELMSimulator().setLatency(1, 5).setSearchLatency(20);
+        server = new ELMSimulatorServer(simulator, 0);
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.stop();
+        if (socket != null)
+            socket.disconnect();
+        server.close();
+    }
+
+    @Test
+    public void addressSelectsTransport() {
+        assertTrue(TcpSerialSocket.isAddress(TcpSerialSocket.DEFAULT_ADDRESS));
+        assertTrue(TcpSerialSocket.isAddress(server.address()));
+        assertFalse(TcpSerialSocket.isAddress("00:1D:A5:68:98:8B"));
+    }
+
+    @Test
+    public void initAndPoll() throws Exception {
+        connect(server.address());
+        assertTrue(request("ATZ").contains("ELM327 v1.5"));
+        assertEquals("OK", request("ATE0"));
+        assertEquals("41 0C 1A F8", request("010C"));   // after protocol search
+        assertEquals("41 0D 32", request("010D"));
+        OBDBatch batch = new OBDBatch();
+        for (int i = 0; i < 200; i++) {
+            String reply = request("010C0D");
+            byte[] ascii = reply.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(reply, 2, batch.decode(ascii, 0, ascii.length));
+            assertEquals(1726, batch.find(0x0C).values[0], 0);
+            assertEquals(50, batch.find(0x0D).values[0], 0);
+        }
+        assertEquals(0, scheduler.timeouts());
+        assertEquals(1, server.connections());
+    }
+
+    @Test
+    public void refusedConnectionIsConnectError() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        socket = new TcpSerialSocket("127.0.0.1:" + port);
+        socket.connect(this);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, connected.getCount());
+        assertNotNull(error);
+    }
+
+    @Test
+    public void closedByAdapterIsIoError() throws Exception {
+        connect(server.address());
+        assertEquals("OK", request("ATE0"));
+        server.close();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+    }
+
+    private void connect(String address) throws Exception {
+        socket = new TcpSerialSocket(address);
+        scheduler = new PollScheduler((data, off, len, expired) -> socket.write(data, off, len), Runnable::run);
+        socket.connect(this);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+    }
+
+    /** @return reply lines except status, separated by \n */
+    private String request(String command) throws InterruptedException {
+        StringBuilder reply = new StringBuilder();
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] timeout = new boolean[1];
+        scheduler.submit(command, new PollScheduler.Callback() {
+            @Override
+            public void onFrame(ELMFramer.Type type, byte[] buf, int off, int len) {
+                if (type == ELMFramer.Type.STATUS)
+                    return;
+                if (reply.length() > 0)
+                    reply.append('\n');
+                reply.append(new String(buf, off, len, StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public void onComplete(boolean t) {
+                timeout[0] = t;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(command, timeout[0]);
+        return reply.toString();
+    }
+
+    /*
+     * SerialListener of the TcpSerialSocket
+     */
+    @Override
+    public void onSerialConnect() {
+        connected.countDown();
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        error = e;
+        failed.countDown();
+    }
+
+    @Override
+    public void onSerialRead(RxBuffer data) {
+        scheduler.feed(data.data());
+        data.release();
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+        for (RxBuffer data : datas)
+            scheduler.feed(data.data());
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        error = e;
+        failed.countDown();
+    }
+}
@@ -0,0 +1,194 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * sealing of windows, range scans of segment files and of windows not written yet, retention
+ */
+public class TelemetryArchiveTest {
+
+    private static final long START = TelemetryArchive.BLOCK_MS * 2833334;   // window aligned, late 2023
+    private static final long WINDOW_SAMPLES = TelemetryArchive.BLOCK_MS / 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private ExecutorService sealer;
+    private File dir;
+    private TelemetryArchive archive;
+    private final OBDReading reading = new OBDReading();
+    private final long[] times = new long[4000];
+    private final float[] values = new float[times.length];
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "telemetry");
+        sealer = Executors.newSingleThreadExecutor();
+        sealer.execute(() -> {  // windows are sealed but not written until the gate opens
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        archive = new TelemetryArchive(dir, TelemetryArchive.DEFAULT_MAX_BYTES, sealer);
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        sealer.shutdownNow();
+    }
+
+    @Test
+    public void nextWindowSealsTheOpenOne() throws Exception {
+        appendSpeed(0, WINDOW_SAMPLES);     // one sample per second, window 0
+        assertEquals(0, range(0x0D, 0, START, Long.MAX_VALUE));   // open window is not scanned
+        append(START + TelemetryArchive.BLOCK_MS, 0x0D, 1f);
+        assertEquals(WINDOW_SAMPLES, range(0x0D, 0, START, Long.MAX_VALUE));    // sealed, not written
+        assertEquals(0, segments());
+        close();
+        assertEquals(2, segments());
+        assertEquals(WINDOW_SAMPLES + 1, archive.samples());
+        assertEquals(WINDOW_SAMPLES + 1, range(0x0D, 0, START, Long.MAX_VALUE));
+        assertEquals(1f, values[(int) WINDOW_SAMPLES], 0);
+    }
+
+    @Test
+    public void pendingWindowsAreScannedOnce() throws Exception {
+        appendSpeed(0, 3 * WINDOW_SAMPLES);
+        archive.close();
+        assertEquals(3 * WINDOW_SAMPLES, range(0x0D, 0, START, Long.MAX_VALUE));
+        assertInOrder(3 * WINDOW_SAMPLES);
+        gate.countDown();
+        while (segments() < 2)  // first windows on storage, the last one may still be pending
+            Thread.sleep(1);
+        assertEquals(3 * WINDOW_SAMPLES, range(0x0D, 0, START, Long.MAX_VALUE));
+        assertInOrder(3 * WINDOW_SAMPLES);
+        assertTrue(archive.awaitClosed(5000));
+        assertEquals(3 * WINDOW_SAMPLES, range(0x0D, 0, START, Long.MAX_VALUE));
+        assertInOrder(3 * WINDOW_SAMPLES);
+    }
+
+    @Test
+    public void rangeIsHalfOpenAcrossSegments() throws Exception {
+        appendSpeed(0, 2 * WINDOW_SAMPLES + 10);
+        close();
+        long from = START + (WINDOW_SAMPLES - 5) * 1000;
+        long to = START + (WINDOW_SAMPLES + 5) * 1000;
+        assertEquals(10, range(0x0D, 0, from, to));
+        assertEquals(from, times[0]);
+        assertEquals(to - 1000, times[9]);
+        assertEquals(speed(WINDOW_SAMPLES - 5), values[0], 0);
+        assertEquals(speed(WINDOW_SAMPLES + 4), values[9], 0);
+        assertEquals(0, range(0x0D, 0, to, to));
+        assertEquals(0, range(0x0D, 0, START - 1000, START));
+        assertEquals(0, range(0x0C, 0, START, Long.MAX_VALUE));
+        assertEquals(0, range(0x0D, 1, START, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void fieldsAreSeparateSeries() throws Exception {
+        reading.clear();
+        reading.status = OBDReading.Status.OK;
+        reading.mode = 0x41;
+        reading.pid = 0x14;     // O2 sensor voltage and fuel trim
+        reading.valueCount = 2;
+        for (int i = 0; i < 100; i++) {
+            reading.values[0] = i / 200f;
+            reading.values[1] = i - 50;
+            archive.append(reading, START + i * 100L);
+        }
+        close();
+        assertEquals(100, range(0x14, 1, START, Long.MAX_VALUE));
+        assertEquals(-50, values[0], 0);
+        assertEquals(100, range(0x14, 0, START, Long.MAX_VALUE));
+        assertEquals(99 / 200f, values[99], 0);
+    }
+
+    @Test
+    public void outputIsLimitedOldestFirst() throws Exception {
+        appendSpeed(0, 2 * WINDOW_SAMPLES);
+        close();
+        long[] t = new long[5];
+        assertEquals(5, archive.range(0x0D, 0, START, Long.MAX_VALUE, t, new float[5]));
+        assertEquals(START + 4000, t[4]);
+    }
+
+    @Test
+    public void invalidReadingsAreIgnored() throws Exception {
+        reading.clear();
+        archive.append(reading, START);     // INVALID
+        reading.status = OBDReading.Status.OK;
+        reading.mode = 0x43;                // DTCs
+        archive.append(reading, START);
+        close();
+        assertEquals(0, segments());
+        assertEquals(0, archive.samples());
+    }
+
+    @Test
+    public void oldestSegmentsAreDeleted() throws Exception {
+        archive = new TelemetryArchive(dir, 1, sealer);   // keeps the newest segment only
+        appendSpeed(0, 3 * WINDOW_SAMPLES);
+        close();
+        assertEquals(1, segments());
+        assertEquals(0, range(0x0D, 0, START, START + 2 * TelemetryArchive.BLOCK_MS));
+        assertEquals(WINDOW_SAMPLES, range(0x0D, 0, START, Long.MAX_VALUE));
+    }
+
+    private void close() throws InterruptedException {
+        archive.close();
+        gate.countDown();
+        assertTrue(archive.awaitClosed(5000));
+    }
+
+    /** vehicle speed once per second, from sample i up to sample end */
+    private void appendSpeed(long i, long end) {
+        for (; i < end; i++)
+            append(START + i * 1000, 0x0D, speed(i));
+    }
+
+    private static float speed(long i) {
+        return i % 120;
+    }
+
+    private void append(long time, int pid, float value) {
+        reading.clear();
+        reading.status = OBDReading.Status.OK;
+        reading.mode = 0x41;
+        reading.pid = pid;
+        reading.values[0] = value;
+        reading.valueCount = 1;
+        archive.append(reading, time);
+    }
+
+    private int range(int pid, int field, long from, long to) throws IOException {
+        return archive.range(pid, field, from, to, times, values);
+    }
+
+    private void assertInOrder(long n) {
+        for (int i = 0; i < n; i++) {
+            assertEquals(START + i * 1000L, times[i]);
+            assertEquals(speed(i), values[i], 0);
+        }
+    }
+
+    private int segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".tsg"));
+        return files != null ? files.length : 0;
+    }
+}
@@ -0,0 +1,165 @@
+package com.odb2llm.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ring buffer series of TelemetryStore, incl. range reads racing the writer
+ */
+public class TelemetryStoreTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new TelemetryStore.Series(0x0C, 0, 5).capacity());
+        assertEquals(8, new TelemetryStore.Series(0x0C, 0, 8).capacity());
+        assertEquals(TelemetryStore.MAX_CAPACITY, TelemetryStore.capacityFor(10));
+        assertEquals(10800, TelemetryStore.capacityFor(1000));
+    }
+
+    @Test
+    public void wrapAroundKeepsNewestSamples() {
+        TelemetryStore.Series s = new TelemetryStore.Series(0x0C, 0, 8);
+        assertEquals(0, s.latestTime());
+        assertTrue(Float.isNaN(s.latest()));
+        for (int i = 0; i < 20; i++)
+            s.append(i * 100L, i);
+        assertEquals(20, s.count());
+        assertEquals(7, s.size());     // the slot written next is not read
+        assertEquals(1900, s.latestTime());
+        assertEquals(19, s.latest(), 0);
+
+        long[] times = new long[16];
+        float[] values = new float[16];
+        assertEquals(7, s.range(0, Long.MAX_VALUE, times, values));
+        for (int i = 0; i < 7; i++) {
+            assertEquals(1300 + i * 100L, times[i]);
+            assertEquals(13 + i, values[i], 0);
+        }
+        assertEquals(0, s.range(0, 1300, times, values));     // overwritten
+        assertEquals(3, s.range(1250, 1600, times, values));
+        assertEquals(1300, times[0]);
+        assertEquals(1500, times[2]);
+    }
+
+    @Test
+    public void rangeIsHalfOpenAndOldestFirst() {
+        TelemetryStore.Series s = new TelemetryStore.Series(0x0D, 0, 64);
+        long[] times = new long[2];
+        float[] values = new float[2];
+        assertEquals(0, s.range(0, Long.MAX_VALUE, times, values));
+        for (int i = 0; i < 10; i++)
+            s.append(i * 100L, i);
+        assertEquals(2, s.range(200, 500, times, values));    // limited by the output
+        assertEquals(200, times[0]);
+        assertEquals(300, times[1]);
+        times = new long[10];
+        values = new float[10];
+        assertEquals(3, s.range(200, 500, times, values));
+        assertEquals(400, times[2]);
+        assertEquals(0, s.range(500, 500, times, values));
+        assertEquals(0, s.range(1000, 2000, times, values));
+        assertEquals(1, s.range(-100, 1, times, values));
+    }
+
+    @Test
+    public void downsampleBuckets() {
+        TelemetryStore.Series s = new TelemetryStore.Series(0x0C, 0, 256);
+        for (int i = 0; i < 50; i++)
+            s.append(i * 10L, i * 10);       // 0 .. 490 ms
+        float[] min = new float[4], max = new float[4], avg = new float[4];
+        int[] counts = new int[4];
+        s.downsample(0, 1000, 4, min, max, avg, counts);
+        assertEquals(25, counts[0]);
+        assertEquals(0, min[0], 0);
+        assertEquals(240, max[0], 0);
+        assertEquals(120, avg[0], 0);
+        assertEquals(25, counts[1]);
+        assertEquals(250, min[1], 0);
+        assertEquals(490, max[1], 0);
+        assertEquals(370, avg[1], 0);
+        for (int b = 2; b < 4; b++) {   // no samples
+            assertEquals(0, counts[b]);
+            assertTrue(Float.isNaN(min[b]));
+            assertTrue(Float.isNaN(max[b]));
+            assertTrue(Float.isNaN(avg[b]));
+        }
+
+        s.downsample(100, 300, 2, min, max, avg, counts);     // 100 .. 290 ms
+        assertEquals(10, counts[0]);
+        assertEquals(100, min[0], 0);
+        assertEquals(190, max[0], 0);
+        assertEquals(10, counts[1]);
+        assertEquals(290, max[1], 0);
+
+        assertEquals(490, s.max(0, Long.MAX_VALUE), 0);
+        assertEquals(50, s.min(45, 100), 0);
+        assertTrue(Float.isNaN(s.max(500, 1000)));
+        assertTrue(Float.isNaN(s.min(-100, 0)));
+    }
+
+    @Test
+    public void readingsGoToSeriesPerField() {
+        TelemetryStore store = new TelemetryStore();
+        OBDReading reading = new OBDReading();
+        reading.status = OBDReading.Status.OK;
+        reading.mode = 0x41;
+        reading.pid = 0x14;     // O2 sensor voltage and fuel trim
+        reading.values[0] = 0.45f;
+        reading.values[1] = -3.125f;
+        reading.valueCount = 2;
+        store.append(reading, 1000);
+        assertEquals(0.45f, store.series(0x14, 0).latest(), 0);
+        assertEquals(-3.125f, store.series(0x14, 1).latest(), 0);
+        assertEquals(1000, store.series(0x14, 1).latestTime());
+        assertEquals(2L * TelemetryStore.DEFAULT_CAPACITY * 12, store.memoryUsage());
+
+        reading.status = OBDReading.Status.INVALID;
+        reading.pid = 0x0C;
+        store.append(reading, 2000);
+        assertNull(store.series(0x0C, 0));
+
+        store.reserve(0x0D, 100);
+        assertEquals(128, store.series(0x0D, 0).capacity());
+        assertEquals(0, store.series(0x0D, 0).size());
+    }
+
+    @Test
+    public void concurrentReadsAreOrderedAndInRange() throws Exception {
+        TelemetryStore.Series s = new TelemetryStore.Series(0x0C, 0, 1024);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20000000; i++)
+                s.append(i, i & 0xFFFFF);
+            done.set(true);
+        });
+        long[] times = new long[s.capacity()];
+        float[] values = new float[s.capacity()];
+        long reads = 0;
+        long samples = 0;
+        writer.start();
+        try {
+            while (!done.get()) {
+                long from = Math.max(0, s.count() - s.capacity());  // oldest retained, overwritten soon
+                long to = (reads & 1) == 0 ? Long.MAX_VALUE : from + s.capacity() / 2;
+                int n = s.range(from, to, times, values);
+                for (int i = 0; i < n; i++) {
+                    assertTrue("time " + times[i] + " in [" + from + ", " + to + ")", times[i] >= from && times[i] < to);
+                    // one sample per ms, a sample overtaken by the writer would leave a gap
+                    assertTrue("monotonic", i == 0 || times[i] == times[i - 1] + 1);
+                    assertEquals(times[i] & 0xFFFFF, values[i], 0);
+                }
+                reads++;
+                samples += n;
+            }
+        } finally {
+            writer.join();
+        }
+        assertTrue(reads > 0);
+        assertTrue(samples > 0);
+    }
+}
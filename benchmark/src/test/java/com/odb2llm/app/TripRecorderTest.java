@@ -0,0 +1,211 @@
+package com.odb2llm.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * records written by TripRecorder and read back with its Cursor, incl. recovery of a damaged segment
+ */
+public class TripRecorderTest {
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final byte[] COMMAND = "010C\r".getBytes(StandardCharsets.US_ASCII);
+    private static final int COMMAND_RECORD = TripRecorder.align(TripRecorder.HEADER + COMMAND.length);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadBack() throws Exception {
+        File dir = folder.getRoot();
+        TripRecorder recorder = new TripRecorder(dir, SEGMENT_SIZE, 4);
+        RxBufferPool pool = new RxBufferPool();
+        RxBuffer rx = pool.acquire();
+        byte[] reply = "41 0C 1A F8\r\r>".getBytes(StandardCharsets.US_ASCII);
+        rx.put(reply, 0, reply.length);
+        OBDReading reading = new OBDReading();
+        reading.status = OBDReading.Status.OK;
+        reading.mode = 0x41;
+        reading.pid = 0x14;
+        reading.values[0] = 0.45f;
+        reading.values[1] = -3.125f;
+        reading.valueCount = 2;
+
+        recorder.tx(COMMAND, 0, COMMAND.length, 1000);
+        recorder.rx(rx, 1010);
+        recorder.sample(reading, 1011);
+        reading.status = OBDReading.Status.INVALID;
+        recorder.sample(reading, 1012);     // not recorded
+        recorder.flush();
+        assertEquals(3, recorder.records());
+        assertTrue(recorder.commits() > 0);
+        recorder.close();
+        assertNull(recorder.error());
+
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            assertTrue(cursor.next());
+            assertEquals(TripRecorder.TX, cursor.type);
+            assertEquals(1000, cursor.time);
+            assertEquals("010C\r", payload(cursor));
+            assertTrue(cursor.next());
+            assertEquals(TripRecorder.RX, cursor.type);
+            assertEquals(1010, cursor.time);
+            assertEquals("41 0C 1A F8\r\r>", payload(cursor));
+            assertTrue(cursor.next());
+            assertEquals(TripRecorder.SAMPLE, cursor.type);
+            assertEquals(0x14, cursor.aux);
+            float[] values = new float[8];
+            assertEquals(2, cursor.values(values));
+            assertEquals(0.45f, values[0], 0);
+            assertEquals(-3.125f, values[1], 0);
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void corruptRecordEndsSegmentOnReopen() throws Exception {
+        File dir = folder.getRoot();
+        writeCommands(dir, 100, 0);
+        File segment = TripRecorder.segments(dir)[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long pos = TripRecorder.SEGMENT_HEADER + 60L * COMMAND_RECORD + TripRecorder.HEADER;
+            file.seek(pos);
+            int b = file.read();
+            file.seek(pos);
+            file.write(b ^ 0x01);     // bit flip in the payload of record 60
+        }
+
+        TripRecorder recorder = reopenAndWrite(dir);
+        assertEquals(60, recorder.recovered());
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {   // tail after record 59 is zero
+            file.seek(TripRecorder.SEGMENT_HEADER + 60L * COMMAND_RECORD);
+            int b;
+            while ((b = file.read()) >= 0)
+                assertEquals(0, b);
+        }
+        assertReadBack(dir, 60);
+    }
+
+    @Test
+    public void tornTailIsRecovered() throws Exception {
+        File dir = folder.getRoot();
+        writeCommands(dir, 100, 0);
+        File segment = TripRecorder.segments(dir)[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(TripRecorder.SEGMENT_HEADER + 42L * COMMAND_RECORD + 10);     // power loss within record 42
+        }
+        TripRecorder recorder = reopenAndWrite(dir);
+        assertEquals(42, recorder.recovered());
+        assertReadBack(dir, 42);
+    }
+
+    @Test
+    public void segmentsRollOverAndOldestAreDeleted() throws Exception {
+        File dir = folder.getRoot();
+        int perSegment = (SEGMENT_SIZE - TripRecorder.SEGMENT_HEADER) / COMMAND_RECORD;
+        int count = 3 * perSegment + 10;
+        writeCommands(dir, count, 1000);
+        File[] segments = TripRecorder.segments(dir);
+        assertEquals(4, segments.length);
+        for (File segment : segments)
+            assertEquals(SEGMENT_SIZE, segment.length());
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(cursor.next());
+                assertEquals(i, cursor.time);
+            }
+            assertFalse(cursor.next());
+        }
+
+        TripRecorder recorder = new TripRecorder(dir, SEGMENT_SIZE, 2);
+        recorder.tx(COMMAND, 0, COMMAND.length, count);
+        recorder.close();
+        assertEquals(2, TripRecorder.segments(dir).length);
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            assertTrue(cursor.next());
+            assertEquals(3 * perSegment, cursor.time);      // first record of the last old segment
+        }
+    }
+
+    @Test
+    public void fullStagingBufferDropsRecords() throws Exception {
+        File dir = folder.getRoot();
+        TripRecorder recorder = new TripRecorder(dir, SEGMENT_SIZE, 100);
+        byte[] large = new byte[TripRecorder.MAX_PAYLOAD];
+        int attempts = 0;
+        while (recorder.dropped() == 0 && attempts < 10000)     // 4 large records fill the staging buffer
+            recorder.tx(large, 0, large.length, attempts++);
+        recorder.tx(new byte[TripRecorder.MAX_PAYLOAD + 1], 0, TripRecorder.MAX_PAYLOAD + 1, attempts++);
+        recorder.close();
+        assertTrue(recorder.dropped() >= 2);
+        assertEquals(attempts, recorder.records() + recorder.dropped());
+        recorder.tx(COMMAND, 0, COMMAND.length, attempts);     // after close
+        assertEquals(attempts, recorder.records() + recorder.dropped() - 1);
+
+        long read = 0;
+        long last = -1;
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            while (cursor.next()) {
+                assertEquals(TripRecorder.MAX_PAYLOAD, cursor.length);
+                assertTrue(cursor.time > last);
+                last = cursor.time;
+                read++;
+            }
+        }
+        assertEquals(recorder.records(), read);
+    }
+
+    private static void writeCommands(File dir, int count, int flushEvery) throws InterruptedException {
+        TripRecorder recorder = new TripRecorder(dir, SEGMENT_SIZE, 16);
+        for (int i = 0; i < count; i++) {
+            recorder.tx(COMMAND, 0, COMMAND.length, i);
+            if (flushEvery > 0 && i % flushEvery == 0)
+                recorder.flush();
+        }
+        recorder.close();
+        assertEquals(0, recorder.dropped());
+    }
+
+    /** reopen the directory, the recorder recovers the last segment and continues in a new one */
+    private static TripRecorder reopenAndWrite(File dir) throws InterruptedException {
+        TripRecorder recorder = new TripRecorder(dir, SEGMENT_SIZE, 16);
+        recorder.tx(COMMAND, 0, COMMAND.length, 1000000);
+        recorder.flush();
+        recorder.close();
+        assertEquals(2, TripRecorder.segments(dir).length);
+        return recorder;
+    }
+
+    /** valid records of the damaged segment, then the one written after reopening */
+    private static void assertReadBack(File dir, int valid) throws IOException {
+        try (TripRecorder.Cursor cursor = new TripRecorder.Cursor(dir)) {
+            for (int i = 0; i < valid; i++) {
+                assertTrue(cursor.next());
+                assertEquals(i, cursor.time);
+                assertEquals("010C\r", payload(cursor));
+            }
+            assertTrue(cursor.next());
+            assertEquals(1000000, cursor.time);
+            assertFalse(cursor.next());
+
+            cursor.seek(valid - 2);
+            assertTrue(cursor.next());
+            assertEquals(valid - 2, cursor.time);
+        }
+    }
+
+    private static String payload(TripRecorder.Cursor cursor) {
+        return new String(cursor.record, TripRecorder.HEADER, cursor.length, StandardCharsets.US_ASCII);
+    }
+}
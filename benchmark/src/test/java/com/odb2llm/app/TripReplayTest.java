@@ -0,0 +1,216 @@
+package com.odb2llm.app;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * a short log written with TripRecorder replayed through the SerialListener callbacks, with pacing and seeks
+ */
+public class TripReplayTest implements SerialListener {
+
+    private static final long START = 1700000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final LinkedBlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+    private final List<Long> arrivals = new ArrayList<>();  // nanoTime of each read
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile Exception error;
+    private TripReplay replay;
+
+    @After
+    public void tearDown() {
+        if (replay != null)
+            replay.disconnect();
+    }
+
+    @Test
+    public void everyReplyIsDeliveredOnce() throws Exception {
+        long[] times = new long[200];
+        for (int i = 0; i < times.length; i++)
+            times[i] = START + i * 100L;
+        play(record(times), TripReplay.MAX_SPEED);
+        assertTrue(connected.await(1, TimeUnit.SECONDS));
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertEquals("end of trip", error.getMessage());
+        assertEquals(times.length, received.size());
+        for (int i = 0; i < times.length; i++)
+            assertEquals(i, (int) received.poll());     // commands of the log are not replayed
+        assertEquals(times.length, replay.reads());
+        assertEquals(times.length * reply(0).length, replay.bytes());
+        assertEquals(times[times.length - 1], replay.position());
+    }
+
+    @Test
+    public void realTimeKeepsRecordedSpacing() throws Exception {
+        long[] times = {START, START + 50, START + 100, START + 150, START + 200};
+        long start = System.nanoTime();
+        play(record(times), TripReplay.REAL_TIME);
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertEquals(times.length, received.size());
+        assertSpacing(times, 1);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void speedUpShortensSpacing() throws Exception {
+        long[] times = new long[20];
+        for (int i = 0; i < times.length; i++)
+            times[i] = START + i * 100L;      // 1.9 s recorded
+        long start = System.nanoTime();
+        play(record(times), 10);
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        assertEquals(times.length, received.size());
+        assertSpacing(times, 10);
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1900 / 2));
+    }
+
+    @Test
+    public void longGapsAreSkipped() throws Exception {
+        long[] times = {START, START + 10, START + 60 * 60 * 1000L, START + 60 * 60 * 1000L + 10};
+        play(record(times), TripReplay.REAL_TIME);
+        assertTrue(ended.await(1, TimeUnit.SECONDS));
+        assertEquals(times.length, received.size());
+    }
+
+    @Test
+    public void seekBeforePlaying() throws Exception {
+        long[] times = new long[10];
+        for (int i = 0; i < times.length; i++)
+            times[i] = START + i * 100L;
+        replay = new TripReplay(record(times)).setSpeed(TripReplay.MAX_SPEED);
+        replay.seek(START + 650);      // first read at or after
+        replay.connect(this);
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertEquals(3, received.size());
+        assertEquals(7, (int) received.poll());
+    }
+
+    @Test
+    public void seekWhileWaitingForTheNextRead() throws Exception {
+        long[] times = new long[10];
+        for (int i = 0; i < times.length; i++)
+            times[i] = START + i * 1000L;
+        play(record(times), TripReplay.REAL_TIME);
+        assertEquals(0, next());
+
+        replay.seek(times[3]);     // forward, the wait for read 1 ends
+        long seek = System.nanoTime();
+        assertEquals(3, next());
+        assertTrue(System.nanoTime() - seek < TimeUnit.MILLISECONDS.toNanos(500));
+
+        replay.seek(times[1]);     // back, pacing starts again from read 1
+        seek = System.nanoTime();
+        assertEquals(1, next());
+        assertTrue(System.nanoTime() - seek < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, next());
+        assertTrue(System.nanoTime() - seek >= TimeUnit.MILLISECONDS.toNanos(1000));
+
+        replay.seek(times[9] - 1);
+        assertEquals(9, next());
+        assertTrue(ended.await(1, TimeUnit.SECONDS));
+        assertNull(received.poll());
+        assertEquals(5, replay.reads());
+        assertEquals(times[9], replay.position());
+    }
+
+    private void play(File dir, double speed) throws Exception {
+        replay = new TripReplay(dir).setSpeed(speed);
+        replay.connect(this);
+    }
+
+    private int next() throws InterruptedException {
+        Integer i = received.poll(2, TimeUnit.SECONDS);
+        assertNotNull(i);
+        return i;
+    }
+
+    /** arrival of read i at least (times[i] - times[0]) / speed after the first */
+    private void assertSpacing(long[] times, double speed) {
+        synchronized (arrivals) {
+            for (int i = 1; i < times.length; i++) {
+                long due = (long) ((times[i] - times[0]) * 1e6 / speed);
+                long actual = arrivals.get(i) - arrivals.get(0);
+                assertTrue("read " + i + " after " + actual / 1000 + " us", actual >= due - TimeUnit.MILLISECONDS.toNanos(2));
+            }
+        }
+    }
+
+    /**
+     * a command and its reply per time, the reply carries the index
+     */
+    private File record(long[] times) throws InterruptedException {
+        File dir = folder.getRoot();
+        TripRecorder recorder = new TripRecorder(dir, 1 << 20, 4);
+        RxBufferPool pool = new RxBufferPool();
+        byte[] command = "010D\r".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < times.length; i++) {
+            recorder.tx(command, 0, command.length, times[i]);
+            byte[] reply = reply(i);
+            RxBuffer buffer = pool.acquire();
+            buffer.put(reply, 0, reply.length);
+            recorder.rx(buffer, times[i]);
+            buffer.release();
+        }
+        recorder.close();
+        assertEquals(0, recorder.dropped());
+        return dir;
+    }
+
+    private static byte[] reply(int i) {
+        StringBuilder sb = new StringBuilder("41 0D ");
+        OBDReading.appendHex(sb, i, 2);
+        return sb.append("\r\r>").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void onSerialConnect() {
+        connected.countDown();
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        error = e;
+        ended.countDown();
+    }
+
+    @Override
+    public void onSerialRead(RxBuffer data) {
+        synchronized (arrivals) {
+            arrivals.add(System.nanoTime());
+        }
+        String text = StandardCharsets.US_ASCII.decode(data.data()).toString();
+        data.release();
+        received.add(Integer.parseInt(text.substring(6, 8), 16));
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<RxBuffer> datas) {
+        throw new UnsupportedOperationException("the replay delivers single reads");
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        error = e;
+        ended.countDown();
+    }
+}